@@ -1,6 +1,9 @@
 import client.Client;
 import client.IClient;
 import common.Reward;
+import common.TaggedConnection;
+import common.Threads;
+import utils.Options;
 import view.CommandLine;
 import view.Output;
 
@@ -13,15 +16,41 @@ public class Main {
     /**
      * Main client entry point
      *
-     * @params args Ignored
+     * @params args Optionally, "virtual" to run the client tasks in virtual threads, followed by any of these
+     * options (as --name=value):
+     * <ul>
+     *     <li>batch-size: the maximum number of requests written to the server at once (64 by default)</li>
+     *     <li>batch-latency: the maximum time (in microseconds) a request waits for others to fill its batch
+     *     (0, the default, to write it right away)</li>
+     * </ul>
      */
     public static void main(String[] args) {
+        boolean virtual = args.length > 0 && args[0].equals("virtual");
+        int batchSize;
+        long batchLatency;
+        try {
+            Options options = new Options(args, virtual ? 1 : 0, "batch-size", "batch-latency");
+            batchSize = (int) options.getLong("batch-size", TaggedConnection.defaultMaximumBatchSize, 1, 1 << 16);
+            batchLatency = options.getLong("batch-latency", 0, 0, 1000000);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid arguments: " + e.getMessage());
+            return;
+        }
+
+        if(virtual) {
+            if(!Threads.virtualThreadsSupported()) {
+                System.out.println("Virtual threads are not supported by this JVM (requires JDK 21 or newer). Terminating");
+                return;
+            }
+            Threads.useVirtualThreads();
+        }
+
         CommandLine commandLine = new CommandLine();
         try {
             IClient client = new Client((not) -> {
                 for(Reward r : not.getRewards())
                     Output.showln(r.toString());
-            });
+            }, true, batchSize, batchLatency);
             commandLine.shell(IClient.class, client);
         } catch(IOException e) {
             System.out.println("Could not connect to server. Terminating");
@@ -1,24 +1,32 @@
 package client;
 
 import client.exceptions.NotAuthenticatedException;
+import client.exceptions.ResponseTooLargeException;
 import common.*;
 import common.messages.*;
 import utils.Pair;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
-import java.net.Socket;
-import java.util.Arrays;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
 
 //TODO:: Refactor to common interface with server facade
 /**
  * The client facade. Exposes all the supported functionality in the server
+ *
+ * Every request is sent with its own tag, so calls from several threads (and asynchronous calls) can be
+ * outstanding at once over the same connection
  */
-public class Client implements IClient {
+public class Client implements IClient, IAsyncClient {
     /**
      * The ip address of the server
      */
@@ -36,6 +44,12 @@ public class Client implements IClient {
      */
     private Demultiplexer conn;
 
+    /**
+     * The location and response of the last rewards query (null if there was none), so that asking
+     * again for the same location does not transfer the rewards if they did not change
+     */
+    private volatile Pair<Location, RewardsWithinDistanceResponse> lastRewards;
+
     /**
      * Logs a user in the system
      *
@@ -46,13 +60,20 @@ public class Client implements IClient {
      * @throws InterruptedException if the thread is interrupted
      */
     public User authenticate(String username, String password) throws IOException, InterruptedException {
-        LoginRequest request = new LoginRequest(username, password);
-
-        conn.send(1, request);
+        return await(authenticateAsync(username, password));
+    }
 
-        LoginResponse response = (LoginResponse)conn.receive(1);
+    /**
+     * Logs a user in the system, without waiting for the response
+     *
+     * @param username the username of the user to try to log in as
+     * @param password the password attempt
+     * @return the user who logged in. Is null if authentication failed
+     */
+    public CompletableFuture<User> authenticateAsync(String username, String password) {
+        LoginRequest request = new LoginRequest(username, password);
 
-        return response.getUser();
+        return conn.request(request).thenApply(msg -> ((LoginResponse)msg).getUser());
     }
 
     /**
@@ -65,39 +86,83 @@ public class Client implements IClient {
      * @throws InterruptedException if the thread is interrupted
      */
     public User register(String username, String password) throws IOException, InterruptedException {
-        RegistrationRequest request = new RegistrationRequest(username, password);
+        return await(registerAsync(username, password));
+    }
 
-        conn.send(1, request);
+    /**
+     * Registers a new user in the system, without waiting for the response
+     *
+     * @param username the username to register as
+     * @param password the password
+     * @return the user who just registered. Is null if registration failed
+     */
+    public CompletableFuture<User> registerAsync(String username, String password) {
+        RegistrationRequest request = new RegistrationRequest(username, password);
 
-        RegistrationResponse response = (RegistrationResponse)conn.receive(1);
-        return response.getUser();
+        return conn.request(request).thenApply(msg -> ((RegistrationResponse)msg).getUser());
     }
 
     /**
-     * Default constructor
+     * Default constructor. Asks the server for compact encodings
      * @throws IOException if creating the socket to the server failed
      */
     public Client(Consumer<Notification> processNotification) throws IOException {
-        common.ClassLoader.loadClasses(Message.class.getPackage().getName(),
-                Arrays.asList(new String[]{"Message", "Exception"}));
-        Socket clientSocket = new Socket(ip, port);
-        conn = new Demultiplexer(new TaggedConnection(clientSocket));
+        this(processNotification, true);
+    }
+
+    /**
+     * Parameterized constructor
+     * @param processNotification the consumer of the notifications
+     * @param compactEncoding whether to ask the server for compact encodings of the responses. Both encodings
+     *                        are understood, so there is no need to wait for the server to agree
+     * @throws IOException if creating the socket to the server failed
+     *
+     * @see CompactEncodingRequest
+     */
+    public Client(Consumer<Notification> processNotification, boolean compactEncoding) throws IOException {
+        this(processNotification, compactEncoding, TaggedConnection.defaultMaximumBatchSize, 0);
+    }
+
+    /**
+     * Parameterized constructor
+     * @param processNotification the consumer of the notifications
+     * @param compactEncoding whether to ask the server for compact encodings of the responses
+     * @param maximumBatchSize the maximum number of requests written to the server at once
+     * @param maximumLatency the maximum time (in microseconds) a request waits for others to fill its batch
+     *                       (0 to write it right away)
+     * @throws IOException if creating the socket to the server failed
+     *
+     * @see TaggedConnection
+     */
+    public Client(Consumer<Notification> processNotification, boolean compactEncoding, int maximumBatchSize,
+                  long maximumLatency) throws IOException {
+        SocketChannel clientChannel = SocketChannel.open(new InetSocketAddress(ip, port));
+        conn = new Demultiplexer(new TaggedConnection(clientChannel, maximumBatchSize, maximumLatency));
         conn.start();
 
+        if (compactEncoding)
+            conn.request(new CompactEncodingRequest(true));
 
-        new Thread(() -> {
+        RewardTracker tracker = new RewardTracker();
+        Threads.start(() -> {
             while(true) {
                 try {
                     Message msg = conn.receive(2);
-                    RewardNotification not = (RewardNotification)msg;
-                    processNotification.accept(not.getNotification());
+                    if (msg instanceof InvalidRequestResponse) {
+                        System.out.println("Notifications rejected: " + ((InvalidRequestResponse) msg).getReason());
+                        continue;
+                    }
+
+                    Notification not = tracker.apply(msg);
+                    if (not != null)
+                        processNotification.accept(not);
                 } catch (EOFException | InterruptedException e) {
                     return; //End of notifications
                 } catch (IOException e) {
                     System.out.println("Error receiving notifications");
                 }
             }
-        }).start();
+        });
     }
 
     /**
@@ -109,18 +174,69 @@ public class Client implements IClient {
      */
     public Map<Location, Integer> getFreeScootersInDistance(Integer x, Integer y)
             throws IOException, InterruptedException, NotAuthenticatedException {
+        return await(getFreeScootersInDistanceAsync(x, y));
+    }
 
+    /**
+     * Gets all free scooters within a certain distance of the given location, without waiting for the response
+     *
+     * @return all free scooters within a certain distance of the given location
+     */
+    public CompletableFuture<Map<Location, Integer>> getFreeScootersInDistanceAsync(Integer x, Integer y) {
         Location location = new Location(x, y);
 
         FreeScootersWithinDistanceRequest request = new FreeScootersWithinDistanceRequest(location);
 
-        conn.send(1, request);
+        return conn.request(request).thenApply(msg -> {
+            assertAnswered(msg);
+            return ((FreeScootersWithinDistanceResponse)msg).getScooters();
+        });
+    }
 
-        Message msg = conn.receive(1);
-        assertAuthenticated(msg);
-        FreeScootersWithinDistanceResponse response = (FreeScootersWithinDistanceResponse)msg;
+    /**
+     * Gets all free scooters within a certain distance of each of the given locations, with a single request
+     *
+     * @param locations the locations (at most {@link FreeScootersBatchRequest#maximumLocations})
+     * @return all free scooters within a certain distance of each location, in the same order
+     * @throws IOException if connecting with the server failed
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public List<Map<Location, Integer>> getFreeScootersInDistance(List<Location> locations)
+            throws IOException, InterruptedException, NotAuthenticatedException {
+        return await(getFreeScootersInDistanceAsync(locations));
+    }
 
-        return response.getScooters();
+    /**
+     * Gets all free scooters within a certain distance of each of the given locations, with a single request,
+     * without waiting for the response
+     *
+     * @implNote if the answer does not fit in a frame, the locations are split in halves, asked for separately
+     *
+     * @param locations the locations (at most {@link FreeScootersBatchRequest#maximumLocations})
+     * @return all free scooters within a certain distance of each location, in the same order
+     */
+    public CompletableFuture<List<Map<Location, Integer>>> getFreeScootersInDistanceAsync(List<Location> locations) {
+        FreeScootersBatchRequest request = new FreeScootersBatchRequest(locations);
+
+        return conn.request(request).thenCompose(msg -> {
+            if(msg instanceof ResponseTooLargeResponse && locations.size() > 1) {
+                int half = locations.size() / 2;
+                return getFreeScootersInDistanceAsync(locations.subList(0, half)).thenCombine(
+                        getFreeScootersInDistanceAsync(locations.subList(half, locations.size())), (first, second) -> {
+                            List<Map<Location, Integer>> ans = new ArrayList<>(first);
+                            ans.addAll(second);
+                            return ans;
+                        });
+            }
+
+            assertAnswered(msg);
+            FreeScootersBatchResponse response = (FreeScootersBatchResponse)msg;
+
+            List<Map<Location, Integer>> ans = new ArrayList<>(response.size());
+            for(int i = 0; i < response.size(); i++)
+                ans.add(response.getScooters(i));
+            return CompletableFuture.completedFuture(ans);
+        });
     }
 
     /**
@@ -132,18 +248,33 @@ public class Client implements IClient {
      */
     public Set<Reward> getRewardsInDistance(Integer x, Integer y)
             throws IOException, InterruptedException, NotAuthenticatedException {
+        return await(getRewardsInDistanceAsync(x, y));
+    }
 
+    /**
+     * Gets all rewards within a certain distance of the given location, without waiting for the response
+     *
+     * @return all rewards within a certain distance of the given location
+     */
+    public CompletableFuture<Set<Reward>> getRewardsInDistanceAsync(Integer x, Integer y) {
         Location location = new Location(x, y);
 
-        RewardsWithinDistanceRequest request = new RewardsWithinDistanceRequest(location);
+        Pair<Location, RewardsWithinDistanceResponse> last = lastRewards;
+        boolean known = last != null && last.getFirst().equals(location);
 
-        conn.send(1, request);
+        RewardsWithinDistanceRequest request =
+                new RewardsWithinDistanceRequest(location, known ? last.getSecond().getVersion() : -1);
 
-        Message msg = conn.receive(1);
-        assertAuthenticated(msg);
-        RewardsWithinDistanceResponse response = (RewardsWithinDistanceResponse)msg;
+        return conn.request(request).thenApply(msg -> {
+            assertAnswered(msg);
+            RewardsWithinDistanceResponse response = (RewardsWithinDistanceResponse)msg;
 
-        return response.getRewards();
+            if(response.isUnchanged() && known)
+                return last.getSecond().getRewards();
+
+            lastRewards = new Pair<>(location, response);
+            return response.getRewards();
+        });
     }
 
     /**
@@ -160,15 +291,26 @@ public class Client implements IClient {
      */
     public Pair<Integer, Location> reserveScooter(Integer x, Integer y)
             throws IOException, InterruptedException {
+        return await(reserveScooterAsync(x, y));
+    }
+
+    /**
+     * Reserves the scooter closest to the given location, without waiting for the response
+     *
+     * @param x the x coordinate of the target location
+     * @param y the y coordinate of the target location
+     *
+     * @return the reservation code and the location of the scooter
+     */
+    public CompletableFuture<Pair<Integer, Location>> reserveScooterAsync(Integer x, Integer y) {
         Location location = new Location(x,y);
         ReserveScooterRequest request = new ReserveScooterRequest(location);
 
-        conn.send(1, request);
-        Message msg = conn.receive(1);
-        assertAuthenticated(msg);
-        ReserveScooterResponse response = (ReserveScooterResponse)msg;
-
-        return new Pair<>(response.getReservationCode(), response.getLocation());
+        return conn.request(request).thenApply(msg -> {
+            assertAnswered(msg);
+            ReserveScooterResponse response = (ReserveScooterResponse)msg;
+            return new Pair<>(response.getReservationCode(), response.getLocation());
+        });
     }
 
     /**
@@ -181,17 +323,25 @@ public class Client implements IClient {
      * @throws InterruptedException if the thread is interrupted
      */
     public int endReservation(Integer id, Integer x, Integer y) throws IOException, InterruptedException {
+        return await(endReservationAsync(id, x, y));
+    }
+
+    /**
+     * Ends a reservation, without waiting for the response
+     * @param id the id of the reservation
+     * @param x the x coordinate to the location to park the scooter in
+     * @param y the y coordinate to the location to park the scooter in
+     * @return the price the user must pay for the reservation (-1 if ending the reservation failed)
+     */
+    public CompletableFuture<Integer> endReservationAsync(Integer id, Integer x, Integer y) {
         Location location = new Location(x, y);
 
         EndReservationRequest request = new EndReservationRequest(location, id);
 
-        conn.send(1, request);
-
-        Message msg = conn.receive(1);
-        assertAuthenticated(msg);
-        EndReservationResponse response = (EndReservationResponse)msg;
-
-        return response.getCost();
+        return conn.request(request).thenApply(msg -> {
+            assertAnswered(msg);
+            return ((EndReservationResponse)msg).getCost();
+        });
     }
 
     public void startNotifications() throws IOException {
@@ -199,14 +349,69 @@ public class Client implements IClient {
         conn.send(2, request);
     }
 
+    /**
+     * Subscribes only to the rewards starting within a distance of a location, and paying at least an amount.
+     * Notifications hold all such rewards, and are only sent when they change
+     * @param x the x coordinate of the center of the area
+     * @param y the y coordinate of the center of the area
+     * @param radius the maximum distance from the center of the area
+     * @param minimumMoney the minimum prize money of the rewards (0 for any)
+     * @throws IOException if sending the request failed
+     * @throws IllegalArgumentException if the radius is negative
+     */
+    public void startNotifications(Integer x, Integer y, Integer radius, Integer minimumMoney) throws IOException {
+        if(radius < 0)
+            throw new IllegalArgumentException("Invalid radius: " + radius);
+        GeofencedNotificationsRequest request = new GeofencedNotificationsRequest(new Location(x, y), radius, minimumMoney);
+        conn.send(2, request);
+    }
+
+    /**
+     * Cancels the subscription to notifications
+     *
+     * @implNote sent with the same tag as the subscriptions (and the notifications), as the server only keeps
+     * the order of requests with the same tag: a cancellation is never processed before an earlier subscription,
+     * nor after a later one
+     *
+     * @throws IOException if sending the request failed
+     */
     public void stopNotifications() throws IOException {
         CancelNotificationsRequest request = new CancelNotificationsRequest();
-        conn.send(1, request);
+        conn.send(2, request);
     }
 
-    private void assertAuthenticated(Message msg) throws RuntimeException {
+    /**
+     * Checks that the server answered a request
+     * @param msg the response
+     * @throws NotAuthenticatedException if the user is not logged in
+     * @throws ResponseTooLargeException if the answer did not fit in a frame
+     */
+    private void assertAnswered(Message msg) throws RuntimeException {
         if(msg instanceof NotAuthenticatedResponse)
             throw new NotAuthenticatedException("Not logged in");
+        if(msg instanceof ResponseTooLargeResponse)
+            throw new ResponseTooLargeException("Response too large");
+    }
+
+    /**
+     * Waits for the result of an asynchronous call
+     * @param future the future of the call
+     * @param <T> the type of the result
+     * @return the result of the call
+     * @throws IOException if connecting with the server failed
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private static <T> T await(CompletableFuture<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
     }
 
     /**
@@ -0,0 +1,30 @@
+package client;
+
+import common.Location;
+import common.Reward;
+import common.User;
+import utils.Pair;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The asynchronous variant of {@link IClient}. Every call sends its request right away and returns a
+ * future completed with the result, so that any number of calls (from any number of threads) can be
+ * outstanding over the same connection.
+ *
+ * Futures fail with an {@link java.io.IOException} if the connection fails, and with a
+ * {@link client.exceptions.NotAuthenticatedException} if the call requires a logged in user
+ */
+public interface IAsyncClient {
+
+    CompletableFuture<User> authenticateAsync(String username, String password);
+    CompletableFuture<User> registerAsync(String username, String password);
+    CompletableFuture<Set<Reward>> getRewardsInDistanceAsync(Integer x, Integer y);
+    CompletableFuture<Map<Location, Integer>> getFreeScootersInDistanceAsync(Integer x, Integer y);
+    CompletableFuture<List<Map<Location, Integer>>> getFreeScootersInDistanceAsync(List<Location> locations);
+    CompletableFuture<Pair<Integer, Location>> reserveScooterAsync(Integer x, Integer y);
+    CompletableFuture<Integer> endReservationAsync(Integer id, Integer x, Integer y);
+}
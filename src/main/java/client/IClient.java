@@ -20,5 +20,6 @@ public interface IClient {
     int endReservation(Integer id, Integer x, Integer y) throws IOException, InterruptedException;
 
     void startNotifications() throws IOException;
+    void startNotifications(Integer x, Integer y, Integer radius, Integer minimumMoney) throws IOException;
     void stopNotifications() throws IOException;
 }
@@ -0,0 +1,125 @@
+package client;
+
+import common.Location;
+import common.Notification;
+import common.Reward;
+import common.messages.Message;
+import common.messages.RewardDeltaNotification;
+import common.messages.RewardNotification;
+import common.messages.RewardSnapshotNotification;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The rewards active in the server, as known by the client, rebuilt from the notifications received.
+ *
+ * The server sends all the rewards when subscribing (and periodically afterwards), and otherwise only
+ * the changes from one version to the next. If a change is missed, the changes received are ignored
+ * until all the rewards are sent again. All the rewards may be split in several parts, which are only applied
+ * once the last one is received.
+ *
+ * @implNote Not thread safe: only used by the thread receiving the notifications
+ */
+class RewardTracker {
+    /**
+     * The version of the rewards known
+     */
+    private long version;
+
+    /**
+     * Whether the rewards known are up to date (no change was missed)
+     */
+    private boolean synced;
+
+    /**
+     * The rewards known, indexed by their start location
+     */
+    private final Map<Location, Reward> rewards;
+
+    /**
+     * The parts of all the rewards received so far (null if no rewards are being received in parts)
+     */
+    private Map<Location, Reward> partial;
+
+    /**
+     * The version of the rewards being received in parts
+     */
+    private long partialVersion;
+
+    /**
+     * The index of the next part expected
+     */
+    private int nextPart;
+
+    /**
+     * Default constructor
+     */
+    RewardTracker() {
+        this.version = 0;
+        this.synced = false;
+        this.rewards = new HashMap<>();
+        this.partial = null;
+    }
+
+    /**
+     * Updates the rewards known with a notification
+     * @param msg the notification
+     * @return all the rewards known after the update (null if they could not be updated)
+     */
+    Notification apply(Message msg) {
+        //Notifications of the rewards of an area always hold all of them
+        if (msg instanceof RewardNotification)
+            return ((RewardNotification) msg).getNotification();
+
+        if (msg instanceof RewardSnapshotNotification) {
+            RewardSnapshotNotification snapshot = (RewardSnapshotNotification) msg;
+            if (synced && snapshot.getVersion() <= version)
+                return null;
+
+            if (snapshot.getPart() == 0) {
+                partial = new HashMap<>();
+                partialVersion = snapshot.getVersion();
+                nextPart = 0;
+            }
+            //A part was missed: wait for all the rewards again
+            if (partial == null || partialVersion != snapshot.getVersion() || nextPart != snapshot.getPart()) {
+                partial = null;
+                return null;
+            }
+
+            for (Reward r : snapshot.getNotification().getRewards())
+                partial.put(r.getStartLocation(), r);
+            if (++nextPart < snapshot.getParts())
+                return null;
+
+            rewards.clear();
+            rewards.putAll(partial);
+            partial = null;
+            version = snapshot.getVersion();
+            synced = true;
+            return new Notification(rewards.values());
+        }
+
+        if (msg instanceof RewardDeltaNotification) {
+            RewardDeltaNotification delta = (RewardDeltaNotification) msg;
+            if (!synced || delta.getVersion() <= version)
+                return null;
+
+            if (delta.getBaseVersion() != version) {
+                //A change was missed: wait for all the rewards
+                synced = false;
+                return null;
+            }
+
+            for (Location l : delta.getRemoved())
+                rewards.remove(l);
+            for (Reward r : delta.getAdded())
+                rewards.put(r.getStartLocation(), r);
+            version = delta.getVersion();
+            return new Notification(rewards.values());
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,7 @@
+package client.exceptions;
+
+public class ResponseTooLargeException extends RuntimeException {
+    public ResponseTooLargeException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,124 @@
+package common;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct byte buffers, used to encode and decode frames without allocating (and later
+ * garbage collecting) a new buffer per message.
+ *
+ * Buffers are grouped in size classes (powers of 2, from {@link #minimumSize} to {@link #maximumSize}),
+ * each keeping at most {@link #buffersPerClass} idle buffers.
+ *
+ * @implNote Thread safe
+ */
+public final class BufferPool {
+    /**
+     * The size of the smallest buffers
+     */
+    public static final int minimumSize = 1 << 10;
+
+    /**
+     * The size of the largest buffers
+     */
+    public static final int maximumSize = 1 << 21;
+
+    /**
+     * The maximum number of idle buffers kept per size class
+     */
+    private static final int buffersPerClass = 64;
+
+    /**
+     * The idle buffers of each size class
+     */
+    private static final Queue<ByteBuffer>[] idle = newClasses();
+
+    /**
+     * The number of idle buffers of each size class
+     */
+    private static final AtomicInteger[] idleCount = newCounters();
+
+    /**
+     * Utility class, not to be instantiated
+     */
+    private BufferPool() {}
+
+    /**
+     * Gets a buffer (cleared, and possibly bigger than requested)
+     * @param capacity the minimum capacity of the buffer
+     * @return the buffer
+     * @throws IllegalArgumentException if the capacity is larger than {@link #maximumSize}
+     */
+    public static ByteBuffer acquire(int capacity) {
+        int c = sizeClass(capacity);
+        ByteBuffer ans = idle[c].poll();
+        if (ans == null)
+            return ByteBuffer.allocateDirect(minimumSize << c);
+
+        idleCount[c].decrementAndGet();
+        return ans;
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used afterwards
+     * @param buffer a buffer given by {@link #acquire(int)}. Buffers which cannot be pooled (not direct,
+     *               read-only or of other sizes) are ignored
+     */
+    public static void release(ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.isReadOnly() || buffer.capacity() > maximumSize)
+            return;
+
+        int c = sizeClass(buffer.capacity());
+        if ((minimumSize << c) != buffer.capacity())
+            return;
+
+        if (idleCount[c].incrementAndGet() > buffersPerClass) {
+            idleCount[c].decrementAndGet();
+            return;
+        }
+
+        buffer.clear();
+        idle[c].add(buffer);
+    }
+
+    /**
+     * Gets the size class fitting the given capacity
+     * @param capacity the capacity
+     * @return the index of the smallest size class fitting the capacity
+     * @throws IllegalArgumentException if the capacity is larger than {@link #maximumSize}
+     */
+    private static int sizeClass(int capacity) {
+        if (capacity > maximumSize)
+            throw new IllegalArgumentException("Buffer too large: " + capacity);
+
+        int c = 0;
+        while ((minimumSize << c) < capacity)
+            c++;
+        return c;
+    }
+
+    /**
+     * Creates the queues of idle buffers
+     * @return the queues of idle buffers, one per size class
+     */
+    @SuppressWarnings("unchecked")
+    private static Queue<ByteBuffer>[] newClasses() {
+        Queue<ByteBuffer>[] ans = new Queue[sizeClass(maximumSize) + 1];
+        for (int i = 0; i < ans.length; i++)
+            ans[i] = new ConcurrentLinkedQueue<>();
+        return ans;
+    }
+
+    /**
+     * Creates the counters of idle buffers
+     * @return the counters of idle buffers, one per size class
+     */
+    private static AtomicInteger[] newCounters() {
+        AtomicInteger[] ans = new AtomicInteger[sizeClass(maximumSize) + 1];
+        for (int i = 0; i < ans.length; i++)
+            ans[i] = new AtomicInteger(0);
+        return ans;
+    }
+}
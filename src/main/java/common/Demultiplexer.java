@@ -2,56 +2,156 @@ package common;
 
 import common.messages.Message;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.util.*;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
-//TODO:: Cleanup unused buffers
 /**
  * A demultiplexer to allow multiple threads to send tagged messages, and to receive messages with a specific tag.
  * Useful for distinguishing messages from notifications and regular requests / responses
  *
+ * Besides the fixed tags, requests can be sent with {@link #request(Message)}, which gives each one a unique
+ * tag and completes a future with its response. Any number of such requests can be outstanding at once.
+ *
+ * Each tag has its own slot, found in a concurrent map, so threads using different tags never contend.
+ * A slot is created when a thread waits on its tag, or a message arrives for it, and reclaimed as soon as it
+ * holds no messages and nobody waits on it. Each slot buffers at most {@link #maximumBuffered} messages:
+ * when one is full, the demultiplexer stops reading from the connection until its messages are received.
+ * If none is received within {@link #maximumStall} milliseconds, nobody is taken to receive the tag, and its
+ * messages are dropped (and counted) instead, until one of them is received again: a tag nobody receives
+ * never stalls the others.
+ *
  * @see TaggedConnection
  */
 public class Demultiplexer implements AutoCloseable {
     /**
-     * All conditions indexed by tag. Used to signal threads blocked waiting for a message
-     * with the given tag
+     * The messages with a given tag waiting to be received
+     */
+    private static class Slot {
+        /**
+         * The messages received and not yet taken
+         */
+        private final Queue<Message> messages;
+
+        /**
+         * The number of threads using the slot (waiting to take or to put a message). The slot can only be
+         * reclaimed when it is 0 and there are no messages. Only incremented while the slot is in the map
+         * (and the map locks its entry), so that a reclaimed slot is never used again
+         */
+        private final AtomicInteger users;
+
+        /**
+         * The lock to synchronize the slot
+         */
+        private final ReentrantLock lock;
+
+        /**
+         * Signalled when a message is put in the slot (or the connection failed)
+         */
+        private final Condition notEmpty;
+
+        /**
+         * Signalled when a message is taken from the slot (or the connection failed)
+         */
+        private final Condition notFull;
+
+        /**
+         * Whether the slot stayed full for longer than {@link #maximumStall}, so that its messages are dropped
+         * until one is taken
+         */
+        private boolean abandoned;
+
+        /**
+         * Default constructor
+         */
+        private Slot() {
+            this.messages = new ArrayDeque<>();
+            this.users = new AtomicInteger(0);
+            this.lock = new ReentrantLock();
+            this.notEmpty = lock.newCondition();
+            this.notFull = lock.newCondition();
+            this.abandoned = false;
+        }
+
+        /**
+         * Checks whether the slot can be reclaimed
+         * @return whether nobody uses the slot, and it holds no messages
+         */
+        private boolean isIdle() {
+            lock.lock();
+            try {
+                return users.get() == 0 && messages.isEmpty();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The maximum number of messages buffered per tag
+     */
+    public static final int maximumBuffered = 1024;
+
+    /**
+     * The first tag given to requests. Lower tags are reserved for fixed use
+     */
+    public static final int firstRequestTag = 16;
+
+    /**
+     * The maximum time (in milliseconds) the demultiplexer stops reading for a full slot, before dropping its
+     * messages
      */
-    private Map<Integer, Condition> conditions;
+    public static final long maximumStall = 1000;
 
     /**
-     * All the message buffers indexed by tag. When a new message is received, it is put in this buffer
-     * under the appropriate tag. When a thread requests a message with the given tag, simply get the first
-     * message in the queue, or wait for a new one if it is empty
+     * The slots of the fixed tags in use, indexed by tag. Messages with request tags never get one
      */
-    private Map<Integer, Queue<Message>> messageBuffers;
+    private final Map<Integer, Slot> slots;
+
     /**
-     * The lock to synchronize the buffers
+     * The futures of the outstanding requests, indexed by their (unique) tag
      */
-    private Lock l;
+    private final Map<Integer, CompletableFuture<Message>> pendingRequests;
+
+    /**
+     * The next tag to try to give to a request
+     */
+    private final AtomicInteger nextTag;
+
+    /**
+     * The number of messages dropped because nobody received their tag
+     */
+    private final AtomicLong dropped;
 
     /**
      * The tagged connection to construct the demultiplexer around
      */
-    private TaggedConnection conn;
+    private final TaggedConnection conn;
 
     /**
      * An exception. Used to store any exception that may occur during sending/receiving from
      * the connection, and to propagate it to all blocked threads waiting for data
      */
-    private IOException exception;
+    private volatile IOException exception;
 
     /**
      * Parameterized constructor
      * @param connection the tagged connection to construct the demultiplexer around
      */
     public Demultiplexer (TaggedConnection connection) {
-        conditions = new HashMap<>();
-        messageBuffers = new HashMap<>();
-        l = new ReentrantLock();
+        slots = new ConcurrentHashMap<>();
+        pendingRequests = new ConcurrentHashMap<>();
+        nextTag = new AtomicInteger(firstRequestTag);
+        dropped = new AtomicLong(0);
         conn = connection;
         exception = null;
     }
@@ -61,39 +161,31 @@ public class Demultiplexer implements AutoCloseable {
      * @throws IOException if something goes wrong during execution
      */
     public void start() throws IOException {
-        new Thread(() -> {
+        Threads.start(() -> {
             try {
                 while (true) {
                     TaggedConnection.Frame frame = this.conn.receive();
 
-                    l.lock();
-                    try {
-                        int tag = frame.getTag();
+                    //Responses to requests complete their future right away, in this thread
+                    CompletableFuture<Message> request = pendingRequests.remove(frame.getTag());
+                    if (request != null) {
+                        request.complete(frame.getMessage());
+                        continue;
+                    }
 
-                        //Replies to tag that don't exist are dropped
-                        if(!messageBuffers.containsKey(tag)) {
-                            continue;
-                        }
+                    //Nobody will ever receive a late response to a cancelled request, so it is dropped
+                    if (frame.getTag() >= firstRequestTag)
+                        continue;
 
-                        Queue<Message> q = messageBuffers.get(tag);
-                        q.add(frame.getMessage());
-                        conditions.get(tag).signal();
-                    } finally {
-                        l.unlock();
-                    }
+                    put(frame.getTag(), frame.getMessage());
                 }
             } catch (IOException e) {
-                try {
-                    l.lock();
-
-                    this.exception = e;
-                    this.conditions.forEach((k,v) -> v.signalAll());
-                } finally {
-                    l.unlock();
-                }
-
+                fail(e);
+            } catch (InterruptedException e) {
+                fail(new IOException("Demultiplexer interrupted"));
+                Thread.currentThread().interrupt();
             }
-        }).start();
+        });
     }
 
     /**
@@ -106,6 +198,43 @@ public class Demultiplexer implements AutoCloseable {
         this.conn.send(tag, message);
     }
 
+    /**
+     * Sends a request with a unique tag, without waiting for its response
+     *
+     * @implNote the future is completed by the thread receiving from the connection, so any (non async)
+     * dependent action runs in that thread and should be short. Cancelling the future frees its tag
+     *
+     * @param message the request
+     * @return a future completed with the response to the request, or exceptionally if the connection fails
+     */
+    public CompletableFuture<Message> request(Message message) {
+        CompletableFuture<Message> ans = new CompletableFuture<>();
+        int tag = reserveTag(ans);
+
+        //Checked after registering, so that the future is failed either here or by the receiving thread
+        IOException e = this.exception;
+        if (e != null) {
+            pendingRequests.remove(tag);
+            ans.completeExceptionally(e);
+            return ans;
+        }
+
+        try {
+            this.conn.send(tag, message);
+        } catch (IOException ex) {
+            pendingRequests.remove(tag);
+            ans.completeExceptionally(ex);
+            return ans;
+        }
+
+        //A late response to a cancelled request then finds no future, and is dropped
+        ans.whenComplete((m, ex) -> {
+            if (ans.isCancelled())
+                pendingRequests.remove(tag, ans);
+        });
+        return ans;
+    }
+
     /**
      * Receives a message with the given tag
      * @param tag the tag of the target message
@@ -114,38 +243,156 @@ public class Demultiplexer implements AutoCloseable {
      * @throws InterruptedException if the thread is interrupted
      */
     public Message receive(int tag) throws IOException, InterruptedException{
-        l.lock();
+        Slot slot = acquire(tag);
         try {
-            Condition c = conditions.get(tag);
+            slot.lock.lock();
+            try {
+                while (slot.messages.isEmpty() && this.exception == null)
+                    slot.notEmpty.await();
+
+                if (slot.messages.isEmpty())
+                    throw this.exception;
 
-            if(c == null) {
-                c = l.newCondition();
-                conditions.put(tag, c);
-                messageBuffers.put(tag, new ArrayDeque<>());
+                Message ans = slot.messages.poll();
+                slot.abandoned = false;
+                slot.notFull.signal();
+                return ans;
+            } finally {
+                slot.lock.unlock();
             }
+        } finally {
+            release(tag, slot);
+        }
+    }
+
+    /**
+     * Buffers a message received with a fixed tag, waiting while its slot is full (for at most
+     * {@link #maximumStall} milliseconds, and not at all if it was abandoned). The message is dropped if the
+     * slot is still full
+     * @param tag the tag of the message
+     * @param message the message
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private void put(int tag, Message message) throws InterruptedException {
+        Slot slot = acquire(tag);
+        try {
+            slot.lock.lock();
+            try {
+                long nanos = slot.abandoned ? 0 : TimeUnit.MILLISECONDS.toNanos(maximumStall);
+                while (slot.messages.size() >= maximumBuffered && this.exception == null && nanos > 0)
+                    nanos = slot.notFull.awaitNanos(nanos);
 
-            Queue<Message> buffer = messageBuffers.get(tag);
+                if (slot.messages.size() >= maximumBuffered) {
+                    if (!slot.abandoned)
+                        System.out.println("Nobody receives the messages with tag " + tag + ", dropping them");
+                    slot.abandoned = true;
+                    dropped.incrementAndGet();
+                    return;
+                }
 
-            while (buffer.isEmpty() && this.exception == null) {
-                c.await();
+                slot.messages.add(message);
+                slot.notEmpty.signal();
+            } finally {
+                slot.lock.unlock();
             }
+        } finally {
+            release(tag, slot);
+        }
+    }
+
+    /**
+     * Gets the slot of a tag (creating it if needed), registering the caller as one of its users
+     * @param tag the tag
+     * @return the slot of the tag
+     */
+    private Slot acquire(int tag) {
+        return slots.compute(tag, (k, s) -> {
+            if (s == null)
+                s = new Slot();
+            s.users.incrementAndGet();
+            return s;
+        });
+    }
+
+    /**
+     * Stops using the slot of a tag, reclaiming it if it is no longer needed
+     * @param tag the tag
+     * @param slot the slot of the tag
+     */
+    private void release(int tag, Slot slot) {
+        if (slot.users.decrementAndGet() == 0)
+            slots.computeIfPresent(tag, (k, s) -> s.isIdle() ? null : s);
+    }
+
+    /**
+     * Gets the number of messages dropped because nobody received their tag
+     * @return the number of messages dropped
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Checks whether a tag has a slot (someone waits on it, or messages with it are buffered)
+     * @param tag the tag
+     * @return whether the tag has a slot
+     */
+    boolean hasSlot(int tag) {
+        return slots.containsKey(tag);
+    }
 
-            if (!buffer.isEmpty()) {
-                return buffer.poll();
+    /**
+     * Gives a future an unused tag
+     * @param future the future completed by the response with the tag
+     * @return the tag
+     */
+    private int reserveTag(CompletableFuture<Message> future) {
+        while (true) {
+            int tag = nextTag.getAndIncrement();
+            if (tag < firstRequestTag) {
+                //Wrapped around
+                nextTag.compareAndSet(tag + 1, firstRequestTag);
+                continue;
             }
-            else {
-                throw this.exception;
+
+            if (pendingRequests.putIfAbsent(tag, future) == null)
+                return tag;
+        }
+    }
+
+    /**
+     * Propagates a failure of the connection to every thread waiting for data, and fails every
+     * outstanding request. Only the first failure is kept
+     * @param e the cause
+     */
+    private void fail(IOException e) {
+        if (this.exception == null)
+            this.exception = e;
+
+        for (Slot slot : slots.values()) {
+            slot.lock.lock();
+            try {
+                slot.notEmpty.signalAll();
+                slot.notFull.signalAll();
+            } finally {
+                slot.lock.unlock();
             }
-        } finally {
-            l.unlock();
+        }
+
+        for (Integer tag : pendingRequests.keySet()) {
+            CompletableFuture<Message> f = pendingRequests.remove(tag);
+            if (f != null)
+                f.completeExceptionally(this.exception);
         }
     }
 
     /**
-     * Closes the underlying connection of the demultiplexer
+     * Closes the underlying connection of the demultiplexer. Threads waiting for data
+     * then fail with an {@link EOFException}
      * @throws IOException if closing the connection failed
      */
     public void close() throws IOException {
+        fail(new EOFException("Connection closed"));
         this.conn.close();
     }
 }
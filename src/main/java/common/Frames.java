@@ -0,0 +1,217 @@
+package common;
+
+import common.messages.Message;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The wire format shared by every transport.
+ *
+ * Each frame is made of an 8 byte header, holding the length of the payload and the tag, followed by
+ * the payload (the serialized message, starting with its code). As the length comes first, a receiver
+ * knows how many bytes to wait for, can size its buffer exactly, and can reject an oversized frame
+ * before reading (or allocating room for) any of it.
+ *
+ * Payloads are encoded into pooled direct buffers, kept apart from the header, so that both can be
+ * sent with a single gathering write.
+ *
+ * @see BufferPool
+ */
+public final class Frames {
+    /**
+     * The size of the header of a frame (length and tag)
+     */
+    public static final int headerSize = 8;
+
+    /**
+     * The maximum size of the payload of a frame
+     */
+    public static final int maximumPayloadSize = 1 << 20;
+
+    /**
+     * Thrown when a message does not fit in a single frame
+     */
+    public static class TooLargeException extends IOException {
+        /**
+         * Default constructor
+         */
+        public TooLargeException() {
+            super("Frame too large");
+        }
+    }
+
+    /**
+     * An output stream writing to a pooled buffer, replacing it by a bigger one when full
+     */
+    private static class BufferOutputStream extends OutputStream {
+        /**
+         * The buffer written to
+         */
+        private ByteBuffer buffer = BufferPool.acquire(BufferPool.minimumSize);
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureRemaining(1);
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureRemaining(len);
+            buffer.put(b, off, len);
+        }
+
+        /**
+         * Makes sure the buffer can take the given number of bytes
+         * @param n the number of bytes
+         * @throws IOException if the payload would exceed its maximum size
+         */
+        private void ensureRemaining(int n) throws IOException {
+            if (buffer.remaining() >= n)
+                return;
+
+            int needed = buffer.position() + n;
+            if (needed > maximumPayloadSize) {
+                BufferPool.release(buffer);
+                throw new TooLargeException();
+            }
+
+            ByteBuffer bigger = BufferPool.acquire(Math.max(needed, 2 * buffer.capacity()));
+            buffer.flip();
+            bigger.put(buffer);
+            BufferPool.release(buffer);
+            buffer = bigger;
+        }
+    }
+
+    /**
+     * An input stream reading from a buffer
+     */
+    private static class BufferInputStream extends InputStream {
+        /**
+         * The buffer read from
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * Parameterized constructor
+         * @param buffer the buffer to read from
+         */
+        private BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining())
+                return -1;
+
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Utility class, not to be instantiated
+     */
+    private Frames() {}
+
+    /**
+     * Encodes the payload of a message
+     * @param message the message
+     * @return a pooled buffer (ready to be read) with the payload. Should be released once sent
+     * @throws IOException if the message could not be serialized
+     * @throws TooLargeException if the message does not fit in a frame
+     *
+     * @see BufferPool#release(ByteBuffer)
+     */
+    public static ByteBuffer encode(Message message) throws IOException {
+        BufferOutputStream out = new BufferOutputStream();
+        message.serialize(new DataOutputStream(out));
+
+        out.buffer.flip();
+        return out.buffer;
+    }
+
+    /**
+     * Encodes the payload of a message once, so that it can be sent any number of times (to any number of
+     * connections, concurrently) without being serialized again
+     *
+     * @implNote the payload is copied out of the pool, into a read-only direct buffer of its own, which
+     * transports send as is (next to their own header) and releasing ignores
+     *
+     * @param message the message
+     * @return a read-only buffer (ready to be read) with the payload. Never changed by sending it
+     * @throws IOException if the message could not be serialized
+     * @throws TooLargeException if the message does not fit in a frame
+     *
+     * @see ITaggedConnection#send(int, ByteBuffer)
+     */
+    public static ByteBuffer encodeShared(Message message) throws IOException {
+        ByteBuffer encoded = encode(message);
+        try {
+            ByteBuffer copy = ByteBuffer.allocateDirect(encoded.remaining());
+            copy.put(encoded);
+            copy.flip();
+            return copy.asReadOnlyBuffer();
+        } finally {
+            BufferPool.release(encoded);
+        }
+    }
+
+    /**
+     * Writes the header of a frame
+     * @param header the buffer to write to (with at least {@link #headerSize} bytes remaining)
+     * @param tag the tag of the frame
+     * @param payloadSize the size of the payload
+     */
+    public static void writeHeader(ByteBuffer header, int tag, int payloadSize) {
+        header.putInt(payloadSize);
+        header.putInt(tag);
+    }
+
+    /**
+     * Reads the size of the payload from the header of a frame
+     * @param header the buffer to read from (with at least {@link #headerSize} bytes remaining). The tag is
+     *               left in the buffer
+     * @return the size of the payload
+     * @throws IOException if the size is invalid or too large
+     */
+    public static int readPayloadSize(ByteBuffer header) throws IOException {
+        int size = header.getInt();
+        if (size < 0 || size > maximumPayloadSize)
+            throw new IOException("Invalid frame size: " + size);
+        return size;
+    }
+
+    /**
+     * Decodes a frame
+     * @param tag the tag of the frame
+     * @param payload the buffer with the whole payload (and nothing else) remaining
+     * @return the frame
+     * @throws IOException if the payload is not a valid message
+     */
+    public static TaggedConnection.Frame decode(int tag, ByteBuffer payload) throws IOException {
+        Message message = Message.deserialize(new DataInputStream(new BufferInputStream(payload)));
+        if (payload.hasRemaining())
+            throw new IOException("Malformed frame: " + payload.remaining() + " bytes left");
+
+        return new TaggedConnection.Frame(tag, message);
+    }
+}
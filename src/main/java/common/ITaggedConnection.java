@@ -0,0 +1,48 @@
+package common;
+
+import common.messages.Message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The sending side of a tagged connection.
+ *
+ * Message handlers only ever need to send tagged messages back to the client, regardless of
+ * whether the connection is a blocking socket or a non-blocking channel served by an event loop.
+ *
+ * @see TaggedConnection
+ */
+public interface ITaggedConnection extends AutoCloseable {
+    /**
+     * Send a message with the given tag
+     *
+     * @implNote Implementations must be thread safe
+     *
+     * @param tag the given tag
+     * @param message the message to send
+     * @throws IOException if sending the message failed
+     */
+    void send(int tag, Message message) throws IOException;
+
+    /**
+     * Send an already encoded message with the given tag
+     *
+     * @implNote Implementations must be thread safe. Only a read-only view of the payload is sent, so the
+     * same payload can be sent any number of times, to any number of connections, concurrently
+     *
+     * @param tag the given tag
+     * @param payload the encoded message (code and contents), ready to be read
+     * @throws IOException if sending the message failed
+     *
+     * @see Frames#encodeShared(Message)
+     */
+    void send(int tag, ByteBuffer payload) throws IOException;
+
+    /**
+     * Closes the connection
+     * @throws IOException if closing the connection failed
+     */
+    @Override
+    void close() throws IOException;
+}
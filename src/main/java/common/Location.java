@@ -81,6 +81,64 @@ public final class Location implements Comparable<Location> {
         return Math.abs(a.getX() - b.getX()) + Math.abs(a.getY() - b.getY());
     }
 
+    /**
+     * Packs a pair of coordinates into a single long, so that locations can be used as keys of
+     * primitive collections without allocating Location objects
+     *
+     * @param x the x-axis coordinate
+     * @param y the y-axis coordinate
+     * @return the packed coordinates
+     *
+     * @see Location#unpackX(long)
+     * @see Location#unpackY(long)
+     */
+    public static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Packs the coordinates of the location into a single long
+     * @return the packed coordinates
+     *
+     * @see Location#pack(int, int)
+     */
+    public long pack() {
+        return pack(x, y);
+    }
+
+    /**
+     * Gets the x coordinate of packed coordinates
+     * @param packed the packed coordinates
+     * @return the x coordinate
+     *
+     * @see Location#pack(int, int)
+     */
+    public static int unpackX(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    /**
+     * Gets the y coordinate of packed coordinates
+     * @param packed the packed coordinates
+     * @return the y coordinate
+     *
+     * @see Location#pack(int, int)
+     */
+    public static int unpackY(long packed) {
+        return (int) packed;
+    }
+
+    /**
+     * Creates a location from packed coordinates
+     * @param packed the packed coordinates
+     * @return the location
+     *
+     * @see Location#pack(int, int)
+     */
+    public static Location unpack(long packed) {
+        return new Location(unpackX(packed), unpackY(packed));
+    }
+
     /**
      * Serializes the object into a DataOutputStream
      *
@@ -144,6 +202,12 @@ public final class Location implements Comparable<Location> {
 
         return l.getX() == this.getX() && l.getY() == this.getY();
     }
+
+    @Override
+    public int hashCode() {
+        return 31 * x + y;
+    }
+
     @Override
     public String toString() {
         return String.format("(%d,%d)", x, y);
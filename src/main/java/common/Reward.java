@@ -98,6 +98,25 @@ public final class Reward {
         out.writeInt(money);
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if(o == null)
+            return false;
+
+        if(!(o instanceof Reward))
+            return false;
+
+        Reward r = (Reward)o;
+
+        return r.getStartLocation().equals(startLocation) && r.getEndLocation().equals(endLocation)
+                && r.getMoney() == money;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * startLocation.hashCode() + endLocation.hashCode()) + money;
+    }
+
     @Override
     public String toString() {
         return String.format("Start: %s, End: %s, Money: %d", startLocation.toString(), endLocation.toString(), money);
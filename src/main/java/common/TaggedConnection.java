@@ -2,8 +2,15 @@ package common;
 
 import common.messages.Message;
 
-import java.io.*;
-import java.net.Socket;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -12,8 +19,10 @@ import java.util.concurrent.locks.ReentrantLock;
  * A tagged connection is a connection where each message is preceded by an integer
  * (a tag). Useful for splitting messages into different categories (for example, notifications
  * from regular requests), and allows multiple threads to share a socket.
+ *
+ * @see Frames
  */
-public class TaggedConnection implements AutoCloseable {
+public class TaggedConnection implements ITaggedConnection {
     /**
      * A wrapper class for pairs of messages and tags
      */
@@ -55,61 +64,387 @@ public class TaggedConnection implements AutoCloseable {
     }
 
     /**
-     * The underlying socket
+     * A frame waiting to be written
+     */
+    private static class Pending {
+        /**
+         * The tag of the frame
+         */
+        private final int tag;
+
+        /**
+         * The (pooled) payload of the frame
+         */
+        private final ByteBuffer payload;
+
+        /**
+         * Parameterized constructor
+         * @param tag the tag of the frame
+         * @param payload the (pooled) payload of the frame
+         */
+        private Pending(int tag, ByteBuffer payload) {
+            this.tag = tag;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * The default maximum number of frames written at once
+     */
+    public static final int defaultMaximumBatchSize = 64;
+
+    /**
+     * The underlying (blocking) channel
+     */
+    private final SocketChannel channel;
+
+    /**
+     * The maximum number of frames written at once
+     */
+    private final int maximumBatchSize;
+
+    /**
+     * The maximum time (in nanoseconds) a frame waits for others to fill its batch. 0 to never wait
+     */
+    private final long maximumLatency;
+
+    /**
+     * The frames waiting to be written
+     */
+    private final Queue<Pending> pending;
+
+    /**
+     * The number of frames queued so far, which is also the sequence number of the last one
+     */
+    private long queued;
+
+    /**
+     * The number of frames written so far. Frames are written in order, so every frame with a sequence number
+     * up to this one was written
+     */
+    private long written;
+
+    /**
+     * Whether a sender is currently writing the pending frames
+     */
+    private boolean flushing;
+
+    /**
+     * The error which broke the connection while writing (null if there was none)
+     */
+    private IOException failure;
+
+    /**
+     * Whether the connection has been closed
      */
-    private Socket socket;
+    private boolean closed;
 
     /**
-     * The underlying DataInputStream
+     * The buffer the headers of a batch of outgoing frames are written to. Only used by the flushing sender
      */
-    private DataInputStream in;
+    private final ByteBuffer sendHeaders;
 
     /**
-     * The underlying DataOutputStream
+     * The buffer the header of incoming frames is read to
      */
-    private DataOutputStream out;
+    private final ByteBuffer receiveHeader;
 
     /**
      * The lock to synchronize sending messages
      */
-    private ReentrantLock sendLock;
+    private final ReentrantLock sendLock;
+
+    /**
+     * Signalled when a full batch of frames is queued
+     */
+    private final Condition frameQueued;
+
+    /**
+     * Signalled when there is room for more frames in the queue
+     */
+    private final Condition queueSpace;
+
+    /**
+     * Signalled when a batch of frames is written, or the connection breaks or is closed
+     */
+    private final Condition frameWritten;
 
     /**
      * The lock to synchronize receiving messages
      */
-    private ReentrantLock receiveLock;
+    private final ReentrantLock receiveLock;
+
+    /**
+     * The total number of writes of batches of frames, over every connection
+     */
+    private static final AtomicLong totalFlushes = new AtomicLong(0);
+
+    /**
+     * The total number of frames written, over every connection
+     */
+    private static final AtomicLong totalFramesFlushed = new AtomicLong(0);
+
+    /**
+     * The total number of writes of batches of frames
+     */
+    private final AtomicLong flushes;
+
+    /**
+     * The total number of frames written
+     */
+    private final AtomicLong framesFlushed;
 
     /**
      * Parameterized constructor
-     * @param socket the socket to base the connection around
-     * @throws IOException if creating the connection failed
+     * @param channel the (blocking) channel to base the connection around
      */
-    public TaggedConnection(Socket socket) throws IOException {
+    public TaggedConnection(SocketChannel channel) {
+        this(channel, defaultMaximumBatchSize, 0);
+    }
+
+    /**
+     * Parameterized constructor
+     * @param channel the (blocking) channel to base the connection around
+     * @param maximumBatchSize the maximum number of frames written at once
+     * @param maximumLatency the maximum time (in microseconds) a frame waits for others to fill its batch.
+     *                       0 to write it right away (along with any other frames queued meanwhile)
+     */
+    public TaggedConnection(SocketChannel channel, int maximumBatchSize, long maximumLatency) {
         this.sendLock = new ReentrantLock();
+        this.frameQueued = sendLock.newCondition();
+        this.queueSpace = sendLock.newCondition();
+        this.frameWritten = sendLock.newCondition();
         this.receiveLock = new ReentrantLock();
-        this.socket = socket;
-        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
-        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.channel = channel;
+        this.maximumBatchSize = maximumBatchSize;
+        this.maximumLatency = TimeUnit.MICROSECONDS.toNanos(maximumLatency);
+        this.pending = new ArrayDeque<>();
+        this.queued = 0;
+        this.written = 0;
+        this.flushing = false;
+        this.failure = null;
+        this.closed = false;
+        this.sendHeaders = ByteBuffer.allocateDirect(Frames.headerSize * maximumBatchSize);
+        this.receiveHeader = ByteBuffer.allocateDirect(Frames.headerSize);
+        this.flushes = new AtomicLong(0);
+        this.framesFlushed = new AtomicLong(0);
     }
 
     /**
      * Send a message with the given tag
      *
-     * @implNote Thread safe
+     * @implNote Thread safe. Senders queue their frames, and the first one to find no other sender
+     * writing becomes the flusher, writing every queued frame (in batches, with a single gathering write
+     * each) until the queue is empty. The other senders wait until the flusher wrote their frame, so every
+     * sender returns only once its own frame was written, or throws if it was not
      *
      * @param tag the given tag
      * @param message the message to send
-     * @throws IOException if sending the message failed
+     * @throws IOException if sending the message failed (including if the connection was closed before it
+     * was written)
      */
+    @Override
     public void send(int tag, Message message) throws IOException {
+        enqueue(tag, Frames.encode(message));
+    }
+
+    /**
+     * Send an already encoded message with the given tag
+     *
+     * @implNote Thread safe. Only a read-only view of the payload is queued, so the payload itself is never
+     * changed nor released
+     *
+     * @param tag the given tag
+     * @param payload the encoded message, ready to be read
+     * @throws IOException if sending the message failed
+     */
+    @Override
+    public void send(int tag, ByteBuffer payload) throws IOException {
+        enqueue(tag, payload.asReadOnlyBuffer());
+    }
+
+    /**
+     * Queues a frame, flushing the queue unless another sender already is
+     * @param tag the tag of the frame
+     * @param payload the payload of the frame, released once written (unless read-only)
+     * @throws IOException if sending the frame failed
+     */
+    private void enqueue(int tag, ByteBuffer payload) throws IOException {
+        long sequence;
         sendLock.lock();
         try {
-            out.writeInt(tag);
-            message.serialize(out);
-            out.flush();
+            while (pending.size() >= 4 * maximumBatchSize && failure == null && !closed)
+                queueSpace.awaitUninterruptibly();
+
+            if (failure != null || closed) {
+                BufferPool.release(payload);
+                throw failure != null ? new IOException("Connection broken", failure) : new IOException("Connection closed");
+            }
+
+            pending.add(new Pending(tag, payload));
+            sequence = ++queued;
+            if (flushing) {
+                //The flusher only waits for a full batch
+                if (pending.size() >= maximumBatchSize)
+                    frameQueued.signal();
+
+                while (written < sequence && failure == null && !closed)
+                    frameWritten.awaitUninterruptibly();
+                if (written < sequence)
+                    throw failure != null ? new IOException("Connection broken", failure) : new IOException("Connection closed");
+                return;
+            }
+            flushing = true;
         } finally {
             sendLock.unlock();
         }
+
+        flush();
+
+        //The flusher stops as soon as the connection is closed, even if its own frame was not written
+        sendLock.lock();
+        try {
+            if (written < sequence)
+                throw new IOException("Connection closed");
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the queued frames until there are none left
+     *
+     * @implNote Only called by the flushing sender
+     *
+     * @throws IOException if writing to the channel failed
+     */
+    private void flush() throws IOException {
+        Pending[] batch = new Pending[maximumBatchSize];
+        ByteBuffer[] buffers = new ByteBuffer[2 * maximumBatchSize];
+
+        try {
+            while (true) {
+                int n = 0;
+
+                sendLock.lock();
+                try {
+                    //Give other senders a chance to fill the batch
+                    long remaining = maximumLatency;
+                    while (pending.size() < maximumBatchSize && remaining > 0 && !closed) {
+                        try {
+                            remaining = frameQueued.awaitNanos(remaining);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+
+                    if (pending.isEmpty() || closed) {
+                        flushing = false;
+                        return;
+                    }
+
+                    while (n < maximumBatchSize && !pending.isEmpty())
+                        batch[n++] = pending.poll();
+                    queueSpace.signalAll();
+                } finally {
+                    sendLock.unlock();
+                }
+
+                write(batch, buffers, n);
+
+                sendLock.lock();
+                try {
+                    written += n;
+                    frameWritten.signalAll();
+                } finally {
+                    sendLock.unlock();
+                }
+            }
+        } catch (IOException e) {
+            sendLock.lock();
+            try {
+                //The senders of the frames not written are woken up to throw as well
+                failure = e;
+                flushing = false;
+                for (Pending p : pending)
+                    BufferPool.release(p.payload);
+                pending.clear();
+                queueSpace.signalAll();
+                frameWritten.signalAll();
+            } finally {
+                sendLock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a batch of frames with a single gathering write (unless the channel does not take them all at once)
+     * @param batch the frames
+     * @param buffers an array to hold the buffers to write (at least twice as long as the batch)
+     * @param n the number of frames in the batch
+     * @throws IOException if writing to the channel failed
+     */
+    private void write(Pending[] batch, ByteBuffer[] buffers, int n) throws IOException {
+        sendHeaders.clear();
+        for (int i = 0; i < n; i++) {
+            ByteBuffer header = sendHeaders.slice();
+            header.limit(Frames.headerSize);
+            Frames.writeHeader(header, batch[i].tag, batch[i].payload.remaining());
+            header.flip();
+            sendHeaders.position(sendHeaders.position() + Frames.headerSize);
+
+            buffers[2 * i] = header;
+            buffers[2 * i + 1] = batch[i].payload;
+        }
+
+        try {
+            while (batch[n - 1].payload.hasRemaining())
+                channel.write(buffers, 0, 2 * n);
+        } finally {
+            for (int i = 0; i < n; i++) {
+                BufferPool.release(batch[i].payload);
+                batch[i] = null;
+            }
+        }
+
+        flushes.incrementAndGet();
+        framesFlushed.addAndGet(n);
+        totalFlushes.incrementAndGet();
+        totalFramesFlushed.addAndGet(n);
+    }
+
+    /**
+     * Gets the total number of writes of batches of frames
+     * @return the total number of writes of batches of frames
+     */
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    /**
+     * Gets the total number of frames written
+     * @return the total number of frames written
+     */
+    public long getFramesFlushed() {
+        return framesFlushed.get();
+    }
+
+    /**
+     * Gets the total number of writes of batches of frames, over every connection
+     * @return the total number of writes of batches of frames, over every connection
+     */
+    public static long getTotalFlushes() {
+        return totalFlushes.get();
+    }
+
+    /**
+     * Gets the total number of frames written, over every connection
+     * @return the total number of frames written, over every connection
+     */
+    public static long getTotalFramesFlushed() {
+        return totalFramesFlushed.get();
     }
 
     /**
@@ -124,22 +459,60 @@ public class TaggedConnection implements AutoCloseable {
         receiveLock.lock();
 
         try {
-            int tag = in.readInt();
-            Message message = Message.deserialize(in);
+            receiveHeader.clear();
+            readFully(receiveHeader);
+            receiveHeader.flip();
 
-            return new Frame(tag, message);
+            int size = Frames.readPayloadSize(receiveHeader);
+            int tag = receiveHeader.getInt();
+
+            ByteBuffer payload = BufferPool.acquire(size);
+            try {
+                payload.limit(size);
+                readFully(payload);
+                payload.flip();
+
+                return Frames.decode(tag, payload);
+            } finally {
+                BufferPool.release(payload);
+            }
         } finally {
             receiveLock.unlock();
         }
     }
 
     /**
-     * Closes the connection
+     * Reads from the channel until the buffer is full
+     * @param buffer the buffer
+     * @throws EOFException if the connection was closed before the buffer was filled
+     * @throws IOException if reading from the channel failed
+     */
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0)
+                throw new EOFException();
+        }
+    }
+
+    /**
+     * Closes the connection. The frames not written yet are dropped, and their senders throw
      * @throws IOException if closing the connection failed
      */
+    @Override
     public void close() throws IOException {
-        in.close();
-        out.close();
-        socket.close();
+        sendLock.lock();
+        try {
+            closed = true;
+            for (Pending p : pending)
+                BufferPool.release(p.payload);
+            pending.clear();
+            frameQueued.signalAll();
+            queueSpace.signalAll();
+            frameWritten.signalAll();
+        } finally {
+            sendLock.unlock();
+        }
+
+        channel.close();
     }
-}
\ No newline at end of file
+}
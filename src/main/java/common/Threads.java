@@ -0,0 +1,122 @@
+package common;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The executor every long-running task of the application (client handlers, notification pushers,
+ * the reward generator, demultiplexer readers, ...) is started with.
+ *
+ * By default, each task runs in its own platform thread. On JDKs supporting virtual threads (21+),
+ * tasks can instead run in virtual threads, keeping the simple blocking style of the code while
+ * allowing a very large number of idle connections, as a blocked virtual thread does not hold an
+ * operating system thread nor its stack.
+ *
+ * @implNote Virtual threads are looked up reflectively, so that the code still compiles for older targets
+ */
+public final class Threads {
+    /**
+     * Handle to {@code Thread.startVirtualThread(Runnable)}. Null if the JDK does not support virtual threads
+     */
+    private static final MethodHandle startVirtualThread = lookupStartVirtualThread();
+
+    /**
+     * Starts every task in a new platform thread
+     */
+    private static final Executor platformThreads = task -> new Thread(task).start();
+
+    /**
+     * The executor currently in use
+     */
+    private static volatile Executor executor = platformThreads;
+
+    /**
+     * Whether tasks run in virtual threads
+     */
+    private static volatile boolean virtual = false;
+
+    /**
+     * The pool of platform threads running short tasks (threads are only created when first needed)
+     */
+    private static final ExecutorService workerPool =
+            Executors.newFixedThreadPool(4 * Runtime.getRuntime().availableProcessors(), task -> {
+                Thread t = new Thread(task);
+                t.setDaemon(true);
+                return t;
+            });
+
+    /**
+     * Utility class, not to be instantiated
+     */
+    private Threads() {}
+
+    /**
+     * Gets whether the running JDK supports virtual threads
+     * @return whether the running JDK supports virtual threads
+     */
+    public static boolean virtualThreadsSupported() {
+        return startVirtualThread != null;
+    }
+
+    /**
+     * Starts all subsequent tasks in virtual threads
+     * @throws UnsupportedOperationException if the running JDK does not support virtual threads
+     */
+    public static void useVirtualThreads() {
+        if (!virtualThreadsSupported())
+            throw new UnsupportedOperationException("Virtual threads require JDK 21 or newer");
+
+        virtual = true;
+        setExecutor(task -> {
+            try {
+                startVirtualThread.invoke(task);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException("Unable to start virtual thread", e);
+            }
+        });
+    }
+
+    /**
+     * Replaces the executor all subsequent tasks are started with
+     * @param e the new executor
+     */
+    public static void setExecutor(Executor e) {
+        executor = e;
+    }
+
+    /**
+     * Gets the executor for short tasks (such as processing a single request). With virtual threads, each
+     * task runs in its own virtual thread. Otherwise, tasks share a fixed pool of platform threads
+     * @return the executor for short tasks
+     */
+    public static Executor workers() {
+        return virtual ? executor : workerPool;
+    }
+
+    /**
+     * Starts a task asynchronously
+     * @param task the task
+     */
+    public static void start(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Looks up {@code Thread.startVirtualThread(Runnable)}
+     * @return a handle to the method, or null if it does not exist
+     */
+    private static MethodHandle lookupStartVirtualThread() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Thread.class, "startVirtualThread",
+                    MethodType.methodType(Thread.class, Runnable.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+}
@@ -1,15 +1,14 @@
 package common.messages;
 
+import common.registry.MessageCode;
 import common.User;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 
+@MessageCode(167123775)
 public class CancelNotificationsRequest extends Message {
-    static {
-        Message.registerSubClass(167123775, new CancelNotificationsRequest());
-    }
     @Override
     protected void serializeMessage(DataOutputStream out) throws IOException {
 
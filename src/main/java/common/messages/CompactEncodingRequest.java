@@ -0,0 +1,72 @@
+package common.messages;
+
+import common.registry.MessageCode;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A request from a client to choose whether the server should answer it with compact encodings
+ * (currently {@link CompactFreeScootersWithinDistanceResponse}). Answered with a {@link CompactEncodingResponse}
+ *
+ * @see Message
+ */
+@MessageCode(1729787838)
+public class CompactEncodingRequest extends Message {
+    /**
+     * Whether to use compact encodings
+     */
+    private boolean enabled;
+
+    /**
+     * Default constructor
+     */
+    public CompactEncodingRequest() {
+        enabled = false;
+    }
+
+    /**
+     * Parameterized constructor
+     * @param enabled whether to use compact encodings
+     */
+    public CompactEncodingRequest(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Gets whether to use compact encodings
+     * @return whether to use compact encodings
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Serializes an object to a DataOutputStream
+     *
+     * @param out the given DataOutputStream
+     * @throws IOException if writing to the stream failed
+     */
+    @Override
+    protected void serializeMessage(DataOutputStream out) throws IOException {
+        out.writeBoolean(enabled);
+    }
+
+    /**
+     * Deserializes an object from a DataInputStream
+     *
+     * @param in the given DataInputStream
+     * @throws IOException if reading from the stream failed
+     */
+    @Override
+    protected Message deserializeMessage(DataInputStream in) throws IOException {
+        boolean e = in.readBoolean();
+
+        return new CompactEncodingRequest(e);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CompactEncodingRequest (enabled: %b)", this.enabled);
+    }
+}
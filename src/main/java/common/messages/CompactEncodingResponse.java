@@ -0,0 +1,71 @@
+package common.messages;
+
+import common.registry.MessageCode;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A response to the {@link, #CompactEncodingRequest} request
+ *
+ * @see Message
+ */
+@MessageCode(841107597)
+public class CompactEncodingResponse extends Message {
+    /**
+     * Whether the server will use compact encodings
+     */
+    private boolean enabled;
+
+    /**
+     * Default constructor
+     */
+    public CompactEncodingResponse() {
+        enabled = false;
+    }
+
+    /**
+     * Parameterized constructor
+     * @param enabled whether the server will use compact encodings
+     */
+    public CompactEncodingResponse(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Gets whether the server will use compact encodings
+     * @return whether the server will use compact encodings
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Serializes an object to a DataOutputStream
+     *
+     * @param out the given DataOutputStream
+     * @throws IOException if writing to the stream failed
+     */
+    @Override
+    protected void serializeMessage(DataOutputStream out) throws IOException {
+        out.writeBoolean(enabled);
+    }
+
+    /**
+     * Deserializes an object from a DataInputStream
+     *
+     * @param in the given DataInputStream
+     * @throws IOException if reading from the stream failed
+     */
+    @Override
+    protected Message deserializeMessage(DataInputStream in) throws IOException {
+        boolean e = in.readBoolean();
+
+        return new CompactEncodingResponse(e);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CompactEncodingResponse (enabled: %b)", this.enabled);
+    }
+}
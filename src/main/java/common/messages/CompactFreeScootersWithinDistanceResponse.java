@@ -0,0 +1,110 @@
+package common.messages;
+
+import common.registry.MessageCode;
+import common.Location;
+import utils.LongIntHashMap;
+import utils.VarInt;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A response to the {@link, #FreeScootersWithinDistanceRequest} request, with a compact encoding.
+ * Only sent to clients which asked for it (see {@link CompactEncodingRequest}).
+ *
+ * Locations are sent in increasing order, relative to the previous one (the first one relative to the
+ * center of the search), as variable length integers: as they are all within distance D of the center,
+ * each location usually takes 2 bytes and each count 1, instead of 12 bytes per entry.
+ *
+ * @see VarInt
+ */
+@MessageCode(663704007)
+public class CompactFreeScootersWithinDistanceResponse extends FreeScootersWithinDistanceResponse {
+    /**
+     * The center of the search
+     */
+    private final Location center;
+
+    /**
+     * Default constructor
+     */
+    public CompactFreeScootersWithinDistanceResponse() {
+        super();
+        center = new Location(0, 0);
+    }
+
+    /**
+     * Parameterized constructor
+     *
+     * @implNote the map is kept (not copied), and must not be changed afterwards
+     *
+     * @param center the center of the search
+     * @param sc the scooters in range ((packed) location and number of scooters per location)
+     *
+     * @see Location#pack(int, int)
+     */
+    public CompactFreeScootersWithinDistanceResponse(Location center, LongIntHashMap sc) {
+        super(sc);
+        this.center = center;
+    }
+
+    /**
+     * Serializes the object into a DataOutputStream
+     *
+     * @implNote The stream is not flushed after writing to it
+     *
+     * @param out the given DataOutputStream
+     * @throws IOException if writing to the stream failed
+     */
+    @Override
+    protected void serializeMessage(DataOutputStream out) throws IOException {
+        VarInt.writeSigned(out, center.getX());
+        VarInt.writeSigned(out, center.getY());
+        VarInt.writeUnsigned(out, size());
+
+        int x = center.getX(), y = center.getY();
+        for(long l : sortedLocations()) {
+            int lx = Location.unpackX(l), ly = Location.unpackY(l);
+
+            //Within a column, y only grows from one location to the next
+            VarInt.writeSigned(out, lx - x);
+            VarInt.writeSigned(out, lx == x ? ly - y : ly - center.getY());
+            VarInt.writeUnsigned(out, count(l) - 1);
+
+            x = lx;
+            y = ly;
+        }
+    }
+
+    /**
+     * Deserializes an object from a DataInputStream
+     *
+     * @param in the given DataInputStream
+     * @throws IOException if reading from the stream failed
+     */
+    @Override
+    protected Message deserializeMessage(DataInputStream in) throws IOException {
+        Location c = new Location(VarInt.readSigned(in), VarInt.readSigned(in));
+        int count = readCount(VarInt.readUnsigned(in));
+
+        LongIntHashMap sc = new LongIntHashMap(count);
+
+        int x = c.getX(), y = c.getY();
+        for(int i = 0; i < count; i++) {
+            int lx = x + VarInt.readSigned(in);
+            int ly = (lx == x ? y : c.getY()) + VarInt.readSigned(in);
+            sc.put(Location.pack(lx, ly), VarInt.readUnsigned(in) + 1);
+
+            x = lx;
+            y = ly;
+        }
+
+        return new CompactFreeScootersWithinDistanceResponse(c, sc);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CompactFreeScootersWithinDistanceResponse (%d unique scooter positions)", size());
+    }
+}
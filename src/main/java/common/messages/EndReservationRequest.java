@@ -1,5 +1,6 @@
 package common.messages;
 
+import common.registry.MessageCode;
 import common.Location;
 
 import java.io.DataInputStream;
@@ -11,12 +12,8 @@ import java.io.IOException;
  *
  * @see Message
  */
+@MessageCode(943245)
 public class EndReservationRequest extends Message {
-    //Register the class in the super class, as to allow for deserialization
-    static {
-        Message.registerSubClass(943245, new EndReservationRequest());
-    }
-
     /**
      * The code of the reservation
      */
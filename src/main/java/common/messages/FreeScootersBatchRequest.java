@@ -0,0 +1,96 @@
+package common.messages;
+
+import common.registry.MessageCode;
+import common.Location;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A request where a client inquires the server regarding the available scooters within a certain
+ * distance of each of many locations at once. Answered with a single {@link FreeScootersBatchResponse} (or a
+ * {@link ResponseTooLargeResponse}, if it does not fit in a frame)
+ */
+@MessageCode(1670707049)
+public class FreeScootersBatchRequest extends Message {
+    /**
+     * The maximum number of locations in a single request
+     */
+    public static final int maximumLocations = 1024;
+
+    /**
+     * The locations to be the centers of the searches
+     */
+    private List<Location> locations;
+
+    /**
+     * Default constructor
+     */
+    public FreeScootersBatchRequest() {
+        locations = Collections.emptyList();
+    }
+
+    /**
+     * Parameterized constructor
+     * @param locations the locations to be the centers of the searches
+     * @throws IllegalArgumentException if there are more than {@link #maximumLocations} locations
+     */
+    public FreeScootersBatchRequest(List<Location> locations) {
+        if(locations.size() > maximumLocations)
+            throw new IllegalArgumentException("Too many locations: " + locations.size());
+
+        this.locations = new ArrayList<>(locations);
+    }
+
+    /**
+     * Gets the locations to be the centers of the searches
+     * @return the locations to be the centers of the searches
+     */
+    public List<Location> getLocations() {
+        return Collections.unmodifiableList(locations);
+    }
+
+    /**
+     * Serializes the object into a DataOutputStream
+     *
+     * @implNote The stream is not flushed after writing to it
+     *
+     * @param out the given DataOutputStream
+     * @throws IOException if writing to the stream failed
+     */
+    @Override
+    protected void serializeMessage(DataOutputStream out) throws IOException {
+        out.writeInt(locations.size());
+
+        for(Location l : locations)
+            l.serialize(out);
+    }
+
+    /**
+     * Deserializes an object from a DataInputStream
+     *
+     * @param in the given DataInputStream
+     * @throws IOException if reading from the stream failed, or there are too many locations
+     */
+    @Override
+    protected Message deserializeMessage(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if(count < 0 || count > maximumLocations)
+            throw new IOException("Invalid number of locations: " + count);
+
+        List<Location> ls = new ArrayList<>(count);
+        for(int i = 0; i < count; i++)
+            ls.add(Location.deserialize(in));
+
+        return new FreeScootersBatchRequest(ls);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FreeScootersBatchRequest (%d locations)", this.locations.size());
+    }
+}
@@ -0,0 +1,132 @@
+package common.messages;
+
+import common.registry.MessageCode;
+import common.Frames;
+import common.Location;
+import utils.LongIntHashMap;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A response to the {@link, #FreeScootersBatchRequest} request
+ *
+ * @implNote the scooters are kept with packed locations until asked for, so that the server
+ * serializes them without building a map per location
+ */
+@MessageCode(853125752)
+public class FreeScootersBatchResponse extends Message {
+    /**
+     * The scooters in range of each location of the request, in the same order ((packed) location and
+     * number of scooters per location)
+     *
+     * @see Location#pack(int, int)
+     */
+    private List<LongIntHashMap> scooters;
+
+    /**
+     * Default constructor
+     */
+    public FreeScootersBatchResponse() {
+        scooters = Collections.emptyList();
+    }
+
+    /**
+     * Parameterized constructor
+     * @param sc the scooters in range of each location of the request, in the same order ((packed)
+     *           location and number of scooters per location)
+     */
+    public FreeScootersBatchResponse(List<LongIntHashMap> sc) {
+        scooters = sc;
+    }
+
+    /**
+     * Gets the number of locations answered
+     * @return the number of locations answered
+     */
+    public int size() {
+        return scooters.size();
+    }
+
+    /**
+     * Gets the scooters in range of one of the locations of the request
+     * @param i the index of the location in the request
+     * @return all scooters in range (location and number of scooters per location)
+     */
+    public Map<Location, Integer> getScooters(int i) {
+        Map<Location, Integer> ans = new TreeMap<>();
+        scooters.get(i).forEach((l, count) -> ans.put(Location.unpack(l), count));
+        return ans;
+    }
+
+    /**
+     * Serializes the object into a DataOutputStream
+     *
+     * @implNote The stream is not flushed after writing to it
+     *
+     * @param out the given DataOutputStream
+     * @throws IOException if writing to the stream failed
+     */
+    @Override
+    protected void serializeMessage(DataOutputStream out) throws IOException {
+        out.writeInt(scooters.size());
+
+        for(LongIntHashMap sc : scooters) {
+            long[] locations = new long[sc.size()];
+            int[] counts = new int[sc.size()];
+            int[] n = {0};
+            sc.forEach((l, count) -> {
+                locations[n[0]] = l;
+                counts[n[0]++] = count;
+            });
+
+            out.writeInt(locations.length);
+            for(int i = 0; i < locations.length; i++) {
+                out.writeInt(Location.unpackX(locations[i]));
+                out.writeInt(Location.unpackY(locations[i]));
+                out.writeInt(counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Deserializes an object from a DataInputStream
+     *
+     * @param in the given DataInputStream
+     * @throws IOException if reading from the stream failed
+     */
+    @Override
+    protected Message deserializeMessage(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if(count < 0 || count > FreeScootersBatchRequest.maximumLocations)
+            throw new IOException("Invalid number of locations: " + count);
+
+        List<LongIntHashMap> sc = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            int size = in.readInt();
+            if(size < 0 || size > Frames.maximumPayloadSize / 12)
+                throw new IOException("Invalid number of scooter positions: " + size);
+
+            LongIntHashMap m = new LongIntHashMap(size);
+            for(int j = 0; j < size; j++) {
+                int x = in.readInt();
+                int y = in.readInt();
+                m.put(Location.pack(x, y), in.readInt());
+            }
+            sc.add(m);
+        }
+
+        return new FreeScootersBatchResponse(sc);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FreeScootersBatchResponse (%d locations)", this.scooters.size());
+    }
+}
@@ -1,5 +1,6 @@
 package common.messages;
 
+import common.registry.MessageCode;
 import common.Location;
 import common.User;
 
@@ -11,12 +12,8 @@ import java.io.IOException;
  * A request where a client inquires the server regarding the available scooter within a certain
  * distance of a location
  */
+@MessageCode(1670707048)
 public class FreeScootersWithinDistanceRequest extends Message {
-    //Register the class in the super class, as to allow for deserialization
-    static {
-        Message.registerSubClass(1670707048, new FreeScootersWithinDistanceRequest());
-    }
-
     /**
      * The location to be the center of the search
      */
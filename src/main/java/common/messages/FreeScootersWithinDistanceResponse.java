@@ -1,33 +1,35 @@
 package common.messages;
 
+import common.registry.MessageCode;
+import common.Frames;
 import common.Location;
+import utils.LongIntHashMap;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.TreeMap;
 
 /**
  * A response to the {@link, #FreeScootersWithinDistanceRequest} request
  */
+@MessageCode(16707)
 public class FreeScootersWithinDistanceResponse extends Message {
-    //Register the class in the super class, as to allow for deserialization
-    static {
-        Message.registerSubClass(16707, new FreeScootersWithinDistanceResponse());
-    }
-
     /**
-     * All scooters in range (location and number of scooters per location)
+     * All scooters in range ((packed) location and number of scooters per location). Never changed after construction
+     *
+     * @see Location#pack(int, int)
      */
-    private Map<Location, Integer> scooters;
+    private final LongIntHashMap scooters;
 
 
     /**
      * Default constructor
      */
     public FreeScootersWithinDistanceResponse() {
-        scooters = new TreeMap<>();
+        scooters = new LongIntHashMap();
     }
 
     /**
@@ -35,9 +37,23 @@ public class FreeScootersWithinDistanceResponse extends Message {
      * @param sc the scooters in range
      */
     public FreeScootersWithinDistanceResponse(Map<Location, Integer> sc) {
-        scooters = new TreeMap<>();
+        scooters = new LongIntHashMap(sc.size());
         for(Map.Entry<Location, Integer> s : sc.entrySet())
-            scooters.put(s.getKey(), s.getValue());
+            scooters.put(s.getKey().pack(), s.getValue());
+    }
+
+    /**
+     * Parameterized constructor
+     *
+     * @implNote the map is kept (not copied), and must not be changed afterwards. Locations are only
+     * unpacked when asked for, in {@link #getScooters()}
+     *
+     * @param sc the scooters in range ((packed) location and number of scooters per location)
+     *
+     * @see Location#pack(int, int)
+     */
+    public FreeScootersWithinDistanceResponse(LongIntHashMap sc) {
+        scooters = sc;
     }
 
     /**
@@ -46,13 +62,41 @@ public class FreeScootersWithinDistanceResponse extends Message {
      */
     public Map<Location, Integer> getScooters() {
         Map<Location, Integer> ans = new TreeMap<>();
+        scooters.forEach((l, count) -> ans.put(Location.unpack(l), count));
+        return ans;
+    }
 
-        for(Map.Entry<Location, Integer> s : scooters.entrySet())
-            ans.put(s.getKey(), s.getValue());
+    /**
+     * Gets the number of locations with scooters in range
+     * @return the number of locations with scooters in range
+     */
+    public int size() {
+        return scooters.size();
+    }
 
+    /**
+     * Gets the (packed) locations with scooters in range, in increasing order
+     * @return the (packed) locations with scooters in range, in increasing order
+     *
+     * @see Location#pack(int, int)
+     */
+    protected long[] sortedLocations() {
+        long[] ans = new long[scooters.size()];
+        int[] n = {0};
+        scooters.forEach((l, count) -> ans[n[0]++] = l);
+        Arrays.sort(ans);
         return ans;
     }
 
+    /**
+     * Gets the number of scooters in a location in range
+     * @param packed the (packed) location
+     * @return the number of scooters in the location
+     */
+    protected int count(long packed) {
+        return scooters.getOrDefault(packed, 0);
+    }
+
     /**
      * Serializes the object into a DataOutputStream
      *
@@ -65,9 +109,10 @@ public class FreeScootersWithinDistanceResponse extends Message {
     protected void serializeMessage(DataOutputStream out) throws IOException {
         out.writeInt(scooters.size());
 
-        for(Map.Entry<Location, Integer> s : scooters.entrySet()) {
-            s.getKey().serialize(out);
-            out.writeInt(s.getValue());
+        for(long l : sortedLocations()) {
+            out.writeInt(Location.unpackX(l));
+            out.writeInt(Location.unpackY(l));
+            out.writeInt(count(l));
         }
     }
 
@@ -79,19 +124,31 @@ public class FreeScootersWithinDistanceResponse extends Message {
      */
     @Override
     protected Message deserializeMessage(DataInputStream in) throws IOException {
-        int count = in.readInt();
+        int count = readCount(in.readInt());
 
-        Map<Location, Integer> sc = new TreeMap<>();
+        LongIntHashMap sc = new LongIntHashMap(count);
 
         for(int i = 0; i < count; i++) {
-            Location l = Location.deserialize(in);
-            int c = in.readInt();
-            sc.put(l, c);
+            int x = in.readInt();
+            int y = in.readInt();
+            sc.put(Location.pack(x, y), in.readInt());
         }
 
         return new FreeScootersWithinDistanceResponse(sc);
     }
 
+    /**
+     * Validates the number of locations read from the stream
+     * @param count the number of locations
+     * @return the number of locations
+     * @throws IOException if the number of locations cannot fit in a frame
+     */
+    protected static int readCount(int count) throws IOException {
+        if(count < 0 || count > Frames.maximumPayloadSize)
+            throw new IOException("Invalid number of scooter positions: " + count);
+        return count;
+    }
+
     @Override
     public String toString() {
         return String.format("FreeScootersWithinDistanceResponse (%d unique scooter positions)", this.scooters.size());
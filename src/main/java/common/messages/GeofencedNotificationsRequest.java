@@ -0,0 +1,112 @@
+package common.messages;
+
+import common.registry.MessageCode;
+import common.Location;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A request where a client subscribes to the notifications of the rewards starting within a certain
+ * distance of a location (and, optionally, paying at least a certain amount). Each notification holds all
+ * such rewards, and is only sent when they change
+ */
+@MessageCode(1222947269)
+public class GeofencedNotificationsRequest extends Message {
+    /**
+     * The center of the area
+     */
+    private Location location;
+
+    /**
+     * The maximum distance from the center of the area
+     */
+    private int radius;
+
+    /**
+     * The minimum prize money of the rewards
+     */
+    private int minimumMoney;
+
+    /**
+     * Default constructor
+     */
+    public GeofencedNotificationsRequest() {
+        this.location = null;
+        this.radius = 0;
+        this.minimumMoney = 0;
+    }
+
+    /**
+     * Parameterized constructor
+     * @param location the center of the area
+     * @param radius the maximum distance from the center of the area
+     * @param minimumMoney the minimum prize money of the rewards (0 for any)
+     */
+    public GeofencedNotificationsRequest(Location location, int radius, int minimumMoney) {
+        this.location = location;
+        this.radius = radius;
+        this.minimumMoney = minimumMoney;
+    }
+
+    /**
+     * Gets the center of the area
+     * @return the center of the area
+     */
+    public Location getLocation() {
+        return location;
+    }
+
+    /**
+     * Gets the maximum distance from the center of the area
+     * @return the maximum distance from the center of the area
+     */
+    public int getRadius() {
+        return radius;
+    }
+
+    /**
+     * Gets the minimum prize money of the rewards
+     * @return the minimum prize money of the rewards
+     */
+    public int getMinimumMoney() {
+        return minimumMoney;
+    }
+
+    /**
+     * Serializes the object into a DataOutputStream
+     *
+     * @implNote The stream is not flushed after writing to it
+     *
+     * @param out the given DataOutputStream
+     * @throws IOException if writing to the stream failed
+     */
+    @Override
+    protected void serializeMessage(DataOutputStream out) throws IOException {
+        location.serialize(out);
+        out.writeInt(radius);
+        out.writeInt(minimumMoney);
+    }
+
+    /**
+     * Deserializes an object from a DataInputStream
+     *
+     * @param in the given DataInputStream
+     * @throws IOException if reading from the stream failed
+     */
+    @Override
+    protected Message deserializeMessage(DataInputStream in) throws IOException {
+        Location l = Location.deserialize(in);
+        int radius = in.readInt();
+        int minimumMoney = in.readInt();
+
+        return new GeofencedNotificationsRequest(l, radius, minimumMoney);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GeofencedNotificationsRequest (location: %s, radius: %d, minimum money: %d)",
+                this.location.toString(), this.radius, this.minimumMoney);
+    }
+}
@@ -0,0 +1,47 @@
+package common.messages;
+
+import common.registry.MessageCode;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A response sent instead of the answer to a request whose parameters are not valid
+ */
+@MessageCode(1893470228)
+public class InvalidRequestResponse extends Message {
+    /**
+     * Why the request is not valid
+     */
+    private final String reason;
+
+    public InvalidRequestResponse() {
+        this.reason = "";
+    }
+
+    /**
+     * Parameterized constructor
+     * @param reason why the request is not valid
+     */
+    public InvalidRequestResponse(String reason) {
+        this.reason = reason;
+    }
+
+    /**
+     * Gets why the request is not valid
+     * @return why the request is not valid
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    @Override
+    protected void serializeMessage(DataOutputStream out) throws IOException {
+        out.writeUTF(reason);
+    }
+
+    @Override
+    protected Message deserializeMessage(DataInputStream in) throws IOException {
+        return new InvalidRequestResponse(in.readUTF());
+    }
+}
@@ -1,5 +1,6 @@
 package common.messages;
 
+import common.registry.MessageCode;
 import java.io.IOException;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -10,12 +11,8 @@ import java.io.DataOutputStream;
  *
  * @see Message
  */
+@MessageCode(3754202)
 public class LoginRequest extends Message {
-    //Register the class in the super class, as to allow for deserialization
-    static {
-        Message.registerSubClass(3754202, new LoginRequest("", ""));
-    }
-
     /**
      * The username the client wants to log in as
      */
@@ -1,5 +1,6 @@
 package common.messages;
 
+import common.registry.MessageCode;
 import common.User;
 
 import java.io.DataInputStream;
@@ -9,12 +10,8 @@ import java.io.IOException;
 /**
  * A message corresponding to the response of the server to a {@link, common.messages.LoginRequest}
  */
+@MessageCode(1670684193)
 public class LoginResponse extends Message {
-    //Register the class in the super class, as to allow for deserialization
-    static {
-        Message.registerSubClass(1670684193, new LoginResponse(new User("", "")));
-    }
-
     /**
      * The user who successfully logged in (composition) / null if log in failed
      */
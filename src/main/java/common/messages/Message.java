@@ -1,15 +1,10 @@
 package common.messages;
 
+import common.registry.MessageCode;
+
 import java.io.IOException;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.HashMap;
-import java.util.Set;
-import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
  * An abstract class representing a message between the server
@@ -20,36 +15,30 @@ import java.util.stream.Collectors;
  * least by identified which message type it is (each message type is a subclass
  * of Message), and delegating the (de)serialization to that particular subclass.
  *
- * To implement this, each subclass must register itself in the superclass with a
- * unique identifier, which should be a random integer, to avoid collisions.
+ * To implement this, each subclass must be annotated with {@link MessageCode} and a
+ * unique identifier, which should be a random integer, to avoid collisions. The registry
+ * of all subclasses ({@link MessageTable}) is generated from these annotations at compile time.
  */
 public abstract class Message {
     /**
-     * The correspondence between the registered subclasses and their
-     * respective unique identifier
-     */
-    private static Map<Integer, Message> registeredSubClasses = new HashMap<>();
-
-    /**
-     * The mapping of subclasses and their respective identifiers. Inverse of
-     * {@link Message#registeredSubClasses}
+     * The index (in {@link MessageTable}) of each subclass, looked up once per class
      */
-    public static Map<Class<? extends Message>,Integer> codes = new HashMap<>();
+    private static final ClassValue<Integer> indices = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return MessageTable.indexOf(type);
+        }
+    };
 
     /**
-     * Register a subclass with its superclass
-     * @param code the unique identifier of the subclass. Should be a randomly selected (hardcoded) integer
-     * @param subclass an instance of the subclass to register
+     * Gets the index of the class of a message in the registry
+     * @param message the message
+     * @return the index of the class of the message (-1 if the class is not annotated with {@link MessageCode})
+     *
+     * @see MessageTable
      */
-    public static void registerSubClass(int code, Message subclass) {
-        if(registeredSubClasses.containsKey(code))
-            throw new AlreadyRegisteredException("Code " + code + " already exists");
-
-        if(codes.containsKey((subclass.getClass())))
-            throw new AlreadyRegisteredException("Class " + subclass.getClass().toString() + " already registered");
-
-        registeredSubClasses.put(code, subclass);
-        codes.put(subclass.getClass(), code);
+    public static int indexOf(Message message) {
+        return indices.get(message.getClass());
     }
 
     /**
@@ -87,7 +76,11 @@ public abstract class Message {
      * @throws IOException if writing to the stream failed
      */
     public void serialize(DataOutputStream out) throws IOException {
-        out.writeInt(codes.get(this.getClass()));
+        int index = indexOf(this);
+        if(index < 0)
+            throw new IOException("Unregistered message class " + this.getClass().getName());
+
+        out.writeInt(MessageTable.codeOf(index));
         this.serializeMessage(out);
     }
 
@@ -103,9 +96,7 @@ public abstract class Message {
      */
     public static Message deserialize(DataInputStream in) throws IOException {
         int code = in.readInt();
-        if(!registeredSubClasses.containsKey(code))
-            throw new IOException("No sub class with code " + code);
 
-        return registeredSubClasses.get(code).deserializeMessage(in);
+        return MessageTable.deserialize(code, in);
     }
 }
@@ -1,13 +1,12 @@
 package common.messages;
 
+import common.registry.MessageCode;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 
+@MessageCode(234663)
 public class NotAuthenticatedResponse extends Message {
-    static {
-        Message.registerSubClass(234663, new NotAuthenticatedResponse());
-    }
     @Override
     protected void serializeMessage(DataOutputStream out) throws IOException {
     }
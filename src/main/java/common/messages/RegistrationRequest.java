@@ -1,5 +1,6 @@
 package common.messages;
 
+import common.registry.MessageCode;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -10,12 +11,8 @@ import java.io.IOException;
  *
  * @see Message
  */
+@MessageCode(1670698141)
 public class RegistrationRequest extends Message {
-    //Register the class in the super class, as to allow for deserialization
-    static {
-        Message.registerSubClass(1670698141, new RegistrationRequest("", ""));
-    }
-
     /**
      * The username the client wants to register as
      */
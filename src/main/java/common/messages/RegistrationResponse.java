@@ -1,5 +1,6 @@
 package common.messages;
 
+import common.registry.MessageCode;
 import common.User;
 
 import java.io.DataInputStream;
@@ -9,12 +10,8 @@ import java.io.IOException;
 /**
  * A message corresponding to the response of the server to a {@link, common.messages.LoginRequest}
  */
+@MessageCode(1670698175)
 public class RegistrationResponse extends Message {
-    //Register the class in the super class, as to allow for deserialization
-    static {
-        Message.registerSubClass(1670698175, new RegistrationResponse(new User("", "")));
-    }
-
     /**
      * The user who successfully registered (composition) / null if registration failed
      */
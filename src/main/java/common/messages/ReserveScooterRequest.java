@@ -1,5 +1,6 @@
 package common.messages;
 
+import common.registry.MessageCode;
 import common.Location;
 
 import java.io.DataInputStream;
@@ -12,12 +13,8 @@ import java.io.IOException;
  *
  * @see Message
  */
+@MessageCode(9673467)
 public class ReserveScooterRequest extends Message {
-    //Register the class in the super class, as to allow for deserialization
-    static {
-        Message.registerSubClass(9673467, new ReserveScooterRequest());
-    }
-
     /**
      * The location of the request
      */
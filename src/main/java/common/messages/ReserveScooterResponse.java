@@ -1,5 +1,6 @@
 package common.messages;
 
+import common.registry.MessageCode;
 import common.Location;
 
 import java.io.DataInputStream;
@@ -11,12 +12,8 @@ import java.io.IOException;
  *
  * @see Message
  */
+@MessageCode(9635347)
 public class ReserveScooterResponse extends Message {
-    //Register the class in the super class, as to allow for deserialization
-    static {
-        Message.registerSubClass(9635347, new ReserveScooterResponse());
-    }
-
     /**
      * The reservation code
      */
@@ -0,0 +1,23 @@
+package common.messages;
+
+import common.registry.MessageCode;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A response sent instead of the answer to a request, when the answer does not fit in a single frame
+ *
+ * @see common.Frames#maximumPayloadSize
+ */
+@MessageCode(1471308562)
+public class ResponseTooLargeResponse extends Message {
+    @Override
+    protected void serializeMessage(DataOutputStream out) throws IOException {
+    }
+
+    @Override
+    protected Message deserializeMessage(DataInputStream in) throws IOException {
+        return new ResponseTooLargeResponse();
+    }
+}
@@ -0,0 +1,157 @@
+package common.messages;
+
+import common.registry.MessageCode;
+import common.Frames;
+import common.Location;
+import common.Reward;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A notification holding only the changes to the active rewards from one version to the next: the start
+ * locations of the rewards removed (claimed or no longer valid) and the rewards added (replacing any reward
+ * with the same start location). Only applies to the rewards of its base version
+ *
+ * @see RewardSnapshotNotification
+ */
+@MessageCode(442051005)
+public class RewardDeltaNotification extends Message {
+    /**
+     * The version of the rewards the changes apply to
+     */
+    private final long baseVersion;
+
+    /**
+     * The version of the rewards after the changes
+     */
+    private final long version;
+
+    /**
+     * The start locations of the rewards removed
+     */
+    private final List<Location> removed;
+
+    /**
+     * The rewards added
+     */
+    private final List<Reward> added;
+
+    /**
+     * Default constructor
+     */
+    public RewardDeltaNotification() {
+        this.baseVersion = 0;
+        this.version = 0;
+        this.removed = null;
+        this.added = null;
+    }
+
+    /**
+     * Parameterized constructor
+     * @param baseVersion the version of the rewards the changes apply to
+     * @param version the version of the rewards after the changes
+     * @param removed the start locations of the rewards removed
+     * @param added the rewards added
+     */
+    public RewardDeltaNotification(long baseVersion, long version, List<Location> removed, List<Reward> added) {
+        this.baseVersion = baseVersion;
+        this.version = version;
+        this.removed = removed;
+        this.added = added;
+    }
+
+    /**
+     * Gets the version of the rewards the changes apply to
+     * @return the version of the rewards the changes apply to
+     */
+    public long getBaseVersion() {
+        return baseVersion;
+    }
+
+    /**
+     * Gets the version of the rewards after the changes
+     * @return the version of the rewards after the changes
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the start locations of the rewards removed
+     * @return the start locations of the rewards removed
+     */
+    public List<Location> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Gets the rewards added
+     * @return the rewards added
+     */
+    public List<Reward> getAdded() {
+        return added;
+    }
+
+    /**
+     * Serializes the object into a DataOutputStream
+     *
+     * @implNote The stream is not flushed after writing to it
+     *
+     * @param out the given DataOutputStream
+     * @throws IOException if writing to the stream failed
+     */
+    @Override
+    protected void serializeMessage(DataOutputStream out) throws IOException {
+        out.writeLong(baseVersion);
+        out.writeLong(version);
+
+        out.writeInt(removed.size());
+        for (Location l : removed)
+            l.serialize(out);
+
+        out.writeInt(added.size());
+        for (Reward r : added)
+            r.serialize(out);
+    }
+
+    /**
+     * Deserializes an object from a DataInputStream
+     *
+     * @param in the given DataInputStream
+     * @throws IOException if reading from the stream failed
+     */
+    @Override
+    protected Message deserializeMessage(DataInputStream in) throws IOException {
+        long baseVersion = in.readLong();
+        long version = in.readLong();
+
+        //Each location takes 8 bytes, and each reward 20
+        int size = in.readInt();
+        if(size < 0 || size > Frames.maximumPayloadSize / 8)
+            throw new IOException("Invalid number of removed rewards: " + size);
+
+        List<Location> removed = new ArrayList<>(size);
+        while (size-- > 0)
+            removed.add(Location.deserialize(in));
+
+        size = in.readInt();
+        if(size < 0 || size > Frames.maximumPayloadSize / 20)
+            throw new IOException("Invalid number of added rewards: " + size);
+
+        List<Reward> added = new ArrayList<>(size);
+        while (size-- > 0)
+            added.add(Reward.deserialize(in));
+
+        return new RewardDeltaNotification(baseVersion, version, removed, added);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RewardDeltaNotification (version %d to %d, %d removed, %d added)", baseVersion,
+                version, removed.size(), added.size());
+    }
+}
@@ -1,17 +1,14 @@
 package common.messages;
 
+import common.registry.MessageCode;
 import common.Notification;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 
+@MessageCode(3141592)
 public class RewardNotification extends Message {
-
-    static {
-        Message.registerSubClass(3141592, new RewardNotification());
-    }
-
     private final Notification notification;
 
     public RewardNotification() {
@@ -0,0 +1,173 @@
+package common.messages;
+
+import common.Frames;
+import common.registry.MessageCode;
+import common.Notification;
+import common.Reward;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A notification holding every active reward, as of a given version. Sent when subscribing and periodically
+ * afterwards, so that subscribers which missed any delta can catch up.
+ *
+ * As the rewards may not fit in a single frame, they can be split in several parts, sent one after the other:
+ * the rewards of a version are only complete once every part was received
+ *
+ * @see RewardDeltaNotification
+ */
+@MessageCode(1632870706)
+public class RewardSnapshotNotification extends Message {
+    /**
+     * The maximum number of rewards in a part (each taking 20 bytes), so that it fits in a frame
+     */
+    public static final int maximumRewards = (Frames.maximumPayloadSize - 64) / 20;
+
+    /**
+     * The version of the rewards
+     */
+    private final long version;
+
+    /**
+     * The index of this part (from 0)
+     */
+    private final int part;
+
+    /**
+     * The number of parts the rewards were split in
+     */
+    private final int parts;
+
+    /**
+     * Every active reward
+     */
+    private final Notification notification;
+
+    /**
+     * Default constructor
+     */
+    public RewardSnapshotNotification() {
+        this(0, new Notification(new ArrayList<>()));
+    }
+
+    /**
+     * Parameterized constructor, for rewards in a single part
+     * @param version the version of the rewards
+     * @param notification every active reward
+     */
+    public RewardSnapshotNotification(long version, Notification notification) {
+        this(version, 0, 1, notification);
+    }
+
+    /**
+     * Parameterized constructor
+     * @param version the version of the rewards
+     * @param part the index of this part (from 0)
+     * @param parts the number of parts the rewards were split in
+     * @param notification the rewards in this part
+     */
+    public RewardSnapshotNotification(long version, int part, int parts, Notification notification) {
+        this.version = version;
+        this.part = part;
+        this.parts = parts;
+        this.notification = notification;
+    }
+
+    /**
+     * Splits every active reward in as many parts as needed for each to fit in a frame
+     * @param version the version of the rewards
+     * @param rewards every active reward
+     * @return the parts, in order (at least one)
+     */
+    public static List<RewardSnapshotNotification> split(long version, Collection<Reward> rewards) {
+        int parts = Math.max(1, (rewards.size() + maximumRewards - 1) / maximumRewards);
+        List<RewardSnapshotNotification> ans = new ArrayList<>(parts);
+
+        List<Reward> current = new ArrayList<>(Math.min(rewards.size(), maximumRewards));
+        for (Reward r : rewards) {
+            if (current.size() == maximumRewards) {
+                ans.add(new RewardSnapshotNotification(version, ans.size(), parts, new Notification(current)));
+                current = new ArrayList<>(maximumRewards);
+            }
+            current.add(r);
+        }
+        ans.add(new RewardSnapshotNotification(version, ans.size(), parts, new Notification(current)));
+        return ans;
+    }
+
+    /**
+     * Gets the version of the rewards
+     * @return the version of the rewards
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the index of this part
+     * @return the index of this part (from 0)
+     */
+    public int getPart() {
+        return part;
+    }
+
+    /**
+     * Gets the number of parts the rewards were split in
+     * @return the number of parts the rewards were split in
+     */
+    public int getParts() {
+        return parts;
+    }
+
+    /**
+     * Gets the rewards in this part (every active reward, if there is a single part)
+     * @return the rewards in this part
+     */
+    public Notification getNotification() {
+        return notification;
+    }
+
+    /**
+     * Serializes the object into a DataOutputStream
+     *
+     * @implNote The stream is not flushed after writing to it
+     *
+     * @param out the given DataOutputStream
+     * @throws IOException if writing to the stream failed
+     */
+    @Override
+    protected void serializeMessage(DataOutputStream out) throws IOException {
+        out.writeLong(version);
+        out.writeInt(part);
+        out.writeInt(parts);
+        notification.serialize(out);
+    }
+
+    /**
+     * Deserializes an object from a DataInputStream
+     *
+     * @param in the given DataInputStream
+     * @throws IOException if reading from the stream failed
+     */
+    @Override
+    protected Message deserializeMessage(DataInputStream in) throws IOException {
+        long version = in.readLong();
+        int part = in.readInt();
+        int parts = in.readInt();
+        if(parts < 1 || part < 0 || part >= parts)
+            throw new IOException("Invalid part " + part + " of " + parts);
+
+        return new RewardSnapshotNotification(version, part, parts, Notification.deserialize(in));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RewardSnapshotNotification (version %d, part %d of %d, %d rewards)", version,
+                part + 1, parts, notification.getRewards().size());
+    }
+}
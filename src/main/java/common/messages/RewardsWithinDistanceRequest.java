@@ -1,27 +1,33 @@
 package common.messages;
 
+import common.registry.MessageCode;
 import common.Location;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 
+@MessageCode(1673298240)
 public class RewardsWithinDistanceRequest extends Message {
-    //Register the class in the super class, as to allow for deserialization
-    static {
-        Message.registerSubClass(1673298240, new RewardsWithinDistanceRequest());
-    }
-
     /**
      * The location to be the center of the search
      */
     private final Location location;
 
+    /**
+     * The version of the rewards the client already has for this location (-1 if none). If the rewards
+     * did not change since, the server answers without them
+     *
+     * @see RewardsWithinDistanceResponse#isUnchanged()
+     */
+    private final long knownVersion;
+
     /**
      * Default constructor
      */
     public RewardsWithinDistanceRequest() {
         location = null;
+        knownVersion = -1;
     }
 
     /**
@@ -29,7 +35,25 @@ public class RewardsWithinDistanceRequest extends Message {
      * @param l the location to be the center of the search
      */
     public RewardsWithinDistanceRequest(Location l) {
+        this(l, -1);
+    }
+
+    /**
+     * Parameterized constructor
+     * @param l the location to be the center of the search
+     * @param knownVersion the version of the rewards the client already has for this location (-1 if none)
+     */
+    public RewardsWithinDistanceRequest(Location l, long knownVersion) {
         this.location = l;
+        this.knownVersion = knownVersion;
+    }
+
+    /**
+     * Gets the version of the rewards the client already has for this location
+     * @return the version of the rewards the client already has for this location (-1 if none)
+     */
+    public long getKnownVersion() {
+        return knownVersion;
     }
 
     /**
@@ -51,6 +75,7 @@ public class RewardsWithinDistanceRequest extends Message {
     @Override
     protected void serializeMessage(DataOutputStream out) throws IOException {
         location.serialize(out);
+        out.writeLong(knownVersion);
     }
 
     /**
@@ -62,12 +87,13 @@ public class RewardsWithinDistanceRequest extends Message {
     @Override
     protected RewardsWithinDistanceRequest deserializeMessage(DataInputStream in) throws IOException {
         Location l = Location.deserialize(in);
+        long knownVersion = in.readLong();
 
-        return new RewardsWithinDistanceRequest(l);
+        return new RewardsWithinDistanceRequest(l, knownVersion);
     }
 
     @Override
     public String toString() {
-        return String.format("RewardsWithinDistanceRequest (location: %s)", this.location.toString());
+        return String.format("RewardsWithinDistanceRequest (location: %s, known version: %d)", this.location.toString(), this.knownVersion);
     }
 }
\ No newline at end of file
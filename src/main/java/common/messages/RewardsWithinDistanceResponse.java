@@ -1,5 +1,6 @@
 package common.messages;
 
+import common.registry.MessageCode;
 import common.Reward;
 
 import java.io.DataInputStream;
@@ -7,39 +8,59 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.*;
 
+@MessageCode(1673298394)
 public class RewardsWithinDistanceResponse extends Message {
-    //Register the class in the super class, as to allow for deserialization
-    static {
-        Message.registerSubClass(1673298394, new RewardsWithinDistanceResponse());
-    }
-
     /**
-     * All scooters in range (location and number of scooters per location)
+     * All rewards in range (null if unchanged since the version known by the client)
      */
     private final Set<Reward> rewards;
 
+    /**
+     * The version of the rewards
+     */
+    private final long version;
+
 
     /**
      * Default constructor
      */
     public RewardsWithinDistanceResponse() {
         rewards = null;
+        version = -1;
     }
 
     /**
      * Parameterized constructor
-     * @param rewards rewards in range
+     * @param rewards rewards in range (null if unchanged since the version known by the client)
+     * @param version the version of the rewards
      */
-    public RewardsWithinDistanceResponse(Set<Reward> rewards) {
-        this.rewards = new HashSet<>(rewards);
+    public RewardsWithinDistanceResponse(Set<Reward> rewards, long version) {
+        this.rewards = rewards == null ? null : new HashSet<>(rewards);
+        this.version = version;
     }
 
     /**
      * Gets the rewards in range
-     * @return All rewards in range (location and number of scooters per location)
+     * @return All rewards in range (null if unchanged since the version known by the client)
      */
     public Set<Reward> getRewards() {
-        return new HashSet<>(this.rewards);
+        return this.rewards == null ? null : new HashSet<>(this.rewards);
+    }
+
+    /**
+     * Gets the version of the rewards
+     * @return the version of the rewards
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets whether the rewards did not change since the version known by the client (and were therefore not sent)
+     * @return whether the rewards did not change since the version known by the client
+     */
+    public boolean isUnchanged() {
+        return rewards == null;
     }
 
     /**
@@ -52,6 +73,11 @@ public class RewardsWithinDistanceResponse extends Message {
      */
     @Override
     protected void serializeMessage(DataOutputStream out) throws IOException {
+        out.writeLong(version);
+        out.writeBoolean(rewards == null);
+        if (rewards == null)
+            return;
+
         out.writeInt(rewards.size());
 
         for (Reward r : this.rewards)
@@ -66,17 +92,23 @@ public class RewardsWithinDistanceResponse extends Message {
      */
     @Override
     protected RewardsWithinDistanceResponse deserializeMessage(DataInputStream in) throws IOException {
+        long version = in.readLong();
+        if (in.readBoolean())
+            return new RewardsWithinDistanceResponse(null, version);
+
         int count = in.readInt();
         Set<Reward> ans = new HashSet<>();
 
         while (count-- > 0)
             ans.add(Reward.deserialize(in));
 
-        return new RewardsWithinDistanceResponse(ans);
+        return new RewardsWithinDistanceResponse(ans, version);
     }
 
     @Override
     public String toString() {
-        return String.format("RewardsWithinDistanceResponse (%d rewards)", this.rewards.size());
+        if (this.rewards == null)
+            return String.format("RewardsWithinDistanceResponse (unchanged, version %d)", this.version);
+        return String.format("RewardsWithinDistanceResponse (%d rewards, version %d)", this.rewards.size(), this.version);
     }
 }
@@ -1,15 +1,14 @@
 package common.messages;
 
+import common.registry.MessageCode;
 import common.User;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 
+@MessageCode(1672345)
 public class SendNotificationsRequest extends Message {
-    static {
-        Message.registerSubClass(1672345, new SendNotificationsRequest());
-    }
     @Override
     protected void serializeMessage(DataOutputStream out) throws IOException {
 
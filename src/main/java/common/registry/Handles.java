@@ -0,0 +1,24 @@
+package common.registry;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Registers a message handler as the one processing a message class.
+ *
+ * The class must implement the IMessageHandler interface of its package, with a constructor without
+ * arguments. Each message class can have at most one handler.
+ *
+ * @see RegistryProcessor
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface Handles {
+    /**
+     * Gets the message class processed by the handler
+     * @return the message class processed by the handler (annotated with {@link MessageCode})
+     */
+    Class<?> value();
+}
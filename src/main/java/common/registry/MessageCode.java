@@ -0,0 +1,24 @@
+package common.registry;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Registers a message class under a unique code, written before its serialization.
+ *
+ * The class must be a concrete subclass of {@link common.messages.Message} in the same package, with a
+ * constructor without arguments. The code should be a randomly selected (hardcoded) integer.
+ *
+ * @see RegistryProcessor
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface MessageCode {
+    /**
+     * Gets the code of the message class
+     * @return the code of the message class
+     */
+    int value();
+}
@@ -0,0 +1,344 @@
+package common.registry;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Generates, at compile time, the registry of all messages and their handlers.
+ *
+ * Every class annotated with {@link MessageCode} gets an index (in order of their names), and the processor
+ * writes:
+ * <ul>
+ *     <li>{@code MessageTable}, in the package of the messages, mapping codes to indices with a switch, and
+ *     indices to an instance of each class (used to deserialize it) and to its code</li>
+ *     <li>{@code HandlerTable}, in the package of the handlers (annotated with {@link Handles}), creating
+ *     the array of handlers indexed by the index of the message they process</li>
+ * </ul>
+ *
+ * Duplicated codes or handlers, and classes which cannot be instantiated, are compile errors.
+ *
+ * @implNote compiled in an earlier step of the build (see the pom), so that it can run when compiling
+ * the rest of the application. Must therefore not depend on any other class of the application
+ */
+public class RegistryProcessor extends AbstractProcessor {
+    /**
+     * The name of the generated table of messages
+     */
+    private static final String messageTable = "MessageTable";
+
+    /**
+     * The name of the generated table of handlers
+     */
+    private static final String handlerTable = "HandlerTable";
+
+    /**
+     * Whether the tables were already generated (in an earlier round)
+     */
+    private boolean generated = false;
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        Set<String> ans = new TreeSet<>();
+        ans.add(MessageCode.class.getCanonicalName());
+        ans.add(Handles.class.getCanonicalName());
+        return ans;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        if (generated || round.processingOver())
+            return false;
+
+        List<TypeElement> messages = new ArrayList<>(ElementFilter.typesIn(round.getElementsAnnotatedWith(MessageCode.class)));
+        List<TypeElement> handlers = new ArrayList<>(ElementFilter.typesIn(round.getElementsAnnotatedWith(Handles.class)));
+        if (messages.isEmpty())
+            return false;
+        generated = true;
+
+        messages.sort(Comparator.comparing(t -> t.getQualifiedName().toString()));
+
+        String messagePackage = packageOf(messages.get(0));
+        Map<Integer, TypeElement> codes = new HashMap<>();
+        Map<String, Integer> indices = new HashMap<>();
+        int[] codeOf = new int[messages.size()];
+
+        for (int i = 0; i < messages.size(); i++) {
+            TypeElement m = messages.get(i);
+            int code = m.getAnnotation(MessageCode.class).value();
+
+            if (!packageOf(m).equals(messagePackage))
+                error(m, "Messages must all be in package " + messagePackage);
+            if (codes.containsKey(code))
+                error(m, "Code " + code + " already used by " + codes.get(code).getQualifiedName());
+            checkInstantiable(m);
+
+            codes.put(code, m);
+            indices.put(m.getQualifiedName().toString(), i);
+            codeOf[i] = code;
+        }
+
+        TypeElement[] handlerOf = new TypeElement[messages.size()];
+        String handlerPackage = handlers.isEmpty() ? null : packageOf(handlers.get(0));
+
+        for (TypeElement h : handlers) {
+            String message = handledMessage(h);
+            Integer index = indices.get(message);
+
+            if (!packageOf(h).equals(handlerPackage))
+                error(h, "Handlers must all be in package " + handlerPackage);
+            if (index == null) {
+                error(h, message + " is not annotated with @" + MessageCode.class.getSimpleName());
+                continue;
+            }
+            if (handlerOf[index] != null)
+                error(h, message + " is already handled by " + handlerOf[index].getQualifiedName());
+            checkInstantiable(h);
+
+            handlerOf[index] = h;
+        }
+
+        try {
+            writeMessageTable(messagePackage, messages, codeOf);
+            if (handlerPackage != null)
+                writeHandlerTable(handlerPackage, messagePackage, messages, handlerOf);
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to generate registry: " + e);
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the table of messages
+     * @param pkg the package of the messages
+     * @param messages the messages, in order of index
+     * @param codes the code of each message
+     * @throws IOException if writing the source file failed
+     */
+    private void writeMessageTable(String pkg, List<TypeElement> messages, int[] codes) throws IOException {
+        try (PrintWriter out = new PrintWriter(
+                processingEnv.getFiler().createSourceFile(pkg + "." + messageTable).openWriter())) {
+            out.println("package " + pkg + ";");
+            out.println();
+            out.println("import java.io.DataInputStream;");
+            out.println("import java.io.IOException;");
+            out.println();
+            out.println("/**");
+            out.println(" * The registry of all messages, indexed from 0. Generated by " + getClass().getName() + ": do not edit");
+            out.println(" */");
+            out.println("public final class " + messageTable + " {");
+            out.println("    /**");
+            out.println("     * The number of messages");
+            out.println("     */");
+            out.println("    public static final int size = " + messages.size() + ";");
+            out.println();
+            out.println("    /**");
+            out.println("     * The class of each message");
+            out.println("     */");
+            out.println("    private static final Class<?>[] classes = {");
+            for (TypeElement m : messages)
+                out.println("        " + m.getQualifiedName() + ".class,");
+            out.println("    };");
+            out.println();
+            out.println("    /**");
+            out.println("     * An instance of each message, used to deserialize it");
+            out.println("     */");
+            out.println("    private static final Message[] prototypes = {");
+            for (TypeElement m : messages)
+                out.println("        new " + m.getQualifiedName() + "(),");
+            out.println("    };");
+            out.println();
+            out.println("    /**");
+            out.println("     * The code of each message");
+            out.println("     */");
+            out.print("    private static final int[] codes = {");
+            for (int c : codes)
+                out.print(" " + c + ",");
+            out.println(" };");
+            out.println();
+            out.println("    /**");
+            out.println("     * Utility class, not to be instantiated");
+            out.println("     */");
+            out.println("    private " + messageTable + "() {}");
+            out.println();
+            out.println("    /**");
+            out.println("     * Gets the index of the message with the given code");
+            out.println("     * @param code the code");
+            out.println("     * @return the index of the message (-1 if there is none)");
+            out.println("     */");
+            out.println("    public static int indexOf(int code) {");
+            out.println("        switch (code) {");
+            for (int i = 0; i < codes.length; i++)
+                out.println("            case " + codes[i] + ": return " + i + ";");
+            out.println("            default: return -1;");
+            out.println("        }");
+            out.println("    }");
+            out.println();
+            out.println("    /**");
+            out.println("     * Gets the index of the given message class");
+            out.println("     * @param type the message class");
+            out.println("     * @return the index of the message class (-1 if it is not registered)");
+            out.println("     */");
+            out.println("    public static int indexOf(Class<?> type) {");
+            out.println("        for (int i = 0; i < size; i++) {");
+            out.println("            if (classes[i] == type)");
+            out.println("                return i;");
+            out.println("        }");
+            out.println("        return -1;");
+            out.println("    }");
+            out.println();
+            out.println("    /**");
+            out.println("     * Gets the code of a message");
+            out.println("     * @param index the index of the message");
+            out.println("     * @return the code of the message");
+            out.println("     */");
+            out.println("    public static int codeOf(int index) {");
+            out.println("        return codes[index];");
+            out.println("    }");
+            out.println();
+            out.println("    /**");
+            out.println("     * Deserializes a message (after its code)");
+            out.println("     * @param code the code of the message");
+            out.println("     * @param in the stream to read from");
+            out.println("     * @return the message");
+            out.println("     * @throws IOException if reading from the stream failed, or there is no message with the code");
+            out.println("     */");
+            out.println("    static Message deserialize(int code, DataInputStream in) throws IOException {");
+            out.println("        int index = indexOf(code);");
+            out.println("        if (index < 0)");
+            out.println("            throw new IOException(\"No sub class with code \" + code);");
+            out.println();
+            out.println("        return prototypes[index].deserializeMessage(in);");
+            out.println("    }");
+            out.println("}");
+        }
+    }
+
+    /**
+     * Writes the table of handlers
+     * @param pkg the package of the handlers
+     * @param messagePackage the package of the messages
+     * @param messages the messages, in order of index
+     * @param handlers the handler of each message (null if there is none)
+     * @throws IOException if writing the source file failed
+     */
+    private void writeHandlerTable(String pkg, String messagePackage, List<TypeElement> messages,
+                                   TypeElement[] handlers) throws IOException {
+        try (PrintWriter out = new PrintWriter(
+                processingEnv.getFiler().createSourceFile(pkg + "." + handlerTable).openWriter())) {
+            out.println("package " + pkg + ";");
+            out.println();
+            out.println("import " + messagePackage + "." + messageTable + ";");
+            out.println();
+            out.println("/**");
+            out.println(" * The registry of all message handlers. Generated by " + getClass().getName() + ": do not edit");
+            out.println(" */");
+            out.println("public final class " + handlerTable + " {");
+            out.println("    /**");
+            out.println("     * Utility class, not to be instantiated");
+            out.println("     */");
+            out.println("    private " + handlerTable + "() {}");
+            out.println();
+            out.println("    /**");
+            out.println("     * Creates the handlers of all messages");
+            out.println("     * @return the handlers, indexed by the index of the message they process (null for messages");
+            out.println("     * without a handler)");
+            out.println("     */");
+            out.println("    public static IMessageHandler[] create() {");
+            out.println("        IMessageHandler[] ans = new IMessageHandler[" + messageTable + ".size];");
+            for (int i = 0; i < handlers.length; i++) {
+                if (handlers[i] != null)
+                    out.println("        ans[" + i + "] = new " + handlers[i].getQualifiedName() + "(); //"
+                            + messages.get(i).getSimpleName());
+            }
+            out.println("        return ans;");
+            out.println("    }");
+            out.println("}");
+        }
+    }
+
+    /**
+     * Gets the message class processed by a handler
+     * @param handler the handler
+     * @return the qualified name of the message class
+     */
+    private String handledMessage(TypeElement handler) {
+        for (AnnotationMirror a : handler.getAnnotationMirrors()) {
+            if (!((TypeElement) a.getAnnotationType().asElement()).getQualifiedName()
+                    .contentEquals(Handles.class.getCanonicalName()))
+                continue;
+
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e : a.getElementValues().entrySet()) {
+                TypeMirror type = (TypeMirror) e.getValue().getValue();
+                return ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Checks that a class can be instantiated by generated code, reporting an error if not
+     * @param type the class
+     */
+    private void checkInstantiable(TypeElement type) {
+        if (type.getModifiers().contains(Modifier.ABSTRACT) || type.getKind() != ElementKind.CLASS
+                || !type.getModifiers().contains(Modifier.PUBLIC)) {
+            error(type, "Must be a public concrete class");
+            return;
+        }
+
+        for (ExecutableElement c : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (c.getParameters().isEmpty() && c.getModifiers().contains(Modifier.PUBLIC))
+                return;
+        }
+        error(type, "Must have a public constructor without arguments");
+    }
+
+    /**
+     * Gets the package of a class
+     * @param type the class
+     * @return the qualified name of the package
+     */
+    private String packageOf(TypeElement type) {
+        Element e = type;
+        while (!(e instanceof PackageElement))
+            e = e.getEnclosingElement();
+        return ((PackageElement) e).getQualifiedName().toString();
+    }
+
+    /**
+     * Reports a compile error
+     * @param e the element with the error
+     * @param message the description of the error
+     */
+    private void error(Element e, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, e);
+    }
+}
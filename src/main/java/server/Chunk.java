@@ -1,10 +1,7 @@
 package server;
 
 import common.Location;
-
-import java.util.HashMap;
-import java.util.Map;
-import java.util.TreeMap;
+import utils.LongIntHashMap;
 
 /**
  * A chunk in the map.
@@ -13,124 +10,221 @@ import java.util.TreeMap;
  * parked inside that region.
  *
  * This division was done as to improve concurrency in the server
+ *
+ * The scooters are stored in a dense grid with the number of scooters parked in each cell of the chunk,
+ * alongside the total number of scooters in each column. This way, searches around a location only visit
+ * the cells within range, skipping whole columns without scooters, instead of every scooter in the chunk.
  */
 public class Chunk extends LockableCollection {
 
     /**
-     * The coordinates of the top left corner of the chunk
+     * The x coordinate of the top left corner of the chunk
+     */
+    private final int left;
+
+    /**
+     * The y coordinate of the top left corner of the chunk
+     */
+    private final int top;
+
+    /**
+     * The length of the sides of the chunk (2 * D)
+     */
+    private final int side;
+
+    /**
+     * The number of scooters parked in each cell of the chunk. The cell with coordinates (x,y) relative
+     * to the current chunk is at index x * side + y
+     */
+    private final int[] scooters;
+
+    /**
+     * The number of scooters parked in each column (cells with the same relative x coordinate) of the chunk
+     */
+    private final int[] columnScooters;
+
+    /**
+     * The total number of scooters parked in the chunk
      */
-    private final Location topLeftCorner;
+    private int numberScooters;
 
     /**
-     * A map containing all scooters in the chunk. It contains all locations with scooters, alongside the number
-     * of scooters in that given location
+     * The version of the chunk. Increased (with the write lock held) before every change to its scooters,
+     * so that results computed from the chunk can be checked to still be exact without locking it
      */
-    private final Map<Location, Integer> scooters;
+    private volatile long version;
 
     /**
      * Parameterized constructor
      * @param tl coordinates of the top left corner of the chunk
      */
     public Chunk(Location tl) {
-        topLeftCorner = tl;
-        scooters = new TreeMap<>();
+        left = tl.getX();
+        top = tl.getY();
+        side = 2 * ServerFacade.D;
+        scooters = new int[side * side];
+        columnScooters = new int[side];
+        numberScooters = 0;
+        version = 0;
     }
 
     /**
-     * Gets the coordinates of the given location relative to the current chunk
+     * Gets the version of the chunk
      *
-     * For example, if the chunk has (10,10) as its top left corner, the location (12,13)
-     * will have (2,3) as its location relative to the current chunk
+     * @implNote can be called without holding any lock
      *
-     * @param l the given location
-     * @return the coordinates of the given location relative to the current chunk
+     * @return the version of the chunk
      */
-    public Location getLocationCoords(Location l) {
-        int x = l.getX() - topLeftCorner.getX();
-        int y = l.getY() - topLeftCorner.getY();
+    public long getVersion() {
+        return version;
+    }
 
-        return new Location(x, y);
+    /**
+     * Gets the total number of scooters parked in the chunk
+     * @return the total number of scooters parked in the chunk
+     */
+    public int getNumberScooters() {
+        return numberScooters;
     }
 
     /**
-     * Gets the closest free scooter to a location in the current chunk
-     * @param target the target location
-     * @return the location of the closest scooter (or null if no scooter is found in range)
+     * Gets the number of scooters parked in the given location
+     * @param x the x coordinate of the location (inside the chunk)
+     * @param y the y coordinate of the location (inside the chunk)
+     * @return the number of scooters parked in the given location
      */
-    public Location getClosestFreeScooter(Location target) {
-        int maxDistance = ServerFacade.D + 1;
-        Location ans = null;
+    public int getNumberScooters(int x, int y) {
+        return scooters[(x - left) * side + y - top];
+    }
 
-        for(Location l : scooters.keySet()) {
-            int d = Location.distance(l, target);
-            if(d < maxDistance) {
-                maxDistance = d;
-                ans = l;
-            }
+    /**
+     * Gets the closest free scooter to a location in a column of the current chunk
+     * @param x the x coordinate of the column
+     * @param targetY the y coordinate to search around
+     * @param maxDistance the maximum distance, along the column, of the scooter to the target
+     * @return the y coordinate of the closest scooter, or -1 if there is none in range
+     */
+    public int getClosestFreeScooterInColumn(int x, int targetY, int maxDistance) {
+        int cx = x - left;
+        if(cx < 0 || cx >= side || columnScooters[cx] == 0)
+            return -1;
+
+        int cy = targetY - top;
+        //Distance from the target to the nearest cell of the column inside the chunk
+        int start = cy < 0 ? -cy : (cy >= side ? cy - side + 1 : 0);
+
+        for(int d = start; d <= maxDistance; d++) {
+            if(cy - d >= 0 && cy - d < side && scooters[cx * side + cy - d] > 0)
+                return targetY - d;
+            if(cy + d >= 0 && cy + d < side && scooters[cx * side + cy + d] > 0)
+                return targetY + d;
+            if(cy - d < 0 && cy + d >= side)
+                break;
         }
 
-        return ans;
+        return -1;
     }
 
     /**
      * Gets all scooters in the chunk
-     * @return all scooters in the chunk (map of their location and number of scooters per location)
+     * @param ans the map to add all scooters in the chunk to (packed location and number of scooters per location)
+     *
+     * @see Location#pack(int, int)
      */
-    public Map<Location, Integer> getAllScooters() {
-        return scooters;
+    public void getAllScooters(LongIntHashMap ans) {
+        for(int cx = 0; cx < side; cx++) {
+            if(columnScooters[cx] == 0)
+                continue;
+
+            for(int cy = 0; cy < side; cy++) {
+                int count = scooters[cx * side + cy];
+                if(count > 0)
+                    ans.put(Location.pack(left + cx, top + cy), count);
+            }
+        }
     }
 
     /**
      * Gets all free scooters in range of target location inside current chunk
-     * @param target the target location
-     * @return a map containing all scooters in range. It contains all locations with scooters, alongside the number
-     * of scooters in that given location
+     * @param x the x coordinate of the target location
+     * @param y the y coordinate of the target location
+     * @param ans the map to add all scooters in range to. It contains all (packed) locations with scooters,
+     *            alongside the number of scooters in that given location
+     *
+     * @see Location#pack(int, int)
      */
-    public Map<Location, Integer> getFreeScootersInRange(Location target) {
-        Map<Location, Integer> ans = new TreeMap<>();
-
-        for(Map.Entry<Location, Integer> kv : scooters.entrySet()) {
-            int d = Location.distance(target, kv.getKey());
-            if(d <= ServerFacade.D) {
-                ans.put(kv.getKey(), kv.getValue());
+    public void getFreeScootersInRange(int x, int y, LongIntHashMap ans) {
+        if(numberScooters == 0)
+            return;
+
+        int tx = x - left;
+        int ty = y - top;
+
+        for(int cx = Math.max(0, tx - ServerFacade.D); cx <= Math.min(side - 1, tx + ServerFacade.D); cx++) {
+            if(columnScooters[cx] == 0)
+                continue;
+
+            int range = ServerFacade.D - Math.abs(cx - tx);
+            for(int cy = Math.max(0, ty - range); cy <= Math.min(side - 1, ty + range); cy++) {
+                int count = scooters[cx * side + cy];
+                if(count > 0)
+                    ans.put(Location.pack(left + cx, top + cy), count);
             }
         }
-
-        return ans;
     }
 
     /**
-     * Reserves the scooter closest to the target location
-     * @param target the target location
-     * @return the location of the reserved scooter (null if no scooter was found)
+     * Gets whether there is any free scooter in range of target location inside current chunk
+     * @param x the x coordinate of the target location
+     * @param y the y coordinate of the target location
+     * @return whether there is any free scooter in range of target location inside current chunk
      */
-    public Location reserveScooter(Location target) {
-        Location l = getClosestFreeScooter(target);
+    public boolean hasFreeScootersInRange(int x, int y) {
+        if(numberScooters == 0)
+            return false;
 
-        if(l != null) {
-            int val = scooters.get(l);
-            val--;
-            if(val == 0) {
-                scooters.remove(l);
-            } else {
-                scooters.put(l, val);
+        int tx = x - left;
+        int ty = y - top;
+
+        for(int cx = Math.max(0, tx - ServerFacade.D); cx <= Math.min(side - 1, tx + ServerFacade.D); cx++) {
+            if(columnScooters[cx] == 0)
+                continue;
+
+            int range = ServerFacade.D - Math.abs(cx - tx);
+            for(int cy = Math.max(0, ty - range); cy <= Math.min(side - 1, ty + range); cy++) {
+                if(scooters[cx * side + cy] > 0)
+                    return true;
             }
         }
-        return l;
+
+        return false;
     }
 
     /**
-     * Frees a scooter in the given location
-     * @param l the given location
+     * Removes a scooter parked in the given location
+     * @param x the x coordinate of the location (must have at least one scooter parked)
+     * @param y the y coordinate of the location
      */
-    public void freeScooter(Location l) {
-        if(!scooters.containsKey(l)) {
-            scooters.put(l, 0);
-        }
+    public void removeScooter(int x, int y) {
+        int cx = x - left;
 
-        int val = scooters.get(l);
-        val++;
+        version++;
+        scooters[cx * side + y - top]--;
+        columnScooters[cx]--;
+        numberScooters--;
+    }
+
+    /**
+     * Frees a scooter in the given location
+     * @param x the x coordinate of the location
+     * @param y the y coordinate of the location
+     */
+    public void freeScooter(int x, int y) {
+        int cx = x - left;
 
-        scooters.put(l, val);
+        version++;
+        scooters[cx * side + y - top]++;
+        columnScooters[cx]++;
+        numberScooters++;
     }
 }
@@ -1,73 +1,108 @@
 package server;
 
-import common.Notification;
+import common.ITaggedConnection;
 import common.Reward;
 import common.TaggedConnection;
+import common.Threads;
 import common.User;
 import common.messages.Message;
 import common.messages.RewardNotification;
+import server.messageHandling.HandlerTable;
 import server.messageHandling.IMessageHandler;
 
 import java.io.*;
-import java.net.Socket;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Class responsible for handling a client connection. Instances of this class should
- * execute in their own, separate thread
+ * execute in their own, separate thread, which only reads the requests: these are processed
+ * concurrently by a {@link RequestPipeline}
  */
 public class ClientHandler implements Runnable {
 
     /**
-     * A map of all message handlers indexed by the class of the message they can process.
+     * All message handlers, indexed by the index of the message class they can process.
      *
      * Similarly to serializing messages, processing them in an elegant manner required the creation
      * of an interface for classes responsible for parsing certain messages. Each class implementing
      * the {@link, IMessageHandler} interface is responsible for parsing one and one message class
-     * only.
+     * only, which it declares with the {@link common.registry.Handles} annotation.
      *
-     * When processing a message, all this class does is determine (using this map), which handler should
+     * When processing a message, all this class does is determine (using this array), which handler should
      * it call based on the class of the incoming message. This allows this class to be simpler, and the splitting
      * the complex message handling amongst a greater number of simpler classes, resulting in easier to maintain code
      *
      * @see IMessageHandler
+     * @see HandlerTable
      */
-    private static final Map<Class<? extends Message>, IMessageHandler> handlers = new HashMap<>();
+    private static final IMessageHandler[] handlers = HandlerTable.create();
 
     /**
-     * Registers the handler of a message class. Refer to {@link, #handlers}
-     * @param messageClass the class of the message the handler can process
-     * @param handler an instance of the class responsible for handling the message
+     * The (blocking) channel of the client connection
      */
-    public static void registerHandler(Class<? extends Message> messageClass, IMessageHandler handler) {
-        if(handlers.containsKey(messageClass)) {
-            throw new RuntimeException("Already registered handler");
-        }
+    private final SocketChannel channel;
 
-        handlers.put(messageClass, handler);
-    }
+    /**
+     * The server facade. Exposes all functionality
+     */
+    private final ServerFacade facade;
 
+    /**
+     * The maximum number of requests of the client processed concurrently
+     */
+    private final int maximumInFlight;
 
+    /**
+     * The maximum number of frames written to the client at once
+     */
+    private final int maximumBatchSize;
 
     /**
-     * The socket of the client connection
+     * The maximum time (in microseconds) a frame to the client waits for others to fill its batch
      */
-    private final Socket socket;
+    private final long maximumLatency;
 
     /**
-     * The server facade. Exposes all functionality
+     * Parameterized constructor
+     * @param facade the server facade
+     * @param clientChannel the (blocking) channel the client is connected in
      */
-    private final ServerFacade facade;
+    public ClientHandler(ServerFacade facade, SocketChannel clientChannel) {
+        this(facade, clientChannel, RequestPipeline.defaultMaximumInFlight);
+    }
+
+    /**
+     * Parameterized constructor
+     * @param facade the server facade
+     * @param clientChannel the (blocking) channel the client is connected in
+     * @param maximumInFlight the maximum number of requests of the client processed concurrently
+     */
+    public ClientHandler(ServerFacade facade, SocketChannel clientChannel, int maximumInFlight) {
+        this(facade, clientChannel, maximumInFlight, TaggedConnection.defaultMaximumBatchSize, 0);
+    }
 
     /**
      * Parameterized constructor
      * @param facade the server facade
-     * @param clientSocket the socket the client is connected in
+     * @param clientChannel the (blocking) channel the client is connected in
+     * @param maximumInFlight the maximum number of requests of the client processed concurrently
+     * @param maximumBatchSize the maximum number of frames written to the client at once
+     * @param maximumLatency the maximum time (in microseconds) a frame to the client waits for others to
+     *                       fill its batch (0 to write it right away)
+     *
+     * @see TaggedConnection
      */
-    public ClientHandler(ServerFacade facade, Socket clientSocket) {
+    public ClientHandler(ServerFacade facade, SocketChannel clientChannel, int maximumInFlight,
+                         int maximumBatchSize, long maximumLatency) {
         this.facade = facade;
-        this.socket = clientSocket;
+        this.channel = clientChannel;
+        this.maximumInFlight = maximumInFlight;
+        this.maximumBatchSize = maximumBatchSize;
+        this.maximumLatency = maximumLatency;
     }
 
 
@@ -79,27 +114,60 @@ public class ClientHandler implements Runnable {
         /**
          * The tagged connection to the client
          */
-        public final TaggedConnection connection;
+        public final ITaggedConnection connection;
+
+        /**
+         * The dispatcher pushing notifications to the client. Null if each subscription
+         * should push its notifications from its own thread
+         */
+        public final NotificationDispatcher dispatcher;
 
         /**
          * The user logged in
          */
-        public User currentUser;
+        public volatile User currentUser;
 
         /**
          * The notification subscription (null if the user isn't subscribed)
          */
-        public SubscribableQueue<Notification>.Subscription subscription;
+        public volatile SubscribableQueue<List<ByteBuffer>>.Subscription subscription;
+
+        /**
+         * Whether the client asked for compact encodings of the responses
+         *
+         * @see common.messages.CompactEncodingRequest
+         */
+        public volatile boolean compactEncoding;
 
-        public State(Socket socket) throws IOException {
-            this.connection = new TaggedConnection(socket);
+        /**
+         * The lock to synchronize changes to the subscription, as requests of the same connection
+         * may be processed concurrently
+         */
+        public final Lock lock;
+
+        /**
+         * Parameterized constructor
+         * @param connection the tagged connection to the client
+         * @param dispatcher the dispatcher pushing notifications to the client (null if
+         *                   each subscription should push its notifications from its own thread)
+         */
+        public State(ITaggedConnection connection, NotificationDispatcher dispatcher) {
+            this.connection = connection;
+            this.dispatcher = dispatcher;
+            this.lock = new ReentrantLock();
         }
 
         @Override
         public void close() throws IOException {
             connection.close();
-            if (subscription != null)
-                subscription.close();
+
+            lock.lock();
+            try {
+                if (subscription != null)
+                    subscription.close();
+            } finally {
+                lock.unlock();
+            }
         }
     }
 
@@ -108,36 +176,52 @@ public class ClientHandler implements Runnable {
      */
     @Override
     public void run() {
-        try (
-            State state = new State(this.socket)
-        ) {
-            System.out.println("New client connected");
-
-            Message curMessage = null;
-            do {
-                TaggedConnection.Frame f = state.connection.receive();
-                curMessage = f.getMessage();
-                if (curMessage != null) {
-                    Message response = processMessage(f, state);
-                    if (response != null)
-                        state.connection.send(f.getTag(), response);
-                }
-            } while (curMessage != null);
-            System.out.println("Client sent null message. Disconnecting...");
+        try {
+            //Closed alongside the state
+            TaggedConnection connection = new TaggedConnection(this.channel, maximumBatchSize, maximumLatency);
+
+            try (
+                State state = new State(connection, null)
+            ) {
+                System.out.println("New client connected");
+                RequestPipeline pipeline = new RequestPipeline(facade, state, Threads.workers(), maximumInFlight);
+
+                Message curMessage = null;
+                do {
+                    TaggedConnection.Frame f = connection.receive();
+                    curMessage = f.getMessage();
+                    if (curMessage != null && !pipeline.submit(f))
+                        pipeline.awaitCapacity();
+                } while (curMessage != null);
+                System.out.println("Client sent null message. Disconnecting...");
+            } finally {
+                System.out.println(String.format("Sent %d frames in %d writes",
+                        connection.getFramesFlushed(), connection.getFlushes()));
+            }
         } catch(EOFException e) {
             System.out.println("Client disconnected");
         } catch(IOException e) {
             System.out.println("Client disconnected abruptly: " + e.getMessage());
+        } catch(InterruptedException e) {
+            System.out.println("Client handler interrupted");
+            Thread.currentThread().interrupt();
         }
     }
 
     /**
      * Processes the incoming message, determining the appropriate response to it
+     * @param facade the server facade
      * @param frame the incoming message
+     * @param state the connection state
      * @return the outgoing message
      */
-    private Message processMessage(TaggedConnection.Frame frame, State state) {
-        Message response = handlers.get(frame.getMessage().getClass()).processMessage(facade, frame, state);
+    static Message processMessage(ServerFacade facade, TaggedConnection.Frame frame, State state) {
+        int index = Message.indexOf(frame.getMessage());
+        IMessageHandler handler = index < 0 ? null : handlers[index];
+        if (handler == null)
+            throw new RuntimeException("No handler for " + frame.getMessage().getClass().getSimpleName());
+
+        Message response = handler.processMessage(facade, frame, state);
 
         System.out.println("Received message: " + frame.getMessage().toString());
         if (response != null)
@@ -0,0 +1,325 @@
+package server;
+
+import common.Location;
+import utils.LongIntHashMap;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A reward engine rebuilt from a snapshot of the scooters every time rewards are generated.
+ *
+ * The engine computes, for every location, the (Manhattan) distance to the closest scooter, so that
+ * checking whether a location is empty is a single lookup. The distance map is separable: the distance
+ * along each column is computed first, and then propagated along each row, with two sweeps each way.
+ * The rebuild is therefore linear in N * N, and every sweep is split in bands across a fork/join pool.
+ *
+ * Changes to the scooters only mark the engine as outdated, so reservations never pay for it.
+ */
+public class DistanceMapRewardEngine implements IRewardEngine {
+    /**
+     * The number of lines swept sequentially by each fork/join task
+     */
+    private static final int linesPerTask = 64;
+
+    /**
+     * A sweep of the distance map along one axis, over a band of lines
+     */
+    private static class Sweep extends RecursiveAction {
+        /**
+         * The distance map (cell x * n + y)
+         */
+        private final int[] distance;
+
+        /**
+         * The size of the map
+         */
+        private final int n;
+
+        /**
+         * Whether to sweep along the columns (varying y) instead of the rows (varying x)
+         */
+        private final boolean columns;
+
+        /**
+         * The first line of the band
+         */
+        private final int from;
+
+        /**
+         * The line after the last one of the band
+         */
+        private final int to;
+
+        /**
+         * Parameterized constructor
+         * @param distance the distance map
+         * @param n the size of the map
+         * @param columns whether to sweep along the columns instead of the rows
+         * @param from the first line of the band
+         * @param to the line after the last one of the band
+         */
+        private Sweep(int[] distance, int n, boolean columns, int from, int to) {
+            this.distance = distance;
+            this.n = n;
+            this.columns = columns;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > linesPerTask) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Sweep(distance, n, columns, from, middle), new Sweep(distance, n, columns, middle, to));
+                return;
+            }
+
+            for (int line = from; line < to; line++) {
+                int first = columns ? line * n : line;
+                int step = columns ? 1 : n;
+
+                for (int i = 1, cell = first + step; i < n; i++, cell += step)
+                    distance[cell] = Math.min(distance[cell], distance[cell - step] + 1);
+                for (int i = n - 2, cell = first + i * step; i >= 0; i--, cell -= step)
+                    distance[cell] = Math.min(distance[cell], distance[cell + step] + 1);
+            }
+        }
+    }
+
+    /**
+     * The size of the map
+     */
+    private final int n;
+
+    /**
+     * The maximum distance of a scooter to a location for it not to be empty
+     */
+    private final int d;
+
+    /**
+     * The distance from each cell to the closest scooter (at most 2 * N)
+     */
+    private final int[] distance;
+
+    /**
+     * The empty cells (the first {@link #numberEmpty} of the array)
+     */
+    private int[] emptyCells;
+
+    /**
+     * The empty cells before the last rebuild, reused as the next array of empty cells
+     */
+    private int[] previousEmptyCells;
+
+    /**
+     * The number of empty cells
+     */
+    private int numberEmpty;
+
+    /**
+     * The scooters in the map at the time of the last rebuild ((packed) location and number of scooters)
+     */
+    private LongIntHashMap snapshot;
+
+    /**
+     * The (packed) locations changed since the last call to {@link #drainChangedLocations()}
+     */
+    private final LongIntHashMap changedLocations;
+
+    /**
+     * Whether an empty location stopped being empty since the last call to {@link #drainEmptyLocationsLost()}
+     */
+    private boolean emptyLocationsLost;
+
+    /**
+     * Whether the scooters changed since the last rebuild
+     */
+    private volatile boolean outdated;
+
+    /**
+     * The pool running the sweeps
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * The lock protecting the state of the engine
+     */
+    private final ReentrantLock lock;
+
+    /**
+     * Parameterized constructor
+     *
+     * @implNote every location with scooters starts as changed, so that all rewards are generated the first time
+     *
+     * @param scooters the scooters in the map
+     */
+    public DistanceMapRewardEngine(ScooterCollection scooters) {
+        n = ServerFacade.N;
+        d = ServerFacade.D;
+        distance = new int[n * n];
+        emptyCells = new int[n * n];
+        previousEmptyCells = new int[n * n];
+        numberEmpty = 0;
+        snapshot = new LongIntHashMap();
+        changedLocations = new LongIntHashMap();
+        pool = ForkJoinPool.commonPool();
+        lock = new ReentrantLock();
+        outdated = true;
+
+        refresh(scooters);
+        emptyLocationsLost = false;
+    }
+
+    @Override
+    public void scootersChanged(int x, int y, int delta, int count) {
+        outdated = true;
+    }
+
+    /**
+     * Rebuilds the distance map from a snapshot of the scooters, if they changed since the last rebuild
+     *
+     * @implNote read locks every chunk while taking the snapshot
+     *
+     * @param scooters the scooters in the map
+     */
+    @Override
+    public void refresh(ScooterCollection scooters) {
+        if (!outdated)
+            return;
+        //Cleared before the snapshot, so that changes made meanwhile trigger another rebuild
+        outdated = false;
+
+        LongIntHashMap current;
+        scooters.lockEverything(false);
+        try {
+            current = scooters.getAllScooters();
+        } finally {
+            scooters.unlockEverything(false);
+        }
+
+        lock.lock();
+        try {
+            LongIntHashMap previous = snapshot;
+            current.forEach((location, count) -> {
+                if (previous.getOrDefault(location, 0) != count)
+                    changedLocations.put(location, 0);
+            });
+            previous.forEach((location, count) -> {
+                if (!current.containsKey(location))
+                    changedLocations.put(location, 0);
+            });
+            snapshot = current;
+
+            rebuild();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isEmpty(int x, int y) {
+        lock.lock();
+        try {
+            return distance[x * n + y] > d;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isFull(int x, int y) {
+        lock.lock();
+        try {
+            return snapshot.getOrDefault(Location.pack(x, y), 0) > 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Location randomEmptyLocation(Random rnd) {
+        lock.lock();
+        try {
+            if (numberEmpty == 0)
+                return null;
+
+            int cell = emptyCells[rnd.nextInt(numberEmpty)];
+            return new Location(cell / n, cell % n);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidate(int x, int y) {
+        lock.lock();
+        try {
+            changedLocations.put(Location.pack(x, y), 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long[] drainChangedLocations() {
+        lock.lock();
+        try {
+            long[] ans = new long[changedLocations.size()];
+            int[] i = {0};
+            changedLocations.forEach((location, unused) -> ans[i[0]++] = location);
+
+            changedLocations.clear();
+            return ans;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean drainEmptyLocationsLost() {
+        lock.lock();
+        try {
+            boolean ans = emptyLocationsLost;
+            emptyLocationsLost = false;
+            return ans;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rebuilds the distance map and the empty cells from the snapshot
+     *
+     * @implNote must be called with the lock held
+     */
+    private void rebuild() {
+        int infinity = 2 * n;
+        for (int cell = 0; cell < n * n; cell++)
+            distance[cell] = infinity;
+        snapshot.forEach((location, count) -> distance[Location.unpackX(location) * n + Location.unpackY(location)] = 0);
+
+        pool.invoke(new Sweep(distance, n, true, 0, n));
+        pool.invoke(new Sweep(distance, n, false, 0, n));
+
+        for (int i = 0; i < numberEmpty; i++) {
+            if (distance[emptyCells[i]] <= d) {
+                emptyLocationsLost = true;
+                break;
+            }
+        }
+
+        int[] cells = previousEmptyCells;
+        int size = 0;
+        for (int cell = 0; cell < n * n; cell++) {
+            if (distance[cell] > d)
+                cells[size++] = cell;
+        }
+
+        previousEmptyCells = emptyCells;
+        emptyCells = cells;
+        numberEmpty = size;
+    }
+}
@@ -0,0 +1,288 @@
+package server;
+
+import common.Threads;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * An I/O loop serving many non-blocking client connections from a single thread.
+ *
+ * The loop waits on a selector for channels with incoming data, parses the complete frames
+ * and hands them over to a {@link RequestPipeline} per client, which processes them in a pool of
+ * workers with the same message handlers used by {@link ClientHandler}.
+ *
+ * Runs in its own thread
+ */
+public class EventLoop implements Runnable {
+    /**
+     * A client connection served by the loop. Attached to its selection key
+     */
+    private static class Client {
+        /**
+         * The connection to the client
+         */
+        private final NioConnection connection;
+
+        /**
+         * All stateful information about the connection
+         */
+        private final ClientHandler.State state;
+
+        /**
+         * The pipeline processing the requests of the client
+         */
+        private final RequestPipeline pipeline;
+
+        /**
+         * Parameterized constructor
+         * @param connection the connection to the client
+         * @param state all stateful information about the connection
+         * @param pipeline the pipeline processing the requests of the client
+         */
+        private Client(NioConnection connection, ClientHandler.State state, RequestPipeline pipeline) {
+            this.connection = connection;
+            this.state = state;
+            this.pipeline = pipeline;
+        }
+    }
+
+    /**
+     * The selector of the loop
+     */
+    private final Selector selector;
+
+    /**
+     * The server facade. Exposes all functionality
+     */
+    private final ServerFacade facade;
+
+    /**
+     * The dispatcher of notifications to the clients of the loop
+     */
+    private final NotificationDispatcher dispatcher;
+
+    /**
+     * Channels accepted by the server and waiting to be registered in the selector.
+     * Registration must happen in the loop thread, as the selector may be blocked in a select
+     */
+    private final Queue<SocketChannel> pendingRegistrations;
+
+    /**
+     * Connections with messages which could not be written immediately, waiting to have
+     * their interest in writing registered by the loop thread
+     */
+    private final Queue<NioConnection> pendingWrites;
+
+    /**
+     * Connections whose request pipeline regained capacity, waiting to have their interest
+     * in reading registered again by the loop thread
+     */
+    private final Queue<NioConnection> pendingReads;
+
+    /**
+     * The maximum number of requests of each client processed concurrently
+     */
+    private final int maximumInFlight;
+
+    /**
+     * Parameterized constructor
+     * @param facade the server facade
+     * @param dispatcher the dispatcher of notifications
+     * @throws IOException if opening the selector failed
+     */
+    public EventLoop(ServerFacade facade, NotificationDispatcher dispatcher) throws IOException {
+        this(facade, dispatcher, RequestPipeline.defaultMaximumInFlight);
+    }
+
+    /**
+     * Parameterized constructor
+     * @param facade the server facade
+     * @param dispatcher the dispatcher of notifications
+     * @param maximumInFlight the maximum number of requests of each client processed concurrently
+     * @throws IOException if opening the selector failed
+     */
+    public EventLoop(ServerFacade facade, NotificationDispatcher dispatcher, int maximumInFlight) throws IOException {
+        this.selector = Selector.open();
+        this.facade = facade;
+        this.dispatcher = dispatcher;
+        this.pendingRegistrations = new ConcurrentLinkedQueue<>();
+        this.pendingWrites = new ConcurrentLinkedQueue<>();
+        this.pendingReads = new ConcurrentLinkedQueue<>();
+        this.maximumInFlight = maximumInFlight;
+    }
+
+    /**
+     * Hands a newly accepted channel over to the loop
+     * @param channel the channel of the new client
+     */
+    public void register(SocketChannel channel) {
+        pendingRegistrations.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks the loop to write the queued messages of a connection once its channel is writable
+     * @param connection the connection
+     */
+    void requestWrite(NioConnection connection) {
+        pendingWrites.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks the loop to resume reading the requests of a connection
+     * @param connection the connection
+     */
+    void requestRead(NioConnection connection) {
+        pendingReads.add(connection);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                System.out.println("Event loop failed: " + e.getMessage());
+                return;
+            }
+
+            processRegistrations();
+            processWrites();
+            processReads();
+
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+
+                Client client = (Client) key.attachment();
+                try {
+                    if (key.isValid() && key.isWritable())
+                        handleWrite(key, client);
+                    if (key.isValid() && key.isReadable())
+                        handleRead(key, client);
+                } catch (IOException e) {
+                    System.out.println("Client disconnected abruptly: " + e.getMessage());
+                    disconnect(key, client);
+                } catch (RuntimeException e) {
+                    System.out.println("Error processing client message: " + e);
+                    disconnect(key, client);
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers all channels waiting for registration
+     */
+    private void processRegistrations() {
+        SocketChannel channel;
+        while ((channel = pendingRegistrations.poll()) != null) {
+            NioConnection connection = new NioConnection(channel, this);
+            ClientHandler.State state = new ClientHandler.State(connection, dispatcher);
+            RequestPipeline pipeline = new RequestPipeline(facade, state, Threads.workers(), maximumInFlight);
+            pipeline.setOnCapacity(() -> requestRead(connection));
+            Client client = new Client(connection, state, pipeline);
+
+            try {
+                channel.register(selector, SelectionKey.OP_READ, client);
+                System.out.println("New client connected");
+            } catch (ClosedChannelException e) {
+                System.out.println("Client disconnected");
+            }
+        }
+    }
+
+    /**
+     * Registers the interest in writing of all connections waiting for it
+     */
+    private void processWrites() {
+        NioConnection connection;
+        while ((connection = pendingWrites.poll()) != null) {
+            SelectionKey key = connection.getChannel().keyFor(selector);
+            if (key != null && key.isValid())
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Registers the interest in reading of all connections waiting for it, handing over the frames they
+     * already received (as no more bytes may come to wake the selector)
+     */
+    private void processReads() {
+        NioConnection connection;
+        while ((connection = pendingReads.poll()) != null) {
+            SelectionKey key = connection.getChannel().keyFor(selector);
+            if (key == null || !key.isValid())
+                continue;
+
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            Client client = (Client) key.attachment();
+            try {
+                handleRead(key, client);
+            } catch (IOException e) {
+                System.out.println("Client disconnected abruptly: " + e.getMessage());
+                disconnect(key, client);
+            } catch (RuntimeException e) {
+                System.out.println("Error processing client message: " + e);
+                disconnect(key, client);
+            }
+        }
+    }
+
+    /**
+     * Reads the complete frames sent by a client, handing them over to its pipeline. Stops
+     * reading from the client as soon as its pipeline is full
+     * @param key the selection key of the client
+     * @param client the client
+     * @throws IOException if communicating with the client failed
+     */
+    private void handleRead(SelectionKey key, Client client) throws IOException {
+        boolean[] capacity = {true};
+        boolean open = client.connection.read(f -> capacity[0] = client.pipeline.submit(f));
+
+        if (!open) {
+            System.out.println("Client disconnected");
+            disconnect(key, client);
+            return;
+        }
+
+        //Resumed by the pipeline once it regains capacity
+        if (!capacity[0])
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+    }
+
+    /**
+     * Writes the queued messages of a client
+     * @param key the selection key of the client
+     * @param client the client
+     * @throws IOException if writing to the client failed
+     */
+    private void handleWrite(SelectionKey key, Client client) throws IOException {
+        if (client.connection.flush())
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Closes the connection to a client
+     * @param key the selection key of the client
+     * @param client the client
+     */
+    private void disconnect(SelectionKey key, Client client) {
+        key.cancel();
+        try {
+            client.state.close();
+        } catch (IOException e) {
+            System.out.println("Error closing connection: " + e.getMessage());
+        }
+    }
+}
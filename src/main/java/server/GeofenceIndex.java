@@ -0,0 +1,367 @@
+package server;
+
+import common.Frames;
+import common.Location;
+import common.Notification;
+import common.Reward;
+import common.messages.RewardNotification;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The subscribers to the rewards of an area (a geofence), indexed by the chunks their area overlaps.
+ *
+ * When new rewards are published, only the chunks which changed are looked up, and only the subscribers
+ * overlapping them are notified, each with the rewards of its own area. Subscribers with the same geofence
+ * share the same (encoded) notification. New subscribers are sent the rewards of their area right away.
+ *
+ * Areas overlapping more than {@link #maximumIndexedChunks} chunks are not indexed by chunk (as that could
+ * take an entry per chunk of the grid for each of them), but kept apart, and checked against the changed
+ * chunks on every publication.
+ *
+ * @implNote Thread safe
+ *
+ * @see RewardSnapshot
+ */
+public class GeofenceIndex {
+    /**
+     * The maximum number of chunks an area may overlap to be indexed by chunk
+     */
+    public static final int maximumIndexedChunks = 64;
+
+    /**
+     * The area of a subscription, and the minimum prize money of the rewards in it
+     */
+    public static final class Geofence {
+        /**
+         * The center of the area
+         */
+        private final Location center;
+
+        /**
+         * The maximum distance from the center
+         */
+        private final int radius;
+
+        /**
+         * The minimum prize money of the rewards
+         */
+        private final int minimumMoney;
+
+        /**
+         * Parameterized constructor
+         * @param center the center of the area
+         * @param radius the maximum distance from the center (at most 2 * N, as the whole grid is then covered)
+         * @param minimumMoney the minimum prize money of the rewards
+         */
+        public Geofence(Location center, int radius, int minimumMoney) {
+            this.center = center;
+            this.radius = Math.min(radius, 2 * ServerFacade.N);
+            this.minimumMoney = minimumMoney;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+
+            Geofence g = (Geofence) o;
+            return center.equals(g.center) && radius == g.radius && minimumMoney == g.minimumMoney;
+        }
+
+        @Override
+        public int hashCode() {
+            return (center.hashCode() * 31 + radius) * 31 + minimumMoney;
+        }
+    }
+
+    /**
+     * A subscriber to the rewards of an area
+     */
+    private static final class Subscriber {
+        /**
+         * The area of the subscriber
+         */
+        private final Geofence fence;
+
+        /**
+         * The queue of notifications of the subscriber (read by its only subscription)
+         */
+        private final SubscribableQueue<List<ByteBuffer>> queue;
+
+        /**
+         * The subscription to the queue
+         */
+        private final SubscribableQueue<List<ByteBuffer>>.Subscription subscription;
+
+        /**
+         * The first and last rows and columns of the chunks the area overlaps
+         */
+        private final int firstRow, lastRow, firstColumn, lastColumn;
+
+        /**
+         * The rewards last sent to the subscriber (null if none were sent yet)
+         */
+        private Set<Reward> lastSent;
+
+        /**
+         * Parameterized constructor
+         * @param fence the area of the subscriber
+         * @param queue the queue of notifications of the subscriber
+         */
+        private Subscriber(Geofence fence, SubscribableQueue<List<ByteBuffer>> queue) {
+            this.fence = fence;
+            this.queue = queue;
+            this.subscription = queue.getSubscription();
+            this.firstRow = RewardSnapshot.chunkIndex(fence.center.getX() - fence.radius);
+            this.lastRow = RewardSnapshot.chunkIndex(fence.center.getX() + fence.radius);
+            this.firstColumn = RewardSnapshot.chunkIndex(fence.center.getY() - fence.radius);
+            this.lastColumn = RewardSnapshot.chunkIndex(fence.center.getY() + fence.radius);
+            this.lastSent = null;
+        }
+
+        /**
+         * Gets whether the area is indexed by chunk
+         * @return whether the area overlaps at most {@link #maximumIndexedChunks} chunks
+         */
+        private boolean isIndexed() {
+            return (long) (lastRow - firstRow + 1) * (lastColumn - firstColumn + 1) <= maximumIndexedChunks;
+        }
+
+        /**
+         * Gets whether the area overlaps a chunk
+         * @param i the row of the chunk
+         * @param j the column of the chunk
+         * @return whether the area overlaps the chunk
+         */
+        private boolean overlaps(int i, int j) {
+            return firstRow <= i && i <= lastRow && firstColumn <= j && j <= lastColumn;
+        }
+    }
+
+    /**
+     * The subscribers overlapping each chunk (i * numberChunks + j), for the chunks with any
+     */
+    private final Map<Integer, Set<Subscriber>> byChunk;
+
+    /**
+     * The subscribers whose area overlaps too many chunks to be indexed by chunk
+     */
+    private final Set<Subscriber> wide;
+
+    /**
+     * The rewards last published
+     */
+    private RewardSnapshot published;
+
+    /**
+     * The number of subscribers added since the closed ones were last removed
+     */
+    private int addedSinceSweep;
+
+    /**
+     * The number of subscribers in the index
+     */
+    private int size;
+
+    /**
+     * The lock to synchronize the index
+     */
+    private final ReentrantLock lock;
+
+    /**
+     * Parameterized constructor
+     * @param published the rewards currently active
+     */
+    public GeofenceIndex(RewardSnapshot published) {
+        this.byChunk = new HashMap<>();
+        this.wide = new HashSet<>();
+        this.published = published;
+        this.addedSinceSweep = 0;
+        this.size = 0;
+        this.lock = new ReentrantLock();
+    }
+
+    /**
+     * Subscribes to the rewards of an area, starting with the ones last published. Closing the subscription
+     * unsubscribes
+     * @param fence the area
+     * @param maximumRetained the maximum number of notifications the subscriber may lag behind
+     * @param policy what to do if the subscriber lags behind further
+     * @return the subscription to the notifications (ready to be sent) of the area
+     */
+    public SubscribableQueue<List<ByteBuffer>>.Subscription subscribe(Geofence fence, long maximumRetained,
+                                                             SubscribableQueue.Policy policy) {
+        int numberChunks = ServerFacade.N / (2 * ServerFacade.D);
+        Subscriber s = new Subscriber(fence, new SubscribableQueue<>(maximumRetained, policy));
+
+        lock.lock();
+        try {
+            //Closed subscribers are swept once as many were added as there were: constant time on average
+            if (++addedSinceSweep > size)
+                sweep();
+
+            if (s.isIndexed()) {
+                for (int i = s.firstRow; i <= s.lastRow; i++) {
+                    for (int j = s.firstColumn; j <= s.lastColumn; j++)
+                        byChunk.computeIfAbsent(i * numberChunks + j, k -> new HashSet<>()).add(s);
+                }
+            } else {
+                wide.add(s);
+            }
+            size++;
+
+            //Taken under the lock, so that no publication is missed in between
+            Set<Reward> inRange = published.getRewardsInRange(fence.center, fence.radius, fence.minimumMoney);
+            List<ByteBuffer> m = encode(inRange);
+            if (m != null) {
+                s.lastSent = inRange;
+                s.queue.push(m);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return s.subscription;
+    }
+
+    /**
+     * Notifies every subscriber whose area overlaps a chunk which changed since the rewards were last published
+     *
+     * @implNote takes time proportional to the changed chunks (times the subscribers not indexed by chunk), and
+     * not to the chunks with subscribers
+     *
+     * @param current the rewards to publish
+     */
+    public void publish(RewardSnapshot current) {
+        int numberChunks = current.getNumberChunks();
+        Map<Geofence, Set<Reward>> rewards = new HashMap<>();
+        Map<Geofence, List<ByteBuffer>> encoded = new HashMap<>();
+
+        lock.lock();
+        try {
+            RewardSnapshot previous = published;
+            published = current;
+
+            List<Integer> changed = current.getChangedChunks(previous);
+            Set<Subscriber> notified = new HashSet<>();
+            for (int c : changed) {
+                Set<Subscriber> subscribers = byChunk.get(c);
+                if (subscribers != null)
+                    notified.addAll(subscribers);
+            }
+            for (Subscriber s : wide) {
+                for (int c : changed) {
+                    if (s.overlaps(c / numberChunks, c % numberChunks)) {
+                        notified.add(s);
+                        break;
+                    }
+                }
+            }
+
+            for (Subscriber s : notified) {
+                if (s.subscription.isClosed()) {
+                    remove(s);
+                    continue;
+                }
+
+                //The chunk may have changed elsewhere than in the area
+                Set<Reward> inRange = rewards.computeIfAbsent(s.fence,
+                        f -> current.getRewardsInRange(f.center, f.radius, f.minimumMoney));
+                if (inRange.equals(s.lastSent))
+                    continue;
+
+                List<ByteBuffer> m = encoded.computeIfAbsent(s.fence, f -> encode(inRange));
+                if (m != null) {
+                    s.lastSent = inRange;
+                    s.queue.push(m);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of subscribers in the index (some of them may already be closed)
+     * @return the number of subscribers in the index
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Builds the notification of the rewards of an area, encoded once
+     * @param rewards the rewards of the area
+     * @return the frame of the encoded notification (null if it could not be encoded)
+     */
+    private static List<ByteBuffer> encode(Set<Reward> rewards) {
+        try {
+            return Collections.singletonList(Frames.encodeShared(new RewardNotification(new Notification(rewards))));
+        } catch (IOException e) {
+            System.out.println("Exception encoding notification: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Removes a subscriber from the index
+     *
+     * @implNote must be called with the lock acquired
+     *
+     * @param s the subscriber
+     */
+    private void remove(Subscriber s) {
+        int numberChunks = published.getNumberChunks();
+        if (s.isIndexed()) {
+            for (int i = s.firstRow; i <= s.lastRow; i++) {
+                for (int j = s.firstColumn; j <= s.lastColumn; j++) {
+                    Set<Subscriber> subscribers = byChunk.get(i * numberChunks + j);
+                    if (subscribers != null && subscribers.remove(s) && subscribers.isEmpty())
+                        byChunk.remove(i * numberChunks + j);
+                }
+            }
+        } else {
+            wide.remove(s);
+        }
+        size--;
+    }
+
+    /**
+     * Removes every closed subscriber from the index
+     *
+     * @implNote must be called with the lock acquired
+     */
+    private void sweep() {
+        Set<Subscriber> closed = new HashSet<>();
+        for (Set<Subscriber> subscribers : byChunk.values()) {
+            for (Subscriber s : subscribers) {
+                if (s.subscription.isClosed())
+                    closed.add(s);
+            }
+        }
+        for (Subscriber s : wide) {
+            if (s.subscription.isClosed())
+                closed.add(s);
+        }
+
+        for (Subscriber s : closed)
+            remove(s);
+        addedSinceSweep = 0;
+    }
+}
@@ -0,0 +1,72 @@
+package server;
+
+import common.Location;
+
+import java.util.Random;
+
+/**
+ * The engine tracking which locations rewards should be generated for.
+ *
+ * Rewards go from full locations (with more than one scooter parked) to empty locations (with no
+ * scooter within distance D). The engine keeps track of both, and of which locations changed since
+ * the rewards were last generated, so that only the rewards around those locations need to be replaced.
+ *
+ * @implNote implementations must be thread safe
+ *
+ * @see ServerFacade#generateRewards(int)
+ */
+public interface IRewardEngine extends IScooterListener {
+    /**
+     * Brings the engine up to date with the scooters, before rewards are generated
+     *
+     * @implNote must be called without any chunk locked
+     *
+     * @param scooters the scooters in the map
+     */
+    void refresh(ScooterCollection scooters);
+
+    /**
+     * Gets whether there are no scooters within distance D of the given location
+     * @param x the x coordinate of the location
+     * @param y the y coordinate of the location
+     * @return whether there are no scooters within distance D of the given location
+     */
+    boolean isEmpty(int x, int y);
+
+    /**
+     * Gets whether there is more than one scooter parked in the given location
+     * @param x the x coordinate of the location
+     * @param y the y coordinate of the location
+     * @return whether there is more than one scooter parked in the given location
+     */
+    boolean isFull(int x, int y);
+
+    /**
+     * Picks a random empty location
+     * @param rnd the random number generator
+     * @return a random empty location, or null if there is none
+     */
+    Location randomEmptyLocation(Random rnd);
+
+    /**
+     * Marks a location as changed, so that its reward is generated again
+     * @param x the x coordinate of the location
+     * @param y the y coordinate of the location
+     */
+    void invalidate(int x, int y);
+
+    /**
+     * Gets (and forgets) all locations whose number of scooters changed, or which were invalidated,
+     * since the last call
+     * @return the packed coordinates of the changed locations
+     *
+     * @see Location#pack(int, int)
+     */
+    long[] drainChangedLocations();
+
+    /**
+     * Gets (and forgets) whether any empty location stopped being empty since the last call
+     * @return whether any empty location stopped being empty since the last call
+     */
+    boolean drainEmptyLocationsLost();
+}
@@ -0,0 +1,23 @@
+package server;
+
+/**
+ * A functional interface for objects which need to be told about every change to the scooters
+ * parked in the map.
+ *
+ * @see ScooterCollection
+ */
+@FunctionalInterface
+public interface IScooterListener {
+    /**
+     * Called whenever the number of scooters parked in a location changes
+     *
+     * @implNote called with the chunk containing the location write-locked, so implementations
+     * should be quick and must not lock any chunk
+     *
+     * @param x the x coordinate of the location
+     * @param y the y coordinate of the location
+     * @param delta the change in the number of scooters parked in the location
+     * @param count the new number of scooters parked in the location
+     */
+    void scootersChanged(int x, int y, int delta, int count);
+}
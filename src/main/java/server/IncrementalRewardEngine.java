@@ -0,0 +1,305 @@
+package server;
+
+import common.Location;
+import utils.LongIntHashMap;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A reward engine kept up to date with every change to the scooters.
+ *
+ * For each location, the engine stores how many scooters there are within distance D of it (its coverage).
+ * When the number of scooters in a location changes, only the coverage of the locations within distance D
+ * of it is updated, and the locations becoming (or ceasing to be) empty are known right away, without
+ * ever having to search the whole map.
+ *
+ * Changes to the scooters are only recorded when they happen (with the chunk locked), and applied when the
+ * engine is refreshed, so reservations in different chunks never wait on each other (nor on the engine).
+ *
+ * The coverage is stored for every location of the map (N * N integers, as in {@link DistanceMapRewardEngine});
+ * only the full locations and the changed ones are stored in sparse sets. Each change to the scooters updates
+ * the coverage of the locations within distance D of it, in O(D * D) time.
+ */
+public class IncrementalRewardEngine implements IRewardEngine {
+    /**
+     * A change to the number of scooters parked in a location
+     */
+    private static final class Change {
+        /**
+         * The (packed) location
+         */
+        private final long location;
+
+        /**
+         * The change in the number of scooters
+         */
+        private final int delta;
+
+        /**
+         * The new number of scooters
+         */
+        private final int count;
+
+        /**
+         * Parameterized constructor
+         * @param location the (packed) location
+         * @param delta the change in the number of scooters
+         * @param count the new number of scooters
+         */
+        private Change(long location, int delta, int count) {
+            this.location = location;
+            this.delta = delta;
+            this.count = count;
+        }
+    }
+
+    /**
+     * The number of random locations tried when picking an empty location, before counting them
+     */
+    private static final int randomAttempts = 16;
+
+    /**
+     * The size of the map
+     */
+    private final int n;
+
+    /**
+     * The maximum distance of a scooter to a location for it not to be empty
+     */
+    private final int d;
+
+    /**
+     * The number of scooters within distance D of each location (x * N + y)
+     */
+    private final int[] coverage;
+
+    /**
+     * The number of locations with scooters within distance D
+     */
+    private long numberCovered;
+
+    /**
+     * The number of locations with scooters within distance D in each row (x coordinate)
+     */
+    private final int[] coveredPerRow;
+
+    /**
+     * The (packed) locations with more than one scooter parked
+     */
+    private final LongIntHashMap fullLocations;
+
+    /**
+     * The (packed) locations changed since the last call to {@link #drainChangedLocations()}
+     */
+    private final LongIntHashMap changedLocations;
+
+    /**
+     * The changes to the scooters not yet applied, in the order they happened
+     */
+    private final ConcurrentLinkedQueue<Change> pending;
+
+    /**
+     * Whether an empty location stopped being empty since the last call to {@link #drainEmptyLocationsLost()}
+     */
+    private boolean emptyLocationsLost;
+
+    /**
+     * The lock protecting the state of the engine (except the pending changes)
+     */
+    private final ReentrantLock lock;
+
+    /**
+     * Parameterized constructor
+     *
+     * @implNote every full location starts as changed, so that all rewards are generated the first time
+     *
+     * @param scooters all scooters in the map ((packed) location and number of scooters per location)
+     *
+     * @see ScooterCollection#getAllScooters()
+     */
+    public IncrementalRewardEngine(LongIntHashMap scooters) {
+        n = ServerFacade.N;
+        d = ServerFacade.D;
+        coverage = new int[n * n];
+        numberCovered = 0;
+        coveredPerRow = new int[n];
+        fullLocations = new LongIntHashMap();
+        changedLocations = new LongIntHashMap();
+        pending = new ConcurrentLinkedQueue<>();
+        lock = new ReentrantLock();
+
+        scooters.forEach((location, count) -> {
+            updateCoverage(Location.unpackX(location), Location.unpackY(location), count);
+            if (count > 1) {
+                fullLocations.put(location, 0);
+                changedLocations.put(location, 0);
+            }
+        });
+        emptyLocationsLost = false;
+    }
+
+    /**
+     * Applies every change to the scooters recorded since the last refresh
+     * @param scooters the scooters in the map
+     */
+    @Override
+    public void refresh(ScooterCollection scooters) {
+        lock.lock();
+        try {
+            Change c;
+            while ((c = pending.poll()) != null) {
+                if (c.count > 1)
+                    fullLocations.put(c.location, 0);
+                else
+                    fullLocations.remove(c.location);
+
+                changedLocations.put(c.location, 0);
+                updateCoverage(Location.unpackX(c.location), Location.unpackY(c.location), c.delta);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a change to the scooters, to be applied on the next refresh
+     *
+     * @implNote the chunk of the location is locked, so the changes of each location are recorded in order
+     */
+    @Override
+    public void scootersChanged(int x, int y, int delta, int count) {
+        pending.add(new Change(Location.pack(x, y), delta, count));
+    }
+
+    @Override
+    public boolean isEmpty(int x, int y) {
+        lock.lock();
+        try {
+            return coverage[x * n + y] == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isFull(int x, int y) {
+        lock.lock();
+        try {
+            return fullLocations.containsKey(Location.pack(x, y));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Picks a random empty location
+     *
+     * @implNote random locations are tried first, which rarely fails unless almost the whole map is covered.
+     * Otherwise the empty locations are counted per row, in time linear in N
+     *
+     * @param rnd the random number generator
+     * @return a random empty location, or null if there is none
+     */
+    @Override
+    public Location randomEmptyLocation(Random rnd) {
+        lock.lock();
+        try {
+            long numberEmpty = (long) n * n - numberCovered;
+            if (numberEmpty == 0)
+                return null;
+
+            for (int i = 0; i < randomAttempts; i++) {
+                int x = rnd.nextInt(n), y = rnd.nextInt(n);
+                if (coverage[x * n + y] == 0)
+                    return new Location(x, y);
+            }
+
+            long k = (long) (rnd.nextDouble() * numberEmpty);
+            for (int x = 0; x < n; x++) {
+                int emptyInRow = n - coveredPerRow[x];
+                if (k >= emptyInRow) {
+                    k -= emptyInRow;
+                    continue;
+                }
+
+                for (int y = 0; y < n; y++) {
+                    if (coverage[x * n + y] == 0 && k-- == 0)
+                        return new Location(x, y);
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidate(int x, int y) {
+        lock.lock();
+        try {
+            changedLocations.put(Location.pack(x, y), 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long[] drainChangedLocations() {
+        lock.lock();
+        try {
+            long[] ans = new long[changedLocations.size()];
+            int[] i = {0};
+            changedLocations.forEach((location, ignored) -> ans[i[0]++] = location);
+
+            changedLocations.clear();
+            return ans;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean drainEmptyLocationsLost() {
+        lock.lock();
+        try {
+            boolean ans = emptyLocationsLost;
+            emptyLocationsLost = false;
+            return ans;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Updates the coverage of every location within distance D of the given one
+     *
+     * @implNote must be called with the lock held (or during construction)
+     *
+     * @param x the x coordinate of the location whose number of scooters changed
+     * @param y the y coordinate of the location whose number of scooters changed
+     * @param delta the change in the number of scooters
+     */
+    private void updateCoverage(int x, int y, int delta) {
+        if (delta == 0)
+            return;
+
+        for (int i = Math.max(0, x - d); i <= Math.min(n - 1, x + d); i++) {
+            int range = d - Math.abs(i - x);
+            for (int j = Math.max(0, y - range); j <= Math.min(n - 1, y + range); j++) {
+                int before = coverage[i * n + j];
+                coverage[i * n + j] += delta;
+
+                if (before == 0) {
+                    numberCovered++;
+                    coveredPerRow[i]++;
+                    emptyLocationsLost = true;
+                } else if (before + delta == 0) {
+                    numberCovered--;
+                    coveredPerRow[i]--;
+                }
+            }
+        }
+    }
+}
@@ -1,33 +1,47 @@
 package server;
 
-import common.messages.Message;
-import server.messageHandling.LoginRequestHandler;
-import common.ClassLoader;
+import common.TaggedConnection;
+import common.Threads;
+import utils.Options;
 
 import java.io.IOException;
-import java.util.Arrays;
 
 /**
  * Main server entry point
  */
 public class Main {
     /**
-     * Load the needed classes.
-     * @see Message
+     * The names of the options the server takes, after N, D and SCOOTERS
      */
-    private static void loadClasses() {
-        ClassLoader.loadClasses(Message.class.getPackage().getName(),
-                Arrays.asList(new String[]{"Message", "Exception"}));
-        ClassLoader.loadClasses(LoginRequestHandler.class.getPackage().getName(), Arrays.asList("IMessageHandler"));
-    }
+    private static final String[] optionNames = {
+            "mode", "engine", "reward-interval", "reward-staleness", "in-flight", "retained", "slow-policy",
+            "batch-size", "batch-latency", "stats-interval"
+    };
 
     /**
      * Main server entry point
      *
-     * @params args Ignored
+     * @params args N, D and SCOOTERS, optionally followed by any of these options (as --name=value):
+     * <ul>
+     *     <li>mode: "threads" (a thread per client, the default), "virtual" (a virtual thread per client)
+     *     or "nio" (non-blocking event loops)</li>
+     *     <li>engine: the reward engine, "incremental" (the default) or "distancemap"</li>
+     *     <li>reward-interval: the time (in milliseconds) rewards generation waits for triggers to quiet
+     *     down (0, the default, to generate them right away)</li>
+     *     <li>reward-staleness: the maximum time (in milliseconds) rewards generation waits (1000 by default)</li>
+     *     <li>in-flight: the maximum number of requests of each client processed concurrently (16 by default)</li>
+     *     <li>retained: the maximum number of notifications a subscriber may lag behind (64 by default)</li>
+     *     <li>slow-policy: what to do with the subscribers lagging further: "conflate" (send only the latest,
+     *     the default), "drop" (drop the oldest) or "disconnect"</li>
+     *     <li>batch-size: the maximum number of frames written to a client at once (64 by default), in the
+     *     blocking modes</li>
+     *     <li>batch-latency: the maximum time (in microseconds) a frame to a client waits for others to fill
+     *     its batch (0, the default, to write it right away), in the blocking modes</li>
+     *     <li>stats-interval: every how many milliseconds to print the number of frames written per write
+     *     (0, the default, to never print it), in the blocking modes</li>
+     * </ul>
      */
     public static void main(String[] args) throws IOException {
-        loadClasses();
         int n, d, scooters;
         try {
             n = Integer.valueOf(args[0]);
@@ -38,12 +52,56 @@ public class Main {
             return;
         }
 
+        String mode, engine, slowPolicy;
+        long interval, staleness, retained, batchLatency, statisticsInterval;
+        int inFlight, batchSize;
+        try {
+            Options options = new Options(args, 3, optionNames);
+            mode = options.get("mode", "threads", "threads", "virtual", "nio");
+            engine = options.get("engine", "incremental", "incremental", "distancemap");
+            interval = options.getLong("reward-interval", 0, 0, Long.MAX_VALUE);
+            staleness = options.getLong("reward-staleness", 1000, 0, Long.MAX_VALUE);
+            inFlight = (int) options.getLong("in-flight", RequestPipeline.defaultMaximumInFlight, 1, Integer.MAX_VALUE);
+            retained = options.getLong("retained", RewardCollection.defaultRetainedNotifications, 1, Long.MAX_VALUE);
+            slowPolicy = options.get("slow-policy", "conflate", "conflate", "drop", "disconnect");
+            batchSize = (int) options.getLong("batch-size", TaggedConnection.defaultMaximumBatchSize, 1, 1 << 16);
+            batchLatency = options.getLong("batch-latency", 0, 0, 1000000);
+            statisticsInterval = options.getLong("stats-interval", 0, 0, Long.MAX_VALUE);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid arguments: " + e.getMessage());
+            return;
+        }
+
+        SubscribableQueue.Policy policy;
+        if(slowPolicy.equals("conflate"))
+            policy = SubscribableQueue.Policy.CONFLATE;
+        else if(slowPolicy.equals("drop"))
+            policy = SubscribableQueue.Policy.DROP_OLDEST;
+        else
+            policy = SubscribableQueue.Policy.DISCONNECT;
+
+        if(mode.equals("virtual")) {
+            if(!Threads.virtualThreadsSupported()) {
+                System.out.println("Virtual threads are not supported by this JVM (requires JDK 21 or newer). Terminating");
+                return;
+            }
+            Threads.useVirtualThreads();
+        }
+
         if(d == 0 || n % (2*d) != 0) {
             System.out.println("Invalid arguments: 2*D must be a divisor of N");
             return;
         }
 
-        Server server = new Server(n, d, scooters);
-        server.start(20023);
+        Server server = new Server(n, d, scooters, engine.equals("distancemap"));
+        server.setRewardSchedule(interval, staleness);
+        server.setMaximumInFlight(inFlight);
+        server.setNotificationRetention(retained, policy);
+        server.setBatching(batchSize, batchLatency);
+        server.setStatisticsInterval(statisticsInterval);
+        if(mode.equals("nio"))
+            server.startNonBlocking(20023, Runtime.getRuntime().availableProcessors());
+        else
+            server.start(20023);
     }
 }
@@ -0,0 +1,292 @@
+package server;
+
+import common.BufferPool;
+import common.Frames;
+import common.ITaggedConnection;
+import common.TaggedConnection;
+import common.messages.Message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * A tagged connection over a non-blocking socket channel, served by an {@link EventLoop}.
+ *
+ * Incoming bytes are accumulated in a buffer and parsed into frames as soon as they are complete.
+ * Outgoing messages are written directly if the socket can take them, and otherwise queued until
+ * the event loop reports the channel as writable. All queued buffers are then written with a single
+ * gathering write.
+ *
+ * @see TaggedConnection
+ * @see Frames
+ */
+public class NioConnection implements ITaggedConnection {
+    /**
+     * The initial size of the input buffer
+     */
+    private static final int initialBufferSize = 4096;
+
+    /**
+     * The underlying channel
+     */
+    private final SocketChannel channel;
+
+    /**
+     * The event loop serving the channel
+     */
+    private final EventLoop loop;
+
+    /**
+     * The bytes received and not yet parsed into frames. Always in write mode between reads
+     */
+    private ByteBuffer input;
+
+    /**
+     * The headers and payloads waiting for the channel to be writable. Payloads are pooled buffers
+     */
+    private final Queue<ByteBuffer> output;
+
+    /**
+     * The lock to synchronize sending messages
+     */
+    private final ReentrantLock sendLock;
+
+    /**
+     * Whether the connection has been closed
+     */
+    private boolean closed;
+
+    /**
+     * Run by the event loop whenever it finishes writing the queued messages (null if there is nothing to run)
+     */
+    private volatile Runnable onDrained;
+
+    /**
+     * Parameterized constructor
+     * @param channel the (non-blocking) channel to base the connection around
+     * @param loop the event loop serving the channel
+     */
+    public NioConnection(SocketChannel channel, EventLoop loop) {
+        this.channel = channel;
+        this.loop = loop;
+        this.input = ByteBuffer.allocate(initialBufferSize);
+        this.output = new ArrayDeque<>();
+        this.sendLock = new ReentrantLock();
+        this.closed = false;
+    }
+
+    /**
+     * Gets the underlying channel
+     * @return the underlying channel
+     */
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Sets what to run whenever the event loop finishes writing the queued messages (after the channel
+     * could not take them right away)
+     * @param action what to run, in the thread of the event loop
+     */
+    public void setOnDrained(Runnable action) {
+        this.onDrained = action;
+    }
+
+    /**
+     * Gets whether there are messages waiting for the channel to be writable
+     * @return whether there are messages waiting for the channel to be writable
+     */
+    public boolean hasPendingOutput() {
+        sendLock.lock();
+        try {
+            return !output.isEmpty();
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Send a message with the given tag
+     *
+     * @implNote Thread safe. Never blocks on the socket: if it cannot take the whole message,
+     * the remainder is handed over to the event loop
+     *
+     * @param tag the given tag
+     * @param message the message to send
+     * @throws IOException if sending the message failed
+     */
+    @Override
+    public void send(int tag, Message message) throws IOException {
+        enqueue(tag, Frames.encode(message));
+    }
+
+    /**
+     * Send an already encoded message with the given tag
+     *
+     * @implNote Thread safe. Only a read-only view of the payload is written, so the payload itself is never
+     * changed nor released
+     *
+     * @param tag the given tag
+     * @param payload the encoded message, ready to be read
+     * @throws IOException if sending the message failed
+     */
+    @Override
+    public void send(int tag, ByteBuffer payload) throws IOException {
+        enqueue(tag, payload.asReadOnlyBuffer());
+    }
+
+    /**
+     * Writes a frame right away if nothing else is queued, handing over to the event loop whatever the
+     * socket does not take
+     * @param tag the tag of the frame
+     * @param payload the payload of the frame, released once written (unless read-only)
+     * @throws IOException if sending the frame failed
+     */
+    private void enqueue(int tag, ByteBuffer payload) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(Frames.headerSize);
+        Frames.writeHeader(header, tag, payload.remaining());
+        header.flip();
+
+        sendLock.lock();
+        try {
+            if (closed) {
+                BufferPool.release(payload);
+                throw new IOException("Connection closed");
+            }
+
+            if (output.isEmpty()) {
+                channel.write(new ByteBuffer[]{ header, payload });
+                if (!payload.hasRemaining()) {
+                    BufferPool.release(payload);
+                    return;
+                }
+            }
+
+            output.add(header);
+            output.add(payload);
+        } finally {
+            sendLock.unlock();
+        }
+
+        loop.requestWrite(this);
+    }
+
+    /**
+     * Reads the available bytes from the channel, handing every complete frame over to a consumer until it
+     * can take no more. The frames left are kept, and handed over first on the next call
+     *
+     * @implNote Should only be called by the event loop
+     *
+     * @param consumer takes a frame, telling whether it can take more
+     * @return whether the connection is still open (false if the client closed it)
+     * @throws IOException if reading from the channel failed
+     */
+    boolean read(Predicate<TaggedConnection.Frame> consumer) throws IOException {
+        if (!parse(consumer))
+            return true;
+
+        while (true) {
+            int n = channel.read(input);
+            if (n < 0)
+                return false;
+            if (n == 0 || !parse(consumer))
+                return true;
+        }
+    }
+
+    /**
+     * Writes as many of the queued messages as the channel can take
+     *
+     * @implNote Should only be called by the event loop
+     *
+     * @return whether all queued messages were written
+     * @throws IOException if writing to the channel failed
+     */
+    boolean flush() throws IOException {
+        boolean drained;
+        sendLock.lock();
+        try {
+            if (output.isEmpty())
+                return true;
+
+            channel.write(output.toArray(new ByteBuffer[0]));
+
+            while (!output.isEmpty() && !output.peek().hasRemaining())
+                BufferPool.release(output.poll());
+
+            drained = output.isEmpty();
+        } finally {
+            sendLock.unlock();
+        }
+
+        //Run without the lock, as it may send more messages
+        Runnable r = onDrained;
+        if (drained && r != null)
+            r.run();
+        return drained;
+    }
+
+    /**
+     * Parses the complete frames in the input buffer, until the consumer can take no more, keeping the
+     * bytes of the rest
+     * @param consumer takes a frame, telling whether it can take more
+     * @return whether the consumer can take more frames
+     * @throws IOException if the bytes received are not a valid frame
+     */
+    private boolean parse(Predicate<TaggedConnection.Frame> consumer) throws IOException {
+        input.flip();
+
+        boolean more = true;
+        while (more && input.remaining() >= Frames.headerSize) {
+            ByteBuffer header = input.duplicate();
+            int size = Frames.readPayloadSize(header);
+            int tag = header.getInt();
+
+            if (input.remaining() < Frames.headerSize + size) {
+                //Frame not yet complete: make sure it will fit in the buffer
+                if (input.capacity() < Frames.headerSize + size) {
+                    ByteBuffer bigger = ByteBuffer.allocate(Frames.headerSize + size);
+                    bigger.put(input);
+                    input = bigger;
+                    return true;
+                }
+                break;
+            }
+
+            ByteBuffer payload = input.slice();
+            payload.position(Frames.headerSize);
+            payload.limit(Frames.headerSize + size);
+            TaggedConnection.Frame frame = Frames.decode(tag, payload);
+
+            input.position(input.position() + Frames.headerSize + size);
+            more = consumer.test(frame);
+        }
+
+        input.compact();
+        return more;
+    }
+
+    /**
+     * Closes the connection
+     * @throws IOException if closing the connection failed
+     */
+    @Override
+    public void close() throws IOException {
+        sendLock.lock();
+        try {
+            closed = true;
+            for (ByteBuffer b : output)
+                BufferPool.release(b);
+            output.clear();
+        } finally {
+            sendLock.unlock();
+        }
+
+        channel.close();
+    }
+}
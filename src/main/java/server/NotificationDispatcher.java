@@ -0,0 +1,191 @@
+package server;
+
+import common.ITaggedConnection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pushes reward notifications to every subscribed client from a single thread.
+ *
+ * In the non-blocking server, sending a message only enqueues it in the connection, so there is no
+ * need for a thread per subscriber: this class keeps its own subscription to the notification queue
+ * just to be woken up, and then drains the (non-blocking) subscriptions of every registered client.
+ *
+ * A client whose connection still has messages waiting for the socket gets no more notifications until
+ * they are written: the rest stay in its subscription, which keeps at most as many as the notification queue
+ * retains.
+ *
+ * Runs in its own thread
+ */
+public class NotificationDispatcher implements Runnable {
+    /**
+     * A client subscribed to notifications
+     */
+    private static class Target {
+        /**
+         * The subscription of the client
+         */
+        private final SubscribableQueue<List<ByteBuffer>>.Subscription subscription;
+
+        /**
+         * The tag to send the notifications with
+         */
+        private final int tag;
+
+        /**
+         * The connection to the client
+         */
+        private final ITaggedConnection connection;
+
+        /**
+         * Parameterized constructor
+         * @param subscription the subscription of the client
+         * @param tag the tag to send the notifications with
+         * @param connection the connection to the client
+         */
+        private Target(SubscribableQueue<List<ByteBuffer>>.Subscription subscription, int tag,
+                       ITaggedConnection connection) {
+            this.subscription = subscription;
+            this.tag = tag;
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * The subscription used only to be woken up when new notifications are pushed
+     */
+    private final SubscribableQueue<List<ByteBuffer>>.Subscription wakeups;
+
+    /**
+     * All the clients subscribed to notifications, in the order they subscribed
+     */
+    private final Set<Target> targets;
+
+    /**
+     * The lock to synchronize the targets. Notifications are also sent with this lock acquired,
+     * so that the notifications of a client are never sent out of order
+     */
+    private final Lock lock;
+
+    /**
+     * Parameterized constructor
+     * @param facade the server facade
+     */
+    public NotificationDispatcher(ServerFacade facade) {
+        this.wakeups = facade.getRewardSubscription(SubscribableQueue.Policy.CONFLATE);
+        this.targets = new LinkedHashSet<>();
+        this.lock = new ReentrantLock();
+    }
+
+    /**
+     * Registers a client to receive the notifications of the given subscription.
+     * Closing the subscription unregisters the client
+     * @param subscription the subscription of the client
+     * @param tag the tag to send the notifications with
+     * @param connection the connection to the client
+     */
+    public void register(SubscribableQueue<List<ByteBuffer>>.Subscription subscription, int tag,
+                         ITaggedConnection connection) {
+        register(subscription, tag, connection, null);
+    }
+
+    /**
+     * Registers a client to receive the notifications of the given subscription, after a first one.
+     * Closing the subscription unregisters the client
+     * @param subscription the subscription of the client
+     * @param tag the tag to send the notifications with
+     * @param connection the connection to the client
+     * @param initial the notification to send before the ones of the subscription (null if none)
+     */
+    public void register(SubscribableQueue<List<ByteBuffer>>.Subscription subscription, int tag,
+                         ITaggedConnection connection, List<ByteBuffer> initial) {
+        Target t = new Target(subscription, tag, connection);
+        if (connection instanceof NioConnection)
+            ((NioConnection) connection).setOnDrained(() -> retry(t));
+
+        lock.lock();
+        try {
+            targets.add(t);
+            if (initial != null)
+                send(connection, tag, initial);
+            //Notifications may have been pushed between subscribing and registering
+            deliver(t);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the notifications held back from a client, once its connection caught up
+     * @param t the client
+     */
+    private void retry(Target t) {
+        lock.lock();
+        try {
+            if (targets.contains(t) && !deliver(t))
+                targets.remove(t);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        for (List<ByteBuffer> ignored : wakeups) {
+            lock.lock();
+            try {
+                Iterator<Target> it = targets.iterator();
+                while (it.hasNext()) {
+                    if (!deliver(it.next()))
+                        it.remove();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Sends all pending notifications of a client
+     * @param t the client
+     * @return whether the client is still subscribed
+     */
+    private boolean deliver(Target t) {
+        List<ByteBuffer> n;
+        while (!isBacklogged(t) && (n = t.subscription.poll()) != null)
+            send(t.connection, t.tag, n);
+
+        return !t.subscription.isClosed();
+    }
+
+    /**
+     * Sends every frame of a notification, in order
+     * @param connection the connection to the client
+     * @param tag the tag to send the notification with
+     * @param frames the frames of the notification
+     */
+    public static void send(ITaggedConnection connection, int tag, List<ByteBuffer> frames) {
+        try {
+            for (ByteBuffer f : frames)
+                connection.send(tag, f);
+        } catch (IOException e) {
+            System.out.println("Exception sending notification: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks whether the connection of a client still has messages waiting for the socket
+     * @param t the client
+     * @return whether the connection of the client still has messages waiting for the socket
+     */
+    private boolean isBacklogged(Target t) {
+        return t.connection instanceof NioConnection && ((NioConnection) t.connection).hasPendingOutput();
+    }
+}
@@ -0,0 +1,272 @@
+package server;
+
+import common.Frames;
+import common.TaggedConnection;
+import common.messages.Message;
+import common.messages.ResponseTooLargeResponse;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Processes the requests of a connection concurrently.
+ *
+ * Requests with different tags are independent, and are processed in parallel by a pool of workers.
+ * Requests with the same tag are processed (and answered) in the order they arrived. At most a given
+ * number of requests of a connection are in flight (received and not yet answered) at any time: the
+ * reader of the connection must stop reading until there is capacity again (the frames it had already
+ * parsed are still accepted, going over the limit).
+ *
+ * Shared by the blocking and non-blocking servers.
+ *
+ * @see ClientHandler#processMessage(ServerFacade, TaggedConnection.Frame, ClientHandler.State)
+ */
+public class RequestPipeline {
+    /**
+     * The default maximum number of requests in flight per connection
+     */
+    public static final int defaultMaximumInFlight = 16;
+
+    /**
+     * The server facade
+     */
+    private final ServerFacade facade;
+
+    /**
+     * The state of the connection
+     */
+    private final ClientHandler.State state;
+
+    /**
+     * The workers processing the requests
+     */
+    private final Executor workers;
+
+    /**
+     * The maximum number of requests in flight
+     */
+    private final int maximumInFlight;
+
+    /**
+     * The requests in flight for each tag, in order of arrival. The first one of each is being processed
+     * (or waiting for a worker)
+     */
+    private final Map<Integer, Queue<TaggedConnection.Frame>> tags;
+
+    /**
+     * The tags whose first request is waiting for a worker
+     */
+    private final Queue<Integer> readyTags;
+
+    /**
+     * The number of requests being processed
+     */
+    private int running;
+
+    /**
+     * The number of requests in flight
+     */
+    private int inFlight;
+
+    /**
+     * Called (without the lock held) when the pipeline regains capacity after being full (null if none)
+     */
+    private Runnable onCapacity;
+
+    /**
+     * The lock protecting the pipeline
+     */
+    private final ReentrantLock lock;
+
+    /**
+     * Signalled when the pipeline regains capacity
+     */
+    private final Condition capacity;
+
+    /**
+     * Parameterized constructor
+     * @param facade the server facade
+     * @param state the state of the connection
+     * @param workers the workers processing the requests
+     * @param maximumInFlight the maximum number of requests in flight (1 to process them one at a time)
+     */
+    public RequestPipeline(ServerFacade facade, ClientHandler.State state, Executor workers, int maximumInFlight) {
+        this.facade = facade;
+        this.state = state;
+        this.workers = workers;
+        this.maximumInFlight = maximumInFlight;
+        this.tags = new HashMap<>();
+        this.readyTags = new ArrayDeque<>();
+        this.running = 0;
+        this.inFlight = 0;
+        this.onCapacity = null;
+        this.lock = new ReentrantLock();
+        this.capacity = lock.newCondition();
+    }
+
+    /**
+     * Sets the method called when the pipeline regains capacity after being full
+     * @param onCapacity the method (called without any lock held)
+     */
+    public void setOnCapacity(Runnable onCapacity) {
+        lock.lock();
+        try {
+            this.onCapacity = onCapacity;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Accepts a request, processing it as soon as a worker is free and every earlier request with
+     * the same tag was answered
+     *
+     * @implNote never blocks. The caller should stop reading requests while the pipeline is full
+     *
+     * @param frame the request
+     * @return whether the pipeline can take more requests
+     */
+    public boolean submit(TaggedConnection.Frame frame) {
+        Integer tag = null;
+
+        lock.lock();
+        try {
+            inFlight++;
+
+            Queue<TaggedConnection.Frame> q = tags.get(frame.getTag());
+            if (q == null) {
+                q = new ArrayDeque<>();
+                tags.put(frame.getTag(), q);
+                q.add(frame);
+
+                if (running < maximumInFlight) {
+                    running++;
+                    tag = frame.getTag();
+                } else {
+                    readyTags.add(frame.getTag());
+                }
+            } else {
+                q.add(frame);
+            }
+
+            return inFlight < maximumInFlight;
+        } finally {
+            lock.unlock();
+            if (tag != null)
+                start(tag);
+        }
+    }
+
+    /**
+     * Waits until the pipeline can take more requests
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public void awaitCapacity() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inFlight >= maximumInFlight)
+                capacity.await();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends a response. A response too large for a frame is replaced by a {@link ResponseTooLargeResponse},
+     * so that the client is never left waiting
+     * @param tag the tag of the request
+     * @param response the response
+     * @throws IOException if sending the response failed
+     */
+    private void send(int tag, Message response) throws IOException {
+        try {
+            state.connection.send(tag, response);
+        } catch (Frames.TooLargeException e) {
+            System.out.println("Response too large: " + response.getClass().getSimpleName());
+            state.connection.send(tag, new ResponseTooLargeResponse());
+        }
+    }
+
+    /**
+     * Closes the connection to the client
+     */
+    private void close() {
+        try {
+            state.close();
+        } catch (IOException e) {
+            System.out.println("Error closing connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts processing the first request of a tag
+     * @param tag the tag
+     */
+    private void start(int tag) {
+        workers.execute(() -> process(tag));
+    }
+
+    /**
+     * Processes the first request of a tag, and then hands the worker over to the next ready tag
+     * @param tag the tag
+     */
+    private void process(int tag) {
+        TaggedConnection.Frame frame;
+        lock.lock();
+        try {
+            frame = tags.get(tag).peek();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            Message response = ClientHandler.processMessage(facade, frame, state);
+            if (response != null)
+                send(tag, response);
+        } catch (IOException e) {
+            //The client would otherwise wait for the response forever
+            System.out.println("Error sending response: " + e.getMessage());
+            close();
+        } catch (RuntimeException e) {
+            System.out.println("Error processing client message: " + e);
+            close();
+        }
+
+        Integer next = null;
+        Runnable callback = null;
+
+        lock.lock();
+        try {
+            Queue<TaggedConnection.Frame> q = tags.get(tag);
+            q.poll();
+            if (q.isEmpty())
+                tags.remove(tag);
+            else
+                readyTags.add(tag);
+
+            //Round robin amongst the tags, so that a busy tag does not starve the others
+            next = readyTags.poll();
+            if (next == null)
+                running--;
+
+            inFlight--;
+            if (inFlight == maximumInFlight - 1) {
+                capacity.signalAll();
+                callback = onCapacity;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (next != null)
+            start(next);
+        if (callback != null)
+            callback.run();
+    }
+}
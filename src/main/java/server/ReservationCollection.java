@@ -3,23 +3,40 @@ package server;
 import common.Reservation;
 
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A collection of scooter reservations
+ *
+ * @implNote thread safe without any external locking: identifiers come from an atomic sequence and
+ * reservations are stored in a concurrent map, so reservations never wait for one another
  */
-public class ReservationCollection extends LockableCollection {
+public class ReservationCollection {
     /**
      * All reservations indexed by the identifier
      */
-    private Map<Integer, Reservation> reservations;
+    private final Map<Integer, Reservation> reservations;
+
+    /**
+     * The identifier of the next reservation
+     */
+    private final AtomicInteger nextId;
 
     /**
      * Default constructor
      */
     public ReservationCollection() {
-        super();
-        reservations = new TreeMap<>();
+        reservations = new ConcurrentHashMap<>();
+        nextId = new AtomicInteger(0);
+    }
+
+    /**
+     * Gets a new (unique) reservation identifier
+     * @return the new reservation identifier
+     */
+    public int nextId() {
+        return nextId.getAndIncrement();
     }
 
     /**
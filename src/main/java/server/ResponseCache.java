@@ -0,0 +1,240 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * A bounded cache of encoded responses to area queries, evicting the least recently used ones.
+ *
+ * Each response is stored with the versions of the chunks it was computed from, and is only reused while
+ * none of them changed: results stay exact, and there is no need to invalidate anything when the
+ * scooters change.
+ *
+ * @implNote Thread safe. The lock is only held to look entries up and to store them, never while
+ * computing or encoding a response
+ *
+ * @see Chunk#getVersion()
+ */
+public class ResponseCache {
+    /**
+     * The identification of a query
+     */
+    public static final class Key {
+        /**
+         * The (packed) location of the query
+         */
+        private final long location;
+
+        /**
+         * The kind of response (such as its encoding)
+         */
+        private final int variant;
+
+        /**
+         * Parameterized constructor
+         * @param location the (packed) location of the query
+         * @param variant the kind of response (such as its encoding)
+         */
+        public Key(long location, int variant) {
+            this.location = location;
+            this.variant = variant;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+
+            Key k = (Key) o;
+            return location == k.location && variant == k.variant;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(location) * 31 + variant;
+        }
+    }
+
+    /**
+     * A cached response
+     */
+    private static final class Entry {
+        /**
+         * The versions of the chunks the response was computed from
+         */
+        private final long[] versions;
+
+        /**
+         * The encoded response
+         */
+        private final ByteBuffer response;
+
+        /**
+         * Parameterized constructor
+         * @param versions the versions of the chunks the response was computed from
+         * @param response the encoded response
+         */
+        private Entry(long[] versions, ByteBuffer response) {
+            this.versions = versions;
+            this.response = response;
+        }
+    }
+
+    /**
+     * The default maximum number of cached responses
+     */
+    public static final int defaultMaximumEntries = 4096;
+
+    /**
+     * The default maximum total size of the cached responses (in bytes)
+     */
+    public static final long defaultMaximumBytes = 32L << 20;
+
+    /**
+     * The cached responses, from the least to the most recently used
+     */
+    private final LinkedHashMap<Key, Entry> entries;
+
+    /**
+     * The maximum number of cached responses
+     */
+    private final int maximumEntries;
+
+    /**
+     * The maximum total size of the cached responses (in bytes)
+     */
+    private final long maximumBytes;
+
+    /**
+     * The total size of the cached responses (in bytes)
+     */
+    private long bytes;
+
+    /**
+     * The number of lookups which found a valid response
+     */
+    private final AtomicLong hits;
+
+    /**
+     * The number of lookups which did not find a valid response
+     */
+    private final AtomicLong misses;
+
+    /**
+     * The lock to synchronize the entries
+     */
+    private final ReentrantLock lock;
+
+    /**
+     * Default constructor
+     */
+    public ResponseCache() {
+        this(defaultMaximumEntries, defaultMaximumBytes);
+    }
+
+    /**
+     * Parameterized constructor
+     * @param maximumEntries the maximum number of cached responses
+     * @param maximumBytes the maximum total size of the cached responses (in bytes)
+     */
+    public ResponseCache(int maximumEntries, long maximumBytes) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.maximumEntries = maximumEntries;
+        this.maximumBytes = maximumBytes;
+        this.bytes = 0;
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+        this.lock = new ReentrantLock();
+    }
+
+    /**
+     * Gets a cached response, if still valid. Invalid responses are dropped
+     * @param key the query
+     * @param unchanged tells whether none of the chunks changed since they had the given versions
+     * @return the cached response (null if there is none, or it is no longer valid)
+     */
+    public ByteBuffer get(Key key, Predicate<long[]> unchanged) {
+        Entry e;
+        lock.lock();
+        try {
+            e = entries.get(key);
+        } finally {
+            lock.unlock();
+        }
+
+        if (e != null && unchanged.test(e.versions)) {
+            hits.incrementAndGet();
+            return e.response;
+        }
+
+        misses.incrementAndGet();
+        if (e != null)
+            remove(key, e);
+        return null;
+    }
+
+    /**
+     * Caches a response, evicting the least recently used ones if needed
+     * @param key the query
+     * @param versions the versions of the chunks the response was computed from
+     * @param response the encoded response
+     */
+    public void put(Key key, long[] versions, ByteBuffer response) {
+        if (response.remaining() > maximumBytes)
+            return;
+
+        lock.lock();
+        try {
+            Entry old = entries.put(key, new Entry(versions, response));
+            if (old != null)
+                bytes -= old.response.remaining();
+            bytes += response.remaining();
+
+            Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+            while ((entries.size() > maximumEntries || bytes > maximumBytes) && it.hasNext()) {
+                bytes -= it.next().getValue().response.remaining();
+                it.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of lookups which found a valid response
+     * @return the number of lookups which found a valid response
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups which did not find a valid response
+     * @return the number of lookups which did not find a valid response
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Removes an entry, unless it was replaced meanwhile
+     * @param key the query
+     * @param e the entry
+     */
+    private void remove(Key key, Entry e) {
+        lock.lock();
+        try {
+            if (entries.remove(key, e))
+                bytes -= e.response.remaining();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -1,94 +1,268 @@
 package server;
 
-import common.Notification;
 import common.Reward;
 
+import common.Frames;
 import common.Location;
+import common.messages.RewardDeltaNotification;
+import common.messages.RewardSnapshotNotification;
+import utils.Pair;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The collection of all rewards currently active in the server
+ *
+ * There is at most one reward per start location, so rewards are indexed by it: checking whether
+ * a trip is eligible for a reward, and claiming it, take constant time.
+ *
+ * @implNote the rewards are published as immutable versioned snapshots, swapped atomically. Readers
+ * never block, and writers build the next snapshot without any lock, retrying if another writer
+ * published meanwhile
+ *
+ * @see RewardSnapshot
  */
-public class RewardCollection extends LockableCollection {
+public class RewardCollection {
+    /**
+     * The current snapshot of the rewards
+     */
+    private final AtomicReference<RewardSnapshot> current;
+
+    /**
+     * The default maximum number of notifications a subscriber may lag behind
+     */
+    public static final long defaultRetainedNotifications = 64;
+
+    /**
+     * Every how many notifications of the update queue one holds all the rewards (the others only hold
+     * the changes)
+     */
+    public static final int snapshotInterval = 16;
+
+    /**
+     * The queue of notifications, encoded and ready to be sent to every subscriber. Each notification is sent
+     * as one or more frames, in order
+     */
+    private final SubscribableQueue<List<ByteBuffer>> queue;
+
+    /**
+     * The subscribers to the rewards of an area
+     */
+    private final GeofenceIndex geofences;
+
     /**
-     * All rewards currently active in the server
+     * The rewards last published. Only written by the (single) publisher
      */
-    private final Set<Reward> rewards;
-    private final SubscribableQueue<Notification> queue;
+    private volatile RewardSnapshot lastPublished;
+
+    /**
+     * The number of notifications pushed to the update queue. Only used by the (single) publisher
+     */
+    private long publications;
+
+    /**
+     * The last notification built holding all the rewards, and the snapshot it holds
+     */
+    private volatile Pair<RewardSnapshot, List<ByteBuffer>> snapshotNotification;
+
+    /**
+     * Whether any reward was claimed since the last call to {@link #drainClaimed()}
+     */
+    private final AtomicBoolean claimed;
 
     /**
      * Default constructor
      */
     public RewardCollection() {
-        this.rewards = new HashSet<>();
-        this.queue = new SubscribableQueue<>();
+        this.current = new AtomicReference<>(RewardSnapshot.empty());
+        this.queue = new SubscribableQueue<>(defaultRetainedNotifications, SubscribableQueue.Policy.CONFLATE);
+        //Subscribers which miss a change are sent all the rewards, instead of changes they cannot apply
+        this.queue.setCatchUp(this::getSnapshotNotification);
+        this.claimed = new AtomicBoolean(false);
+        this.geofences = new GeofenceIndex(current.get());
+        this.lastPublished = current.get();
+        this.publications = 0;
+        this.snapshotNotification = null;
     }
 
     /**
-     * Adds the reward to the collection
-     * @param r the reward
+     * Gets the current snapshot of the rewards
+     * @return the current snapshot of the rewards
      */
-    public void add(Reward r) {
-        this.rewards.add(r);
-        this.queue.push(new Notification(r));
+    public RewardSnapshot getSnapshot() {
+        return current.get();
     }
 
+    /**
+     * Gets the reward applicable to a trip
+     * @param start the start location of the trip
+     * @param end the end location of the trip
+     * @return the reward applicable to the trip (null if there is none)
+     */
     public Reward isApplicable(Location start, Location end) {
-        for(Reward r : rewards) {
-            if(r.getStartLocation().equals(start) && r.getEndLocation().equals(end)) {
-                return r;
-            }
-        }
-        return null;
+        Reward r = current.get().get(start);
+        return r != null && r.getEndLocation().equals(end) ? r : null;
     }
 
-    public void remove(Reward r) {
-        this.rewards.remove(r);
+    /**
+     * Atomically removes and adds rewards, publishing a new snapshot
+     * @param removed the start locations of the rewards to remove
+     * @param added the rewards to add (after removing), replacing the ones with the same start location
+     * @return the new snapshot
+     */
+    public RewardSnapshot update(Collection<Location> removed, Collection<Reward> added) {
+        while(true) {
+            RewardSnapshot base = current.get();
+            RewardSnapshot.Builder next = base.edit();
+
+            for(Location l : removed)
+                next.remove(l);
+            for(Reward r : added)
+                next.put(r);
+
+            RewardSnapshot ans = next.build();
+            if(current.compareAndSet(base, ans))
+                return ans;
+        }
     }
 
     /**
-     * Adds all rewards to the collection
-     * @param rs the rewards
+     * Atomically removes a reward, if still active
+     * @param r the reward
+     * @return whether the reward was still active (and is therefore claimed by the caller)
      */
-    public void addAll(Collection<Reward> rs) {
-        if (rs.size() > 0) {
-            this.rewards.addAll(rs);
-            this.queue.push(new Notification(rs));
+    public boolean claim(Reward r) {
+        while(true) {
+            RewardSnapshot base = current.get();
+            if(!r.equals(base.get(r.getStartLocation())))
+                return false;
+
+            if(current.compareAndSet(base, base.edit().remove(r.getStartLocation()).build())) {
+                claimed.set(true);
+                return true;
+            }
         }
     }
 
     /**
-     * Replaces all rewards with the given ones
-     * @param rs the new rewards
+     * Gets (and forgets) whether any reward was claimed since the last call
+     * @return whether any reward was claimed since the last call
      */
-    public void replaceAll(Collection<Reward> rs) {
-        this.rewards.clear();
-        this.addAll(rs);
+    public boolean drainClaimed() {
+        return claimed.getAndSet(false);
     }
 
     /**
-     * Gets the total number of rewards active in the server
-     * @return the total number of rewards active in the server
+     * Notifies the subscribers of the update queue of the changes to the rewards active in the server (and,
+     * periodically, of all of them), and the subscribers to an area of the rewards in it (if they changed).
+     * Nothing is pushed to the update queue if the rewards did not change
+     *
+     * @implNote the notification is serialized once, here, and the same bytes are then sent to every
+     * subscriber (only their headers differ). Changes too large for a frame are replaced by all the rewards,
+     * which are split in as many frames as needed
      */
-    public int size() {
-        return rewards.size();
+    public void publish() {
+        RewardSnapshot snapshot = current.get();
+        RewardSnapshot previous = lastPublished;
+        if (snapshot == previous)
+            return;
+
+        geofences.publish(snapshot);
+        lastPublished = snapshot;
+
+        List<ByteBuffer> m = null;
+        if (++publications % snapshotInterval != 0) {
+            List<Location> removed = new ArrayList<>();
+            List<Reward> added = new ArrayList<>();
+            snapshot.diff(previous, removed, added);
+            try {
+                m = Collections.singletonList(Frames.encodeShared(
+                        new RewardDeltaNotification(previous.getVersion(), snapshot.getVersion(), removed, added)));
+            } catch (IOException e) {
+                System.out.println("Exception encoding changes to the rewards (sending all of them instead): "
+                        + e.getMessage());
+            }
+        }
+
+        if (m == null)
+            m = getSnapshotNotification();
+        if (m != null)
+            this.queue.push(m);
     }
 
     /**
-     * Gets all rewards active in the server
-     * @return all rewards active in the server
+     * Gets the notification holding all the rewards last published, to send to new subscribers before the
+     * changes. It is only built once per snapshot, split in as many parts as needed to fit in frames
+     * @return the frames of the (encoded) notification holding all the rewards last published (null if it
+     * could not be encoded)
      */
-    public Collection<Reward> getRewards() {
-        return new HashSet<>(rewards);
+    public List<ByteBuffer> getSnapshotNotification() {
+        RewardSnapshot snapshot = lastPublished;
+        Pair<RewardSnapshot, List<ByteBuffer>> cached = snapshotNotification;
+        if (cached != null && cached.getFirst() == snapshot)
+            return cached.getSecond();
+
+        List<ByteBuffer> m = new ArrayList<>();
+        try {
+            for (RewardSnapshotNotification part : RewardSnapshotNotification.split(snapshot.getVersion(),
+                    snapshot.getRewards()))
+                m.add(Frames.encodeShared(part));
+        } catch (IOException e) {
+            //Parts always fit in a frame, so subscribers would be left out of sync for good
+            System.out.println("Error: could not encode all the rewards, subscribers will not be notified: "
+                    + e.getMessage());
+            return null;
+        }
+
+        m = Collections.unmodifiableList(m);
+        snapshotNotification = new Pair<>(snapshot, m);
+        return m;
     }
 
     /**
      * Gets a subscription to the update queue
      * @return A subscription to the update queue
      */
-    public SubscribableQueue<Notification>.Subscription getSubscription() {
+    public SubscribableQueue<List<ByteBuffer>>.Subscription getSubscription() {
         return this.queue.getSubscription();
     }
+
+    /**
+     * Gets a subscription to the update queue
+     * @param policy what to do if the subscriber lags behind too much
+     * @return A subscription to the update queue
+     */
+    public SubscribableQueue<List<ByteBuffer>>.Subscription getSubscription(SubscribableQueue.Policy policy) {
+        return this.queue.getSubscription(policy);
+    }
+
+    /**
+     * Gets a subscription to the rewards of an area, notified of them right away and then only when they change
+     * @param fence the area
+     * @return A subscription to the notifications of the area
+     */
+    public SubscribableQueue<List<ByteBuffer>>.Subscription getSubscription(GeofenceIndex.Geofence fence) {
+        return this.geofences.subscribe(fence, queue.getMaximumRetained(), queue.getDefaultPolicy());
+    }
+
+    /**
+     * Sets how many notifications subscribers may lag behind, and what to do with the ones lagging further
+     * @param maximumRetained the maximum number of notifications a subscriber may lag behind
+     * @param policy what to do with the subscribers lagging further behind
+     */
+    public void setRetention(long maximumRetained, SubscribableQueue.Policy policy) {
+        this.queue.setRetention(maximumRetained, policy);
+    }
+
+    /**
+     * Gets the lag of the subscriber furthest behind
+     * @return the largest number of notifications published and not yet sent to a subscriber
+     */
+    public long getMaximumLag() {
+        return this.queue.getMaximumLag();
+    }
 }
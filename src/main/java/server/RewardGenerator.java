@@ -1,5 +1,6 @@
 package server;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -7,6 +8,11 @@ import java.util.concurrent.locks.ReentrantLock;
 /**
  * A class used for generating rewards
  *
+ * Triggers are coalesced: all triggers arriving before a generation starts are served by that
+ * single generation. Optionally, the generation can be delayed until no trigger arrives for a
+ * minimum interval (but never for longer than a maximum staleness), so that bursts of triggers
+ * only cause one generation.
+ *
  * Runs in its own thread
  */
 public class RewardGenerator implements Runnable {
@@ -31,6 +37,41 @@ public class RewardGenerator implements Runnable {
      */
     private int distance;
 
+    /**
+     * The time (in nanoseconds) to wait without new triggers before generating rewards. 0 to generate them right away
+     */
+    private long minimumInterval;
+
+    /**
+     * The maximum time (in nanoseconds) a trigger can wait for the generation of rewards
+     */
+    private long maximumStaleness;
+
+    /**
+     * The time (as given by {@link System#nanoTime()}) of the oldest trigger not yet served
+     */
+    private long firstTrigger;
+
+    /**
+     * The time (as given by {@link System#nanoTime()}) of the newest trigger not yet served
+     */
+    private long lastTrigger;
+
+    /**
+     * The total number of triggers
+     */
+    private long triggers;
+
+    /**
+     * The number of triggers served by the generation of an earlier trigger
+     */
+    private long mergedTriggers;
+
+    /**
+     * The total number of generations
+     */
+    private long generations;
+
     /**
      * The server facade
      *
@@ -49,6 +90,26 @@ public class RewardGenerator implements Runnable {
         this.lock = new ReentrantLock();
         this.condition = this.lock.newCondition();
         distance = d;
+        minimumInterval = 0;
+        maximumStaleness = 0;
+        firstTrigger = lastTrigger = System.nanoTime();
+    }
+
+    /**
+     * Sets how triggers are coalesced
+     * @param minimumInterval the time (in milliseconds) to wait without new triggers before generating rewards.
+     *                        0 to generate them right away
+     * @param maximumStaleness the maximum time (in milliseconds) a trigger can wait for the generation of rewards
+     */
+    public void setSchedule(long minimumInterval, long maximumStaleness) {
+        lock.lock();
+        try {
+            this.minimumInterval = TimeUnit.MILLISECONDS.toNanos(minimumInterval);
+            this.maximumStaleness = TimeUnit.MILLISECONDS.toNanos(maximumStaleness);
+            condition.signal();
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -57,28 +118,91 @@ public class RewardGenerator implements Runnable {
     public void setAwake() {
         lock.lock();
         try {
-            awake = true;
+            long now = System.nanoTime();
+            triggers++;
+
+            if(awake) {
+                mergedTriggers++;
+            } else {
+                awake = true;
+                firstTrigger = now;
+            }
+            lastTrigger = now;
+
             condition.signal();
         } finally {
             lock.unlock();
         }
     }
+
+    /**
+     * Gets the total number of triggers
+     * @return the total number of triggers
+     */
+    public long getTriggers() {
+        lock.lock();
+        try {
+            return triggers;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of triggers served by the generation of an earlier trigger
+     * @return the number of triggers served by the generation of an earlier trigger
+     */
+    public long getMergedTriggers() {
+        lock.lock();
+        try {
+            return mergedTriggers;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the total number of generations
+     * @return the total number of generations
+     */
+    public long getGenerations() {
+        lock.lock();
+        try {
+            return generations;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public void run() {
         while(true) {
             lock.lock();
 
             try {
-                while (!awake)
-                    condition.await();
-
-                facade.generateRewards(distance);
+                while(true) {
+                    if(awake) {
+                        //Wait for the triggers to quiet down, but not past the staleness bound
+                        long deadline = Math.min(lastTrigger + minimumInterval, firstTrigger + maximumStaleness);
+                        long remaining = minimumInterval == 0 ? 0 : deadline - System.nanoTime();
+                        if(remaining <= 0)
+                            break;
+                        condition.awaitNanos(remaining);
+                    } else {
+                        condition.await();
+                    }
+                }
 
+                //Cleared before generating, so that triggers arriving meanwhile cause another generation
                 awake = false;
+                generations++;
             } catch(InterruptedException e) {
-            }finally {
+                continue;
+            } finally {
                 lock.unlock();
             }
+
+            facade.generateRewards(distance);
         }
     }
 }
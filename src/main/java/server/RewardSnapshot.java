@@ -0,0 +1,334 @@
+package server;
+
+import common.Location;
+import common.Reward;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable view of all rewards active in the server at a given point in time.
+ *
+ * Rewards are split by the chunk their start location is in (with the same layout as the scooters),
+ * and indexed by it. A new snapshot is built by copying only the chunks which changed, sharing all the
+ * others with the previous one. Every snapshot has a version, greater than the one of the snapshot it
+ * was built from.
+ *
+ * @implNote It is an immutable class, and can therefore be read without any locking
+ */
+public final class RewardSnapshot {
+    /**
+     * A builder of a new snapshot from an existing one
+     *
+     * @implNote Not thread safe
+     */
+    public static final class Builder {
+        /**
+         * The rewards of the snapshot being built
+         */
+        private final Map<Location, Reward>[][] grid;
+
+        /**
+         * Whether each column of chunks was already copied from the original snapshot
+         */
+        private final boolean[] copiedColumns;
+
+        /**
+         * The chunks (i * numberChunks + j) already copied from the original snapshot, which can therefore be changed
+         */
+        private final Set<Integer> copiedChunks;
+
+        /**
+         * The version of the original snapshot
+         */
+        private final long version;
+
+        /**
+         * Parameterized constructor
+         * @param original the snapshot to build from
+         */
+        private Builder(RewardSnapshot original) {
+            int numberChunks = original.grid.length;
+            this.grid = original.grid.clone();
+            this.copiedColumns = new boolean[numberChunks];
+            this.copiedChunks = new HashSet<>();
+            this.version = original.version;
+        }
+
+        /**
+         * Adds the reward to the snapshot, replacing the one with the same start location (if any)
+         * @param r the reward
+         * @return this builder
+         */
+        public Builder put(Reward r) {
+            writableChunk(r.getStartLocation()).put(r.getStartLocation(), r);
+            return this;
+        }
+
+        /**
+         * Removes the reward starting in the given location (if any)
+         * @param start the start location
+         * @return this builder
+         */
+        public Builder remove(Location start) {
+            if(chunk(grid, start).containsKey(start))
+                writableChunk(start).remove(start);
+            return this;
+        }
+
+        /**
+         * Builds the new snapshot
+         * @return the new snapshot
+         */
+        public RewardSnapshot build() {
+            return new RewardSnapshot(grid, version + 1);
+        }
+
+        /**
+         * Gets a copy of the chunk containing the given location, which can be changed
+         * @param l the given location
+         * @return the (copied) chunk containing the given location
+         */
+        private Map<Location, Reward> writableChunk(Location l) {
+            int i = l.getX() / (2 * ServerFacade.D), j = l.getY() / (2 * ServerFacade.D);
+            if(!copiedColumns[i]) {
+                grid[i] = grid[i].clone();
+                copiedColumns[i] = true;
+            }
+            if(copiedChunks.add(i * grid.length + j))
+                grid[i][j] = new HashMap<>(grid[i][j]);
+            return grid[i][j];
+        }
+    }
+
+    /**
+     * All rewards, split by the chunk of their start location and indexed by it. Never changed after construction
+     *
+     * @see Chunk
+     */
+    private final Map<Location, Reward>[][] grid;
+
+    /**
+     * The version of the snapshot
+     */
+    private final long version;
+
+    /**
+     * Parameterized constructor
+     * @param grid all rewards, split by the chunk of their start location
+     * @param version the version of the snapshot
+     */
+    private RewardSnapshot(Map<Location, Reward>[][] grid, long version) {
+        this.grid = grid;
+        this.version = version;
+    }
+
+    /**
+     * Creates the snapshot without any rewards (version 0)
+     * @return the snapshot without any rewards
+     */
+    @SuppressWarnings("unchecked")
+    public static RewardSnapshot empty() {
+        int numberChunks = ServerFacade.N / (2 * ServerFacade.D);
+        Map<Location, Reward>[][] grid = new Map[numberChunks][numberChunks];
+        for(int i = 0; i < numberChunks; i++) {
+            for(int j = 0; j < numberChunks; j++) {
+                grid[i][j] = Collections.emptyMap();
+            }
+        }
+        return new RewardSnapshot(grid, 0);
+    }
+
+    /**
+     * Starts building a new snapshot from this one
+     * @return the builder of the new snapshot
+     */
+    public Builder edit() {
+        return new Builder(this);
+    }
+
+    /**
+     * Gets the version of the snapshot
+     * @return the version of the snapshot
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the reward starting in the given location
+     * @param start the start location
+     * @return the reward starting in the given location (null if there is none)
+     */
+    public Reward get(Location start) {
+        return chunk(grid, start).get(start);
+    }
+
+    /**
+     * Gets the total number of rewards in the snapshot
+     * @return the total number of rewards in the snapshot
+     */
+    public int size() {
+        int ans = 0;
+        for(Map<Location, Reward>[] column : grid) {
+            for(Map<Location, Reward> chunk : column) {
+                ans += chunk.size();
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * Gets all rewards in the snapshot
+     * @return all rewards in the snapshot
+     */
+    public Collection<Reward> getRewards() {
+        Collection<Reward> ans = new HashSet<>();
+        for(Map<Location, Reward>[] column : grid) {
+            for(Map<Location, Reward> chunk : column) {
+                ans.addAll(chunk.values());
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * Gets all rewards starting within distance D of the given location
+     * @param target the given location
+     * @return all rewards starting within distance D of the given location
+     */
+    public Set<Reward> getRewardsInRange(Location target) {
+        int x = target.getX(), y = target.getY();
+        int numberChunks = grid.length;
+        Set<Reward> ans = new HashSet<>();
+
+        for(int i = Math.max(0, ScooterCollection.firstChunkToLock(x)); i <= Math.min(numberChunks - 1, ScooterCollection.firstChunkToLock(x) + 1); i++) {
+            for(int j = Math.max(0, ScooterCollection.firstChunkToLock(y)); j <= Math.min(numberChunks - 1, ScooterCollection.firstChunkToLock(y) + 1); j++) {
+                for(Reward r : grid[i][j].values()) {
+                    if(Location.distance(target, r.getStartLocation()) <= ServerFacade.D)
+                        ans.add(r);
+                }
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * Gets all rewards starting within the given distance of the given location, and paying at least the given
+     * amount
+     * @param target the location to center the search around
+     * @param radius the maximum distance from the location
+     * @param minimumMoney the minimum prize money of the rewards
+     * @return all such rewards
+     */
+    public Set<Reward> getRewardsInRange(Location target, int radius, int minimumMoney) {
+        Set<Reward> ans = new HashSet<>();
+
+        for(int i = chunkIndex(target.getX() - radius); i <= chunkIndex(target.getX() + radius); i++) {
+            for(int j = chunkIndex(target.getY() - radius); j <= chunkIndex(target.getY() + radius); j++) {
+                for(Reward r : grid[i][j].values()) {
+                    if(r.getMoney() >= minimumMoney && Location.distance(target, r.getStartLocation()) <= radius)
+                        ans.add(r);
+                }
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * Gets the number of chunks in each row (and column) of the grid
+     * @return the number of chunks in each row (and column) of the grid
+     */
+    public int getNumberChunks() {
+        return grid.length;
+    }
+
+    /**
+     * Gets whether the rewards of a chunk may differ from the ones in another snapshot
+     *
+     * @implNote as chunks are only copied when changed, this is a reference comparison
+     *
+     * @param other the other snapshot
+     * @param i the row of the chunk
+     * @param j the column of the chunk
+     * @return whether the rewards of the chunk may differ (false if they are the same)
+     */
+    public boolean isChunkChanged(RewardSnapshot other, int i, int j) {
+        return grid[i][j] != other.grid[i][j];
+    }
+
+    /**
+     * Gets the chunks whose rewards may differ from the ones in another snapshot
+     *
+     * @implNote rows are also only copied when one of their chunks changed, so the rows shared with the other
+     * snapshot are skipped as a whole
+     *
+     * @param other the other snapshot
+     * @return the chunks (i * numberChunks + j) whose rewards may differ
+     */
+    public List<Integer> getChangedChunks(RewardSnapshot other) {
+        List<Integer> ans = new ArrayList<>();
+        for(int i = 0; i < grid.length; i++) {
+            if(grid[i] == other.grid[i])
+                continue;
+
+            for(int j = 0; j < grid.length; j++) {
+                if(isChunkChanged(other, i, j))
+                    ans.add(i * grid.length + j);
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * Computes the changes from another snapshot to this one
+     *
+     * @implNote only the chunks which changed are compared, so it takes time proportional to them (and
+     * not to the number of rewards)
+     *
+     * @param previous the other snapshot
+     * @param removed where to add the start locations of the rewards no longer active
+     * @param added where to add the rewards which are new (including the ones replacing another reward with
+     *              the same start location)
+     */
+    public void diff(RewardSnapshot previous, Collection<Location> removed, Collection<Reward> added) {
+        for(int c : getChangedChunks(previous)) {
+            int i = c / grid.length, j = c % grid.length;
+            for(Location l : previous.grid[i][j].keySet()) {
+                if(!grid[i][j].containsKey(l))
+                    removed.add(l);
+            }
+
+            for(Reward r : grid[i][j].values()) {
+                if(!r.equals(previous.grid[i][j].get(r.getStartLocation())))
+                    added.add(r);
+            }
+        }
+    }
+
+    /**
+     * Gets the index of the chunk (row or column) containing a coordinate, clamped to the grid
+     * @param coordinate the coordinate
+     * @return the index of the chunk containing the coordinate (the nearest one if outside the grid)
+     */
+    public static int chunkIndex(int coordinate) {
+        int numberChunks = ServerFacade.N / (2 * ServerFacade.D);
+        return Math.max(0, Math.min(numberChunks - 1, Math.floorDiv(coordinate, 2 * ServerFacade.D)));
+    }
+
+    /**
+     * Gets the rewards of the chunk containing the given location
+     * @param grid all rewards, split by chunk
+     * @param l the given location
+     * @return the rewards of the chunk containing the given location
+     */
+    private static Map<Location, Reward> chunk(Map<Location, Reward>[][] grid, Location l) {
+        return grid[l.getX() / (2 * ServerFacade.D)][l.getY() / (2 * ServerFacade.D)];
+    }
+}
@@ -1,8 +1,10 @@
 package server;
 
 import common.Location;
+import utils.LongIntHashMap;
 
-import java.util.*;
+import java.util.Collection;
+import java.util.Random;
 
 /**
  * The collection of all scooters in the map
@@ -23,6 +25,11 @@ public class ScooterCollection extends LockableCollection {
      */
     private final int numberChunks;
 
+    /**
+     * The listener told about every change to the scooters (null if there is none)
+     */
+    private volatile IScooterListener listener;
+
     /**
      * Parameterized constructor
      * @param numberScooters the number of scooters to seed the map with
@@ -40,45 +47,109 @@ public class ScooterCollection extends LockableCollection {
         seedScooters(numberScooters);
     }
 
+    /**
+     * Sets the listener told about every change to the scooters (after seeding)
+     * @param listener the listener
+     */
+    public void setListener(IScooterListener listener) {
+        this.listener = listener;
+    }
+
     /**
      * Gets all free scooters in range of the given location
      * @param target the given location
-     * @return all free scooters in range of the given location: a map of location and number
+     * @return all free scooters in range of the given location: a map of (packed) location and number
      * of scooters in said location
+     *
+     * @see Location#pack(int, int)
      */
-    public Map<Location, Integer> getFreeScootersInRange(Location target) {
-        TreeSet<Location> chunks = getChunksToLock(target);
-        Map<Location, Integer> ans = new TreeMap<>();
-        for(Location l : chunks) {
-            ans.putAll(grid[l.getX()][l.getY()].getFreeScootersInRange(target));
+    public LongIntHashMap getFreeScootersInRange(Location target) {
+        int x = target.getX(), y = target.getY();
+        LongIntHashMap ans = new LongIntHashMap();
+
+        for(int i = Math.max(0, firstChunkToLock(x)); i <= Math.min(numberChunks - 1, firstChunkToLock(x) + 1); i++) {
+            for(int j = Math.max(0, firstChunkToLock(y)); j <= Math.min(numberChunks - 1, firstChunkToLock(y) + 1); j++) {
+                grid[i][j].getFreeScootersInRange(x, y, ans);
+            }
         }
         return ans;
     }
 
+    /**
+     * Gets whether there is any free scooter in range of the given location
+     * @param x the x coordinate of the given location
+     * @param y the y coordinate of the given location
+     * @return whether there is any free scooter in range of the given location
+     */
+    public boolean hasFreeScootersInRange(int x, int y) {
+        for(int i = Math.max(0, firstChunkToLock(x)); i <= Math.min(numberChunks - 1, firstChunkToLock(x) + 1); i++) {
+            for(int j = Math.max(0, firstChunkToLock(y)); j <= Math.min(numberChunks - 1, firstChunkToLock(y) + 1); j++) {
+                if(grid[i][j].hasFreeScootersInRange(x, y))
+                    return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Reserves the closest scooter in range of the given location
+     *
+     * @implNote the search expands outwards from the target, one column (on each side) at a time, and
+     * stops as soon as no remaining column can hold a scooter closer than the best one found
+     *
      * @param target the given location
      * @return the location of the reserved scooter (null if no scooter was reserved)
      */
     public Location reserveScooter(Location target) {
-        int d = ServerFacade.D + 1;
-        Location sc = null;
-        TreeSet<Location> chunks = getChunksToLock(target);
-        for(Location l : chunks) {
-            Location x = grid[l.getX()][l.getY()].getClosestFreeScooter(target);
-            //No scooter in range inside chunk
-            if(x == null)
-                continue;
-            int dist = Location.distance(target, x);
-            if(dist < d) {
-                sc = x;
-                d = dist;
+        int best = ServerFacade.D + 1;
+        int bestX = -1, bestY = -1;
+
+        for(int dx = 0; dx <= ServerFacade.D && dx < best; dx++) {
+            for(int sign = -1; sign <= 1; sign += 2) {
+                int x = target.getX() + sign * dx;
+                int y = getClosestFreeScooterInColumn(x, target.getY(), best - dx - 1);
+                if(y >= 0 && dx + Math.abs(y - target.getY()) < best) {
+                    best = dx + Math.abs(y - target.getY());
+                    bestX = x;
+                    bestY = y;
+                }
+
+                if(dx == 0)
+                    break;
             }
         }
-        if(sc == null)
+
+        if(bestX < 0)
             return null;
-        Location chunkIndex = getChunkIndex(sc);
-        return grid[chunkIndex.getX()][chunkIndex.getY()].reserveScooter(target);
+        Chunk c = getChunk(bestX, bestY);
+        c.removeScooter(bestX, bestY);
+        scootersChanged(c, bestX, bestY, -1);
+        return new Location(bestX, bestY);
+    }
+
+    /**
+     * Gets the closest free scooter to a location in a column of the map
+     * @param x the x coordinate of the column
+     * @param targetY the y coordinate to search around
+     * @param maxDistance the maximum distance, along the column, of the scooter to the target
+     * @return the y coordinate of the closest scooter, or -1 if there is none in range
+     */
+    private int getClosestFreeScooterInColumn(int x, int targetY, int maxDistance) {
+        if(x < 0 || x >= ServerFacade.N)
+            return -1;
+
+        int chunkX = x / (2 * ServerFacade.D);
+        int first = Math.max(0, targetY - maxDistance) / (2 * ServerFacade.D);
+        int last = Math.min(ServerFacade.N - 1, targetY + maxDistance) / (2 * ServerFacade.D);
+
+        int ans = -1;
+        for(int chunkY = first; chunkY <= last; chunkY++) {
+            int y = grid[chunkX][chunkY].getClosestFreeScooterInColumn(x, targetY, maxDistance);
+            if(y >= 0 && (ans < 0 || Math.abs(y - targetY) < Math.abs(ans - targetY)))
+                ans = y;
+        }
+
+        return ans;
     }
 
     /**
@@ -86,20 +157,32 @@ public class ScooterCollection extends LockableCollection {
      * @param l the given location
      */
     public void freeScooter(Location l) {
-        Location chunkIndex = getChunkIndex(l);
-        grid[chunkIndex.getX()][chunkIndex.getY()].freeScooter(l);
+        Chunk c = getChunk(l.getX(), l.getY());
+        c.freeScooter(l.getX(), l.getY());
+        scootersChanged(c, l.getX(), l.getY(), 1);
     }
 
     /**
-     * Gets the index (x, y in the grid attribute) of the chunk containing the given location
-     * @param l the given location
-     * @return the index (x, y in the grid attribute) of the chunk containing the given location
+     * Tells the listener (if any) about a change to the scooters
+     * @param c the chunk containing the location
+     * @param x the x coordinate of the location
+     * @param y the y coordinate of the location
+     * @param delta the change in the number of scooters parked in the location
      */
-    private Location getChunkIndex(Location l) {
-        int x = l.getX() / (2 * ServerFacade.D);
-        int y = l.getY() / (2 * ServerFacade.D);
+    private void scootersChanged(Chunk c, int x, int y, int delta) {
+        IScooterListener l = listener;
+        if(l != null)
+            l.scootersChanged(x, y, delta, c.getNumberScooters(x, y));
+    }
 
-        return new Location(x, y);
+    /**
+     * Gets the chunk containing the given location
+     * @param x the x coordinate of the given location
+     * @param y the y coordinate of the given location
+     * @return the chunk containing the given location
+     */
+    private Chunk getChunk(int x, int y) {
+        return grid[x / (2 * ServerFacade.D)][y / (2 * ServerFacade.D)];
     }
 
     /**
@@ -141,13 +224,15 @@ public class ScooterCollection extends LockableCollection {
      * @param write whether to acquire a write lock instead of a read lock
      */
     public void lockLocation(Location target, boolean write) {
-        TreeSet<Location> chunks = getChunksToLock(target);
+        int x = target.getX(), y = target.getY();
 
-        for(Location l : chunks) {
-            if(write)
-                grid[l.getX()][l.getY()].writeLock().lock();
-            else
-                grid[l.getX()][l.getY()].readLock().lock();
+        for(int i = Math.max(0, firstChunkToLock(x)); i <= Math.min(numberChunks - 1, firstChunkToLock(x) + 1); i++) {
+            for(int j = Math.max(0, firstChunkToLock(y)); j <= Math.min(numberChunks - 1, firstChunkToLock(y) + 1); j++) {
+                if(write)
+                    grid[i][j].writeLock().lock();
+                else
+                    grid[i][j].readLock().lock();
+            }
         }
     }
 
@@ -160,25 +245,131 @@ public class ScooterCollection extends LockableCollection {
      * @param write whether to acquire a write lock instead of a read lock
      */
     public void unlockLocation(Location target, boolean write) {
-        TreeSet<Location> chunks = getChunksToLock(target);
+        int x = target.getX(), y = target.getY();
+
+        for(int i = Math.max(0, firstChunkToLock(x)); i <= Math.min(numberChunks - 1, firstChunkToLock(x) + 1); i++) {
+            for(int j = Math.max(0, firstChunkToLock(y)); j <= Math.min(numberChunks - 1, firstChunkToLock(y) + 1); j++) {
+                if(write)
+                    grid[i][j].writeLock().unlock();
+                else
+                    grid[i][j].readLock().unlock();
+            }
+        }
+    }
 
-        for(Location l : chunks) {
+    /**
+     * Locks every chunk needed in order to safely search the areas around all the given locations,
+     * locking each chunk only once
+     *
+     * @implNote order of locking is guaranteed to be from left to right, top down, as in {@link #lockLocation(Location, boolean)}
+     *
+     * @param targets the locations to search around
+     * @param write whether to acquire write locks instead of read locks
+     * @return the chunks locked (i * numberChunks + j, in increasing order), to be given to {@link #unlockChunks(int[], boolean)}
+     */
+    public int[] lockLocations(Collection<Location> targets, boolean write) {
+        boolean[] needed = new boolean[numberChunks * numberChunks];
+        int count = 0;
+
+        for(Location target : targets) {
+            int x = target.getX(), y = target.getY();
+            for(int i = Math.max(0, firstChunkToLock(x)); i <= Math.min(numberChunks - 1, firstChunkToLock(x) + 1); i++) {
+                for(int j = Math.max(0, firstChunkToLock(y)); j <= Math.min(numberChunks - 1, firstChunkToLock(y) + 1); j++) {
+                    if(!needed[i * numberChunks + j]) {
+                        needed[i * numberChunks + j] = true;
+                        count++;
+                    }
+                }
+            }
+        }
+
+        int[] ans = new int[count];
+        for(int c = 0, k = 0; c < needed.length; c++) {
+            if(needed[c])
+                ans[k++] = c;
+        }
+
+        for(int c : ans) {
+            if(write)
+                grid[c / numberChunks][c % numberChunks].writeLock().lock();
+            else
+                grid[c / numberChunks][c % numberChunks].readLock().lock();
+        }
+        return ans;
+    }
+
+    /**
+     * Unlocks the chunks locked by {@link #lockLocations(Collection, boolean)}
+     * @param chunks the chunks locked
+     * @param write whether to free write locks instead of read locks
+     */
+    public void unlockChunks(int[] chunks, boolean write) {
+        for(int c : chunks) {
             if(write)
-                grid[l.getX()][l.getY()].writeLock().unlock();
+                grid[c / numberChunks][c % numberChunks].writeLock().unlock();
             else
-                grid[l.getX()][l.getY()].readLock().unlock();
+                grid[c / numberChunks][c % numberChunks].readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the versions of every chunk needed in order to search an area around the given location
+     *
+     * @implNote the chunks should be locked, for the versions to match a search done meanwhile
+     *
+     * @param target the location to search around
+     * @return the versions of the chunks, in the order they are locked by {@link #lockLocation(Location, boolean)}
+     *
+     * @see Chunk#getVersion()
+     */
+    public long[] getVersions(Location target) {
+        int x = target.getX(), y = target.getY();
+        int firstX = Math.max(0, firstChunkToLock(x)), lastX = Math.min(numberChunks - 1, firstChunkToLock(x) + 1);
+        int firstY = Math.max(0, firstChunkToLock(y)), lastY = Math.min(numberChunks - 1, firstChunkToLock(y) + 1);
+
+        long[] ans = new long[Math.max(0, lastX - firstX + 1) * Math.max(0, lastY - firstY + 1)];
+        int k = 0;
+        for(int i = firstX; i <= lastX; i++) {
+            for(int j = firstY; j <= lastY; j++) {
+                ans[k++] = grid[i][j].getVersion();
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * Checks whether any chunk needed in order to search an area around the given location changed
+     *
+     * @implNote never blocks
+     *
+     * @param target the location to search around
+     * @param versions the versions of the chunks, as given by {@link #getVersions(Location)}
+     * @return whether none of the chunks changed since they had the given versions
+     */
+    public boolean isUnchanged(Location target, long[] versions) {
+        int x = target.getX(), y = target.getY();
+        int k = 0;
+
+        for(int i = Math.max(0, firstChunkToLock(x)); i <= Math.min(numberChunks - 1, firstChunkToLock(x) + 1); i++) {
+            for(int j = Math.max(0, firstChunkToLock(y)); j <= Math.min(numberChunks - 1, firstChunkToLock(y) + 1); j++) {
+                if(k >= versions.length || grid[i][j].getVersion() != versions[k++])
+                    return false;
+            }
         }
+        return k == versions.length;
     }
 
     /**
      * Gets all scooters in the map
-     * @return all scooters in the map (location and the number of scooters per location)
+     * @return all scooters in the map ((packed) location and the number of scooters per location)
+     *
+     * @see Location#pack(int, int)
      */
-    public Map<Location, Integer> getAllScooters() {
-        Map<Location, Integer> ans = new TreeMap<>();
+    public LongIntHashMap getAllScooters() {
+        LongIntHashMap ans = new LongIntHashMap();
         for(int i = 0 ; i < numberChunks; i++) {
             for(int j = 0; j < numberChunks; j++) {
-                ans.putAll(grid[i][j].getAllScooters());
+                grid[i][j].getAllScooters(ans);
             }
         }
 
@@ -186,13 +377,16 @@ public class ScooterCollection extends LockableCollection {
     }
 
     /**
-     * Gets all chunks which need to be locked in order to search around a location safely
-     * @param l the given location
-     * @return the indices of all chunks which need to be locked in order to search around a location safely
+     * Gets the index (along one axis) of the first chunk which needs to be locked in order to search around
+     * a location safely. The chunks to lock are the ones with indices from this one to the next, on both axes
+     * (the result may fall outside of the grid, and should be clipped)
+     *
+     * @param coordinate the coordinate of the location along the axis
+     * @return the index of the first chunk to lock along the axis
      */
-    private TreeSet<Location> getChunksToLock(Location l) {
+    static int firstChunkToLock(int coordinate) {
         /*
-         * Given that a chink is a 2 * D x 2 * D square, and searches are at maximum of D distance,
+         * Given that a chunk is a 2 * D x 2 * D square, and searches are at maximum of D distance,
          * it will only be necessary to lock 4 chunks (forming a square) in order to transverse safely.
          *
          * The 4 chunks to lock depend on the position of the given location inside its chunk: there are 4 cases
@@ -201,48 +395,14 @@ public class ScooterCollection extends LockableCollection {
          * If, for example, the location is in the top left quadrant of the chunk. From there, the chunks to the right
          * and down of the current chunk are more than D cells away, meaning there is no need to lock them. Therefore,
          * we can only lock the chunk above, to the left,  diagonally left and up to the current chunk,
-         * which should also be locked. The other 3 cases are analogous.
+         * which should also be locked. The other 3 cases are analogous, and the axes are independent.
          *
+         * Iterating the indices in increasing order (x first) guarantees order, so that no deadlocks occur
+         * from acquiring locks in the wrong order
          */
-        Location chunkIndex = getChunkIndex(l);
-        Location chunkCoordinates = grid[chunkIndex.getX()][chunkIndex.getY()].getLocationCoords(l);
-
-        //TreeSet to guarantee order, so that no deadlocks occur
-        //from acquiring locks in the wrong order
-        TreeSet<Location> ans = new TreeSet<>();
-        ans.add(chunkIndex);
-        //Top-left corner
-        if(chunkCoordinates.getX() < ServerFacade.D && chunkCoordinates.getY() < ServerFacade.D) {
-            ans.add(new Location(chunkIndex.getX() - 1, chunkIndex.getY()));
-            ans.add(new Location(chunkIndex.getX() - 1, chunkIndex.getY() - 1));
-            ans.add(new Location(chunkIndex.getX(), chunkIndex.getY() - 1));
-        }
-        //Top-right corner
-        else if(chunkCoordinates.getX() >= ServerFacade.D && chunkCoordinates.getY() < ServerFacade.D) {
-            ans.add(new Location(chunkIndex.getX() + 1, chunkIndex.getY()));
-            ans.add(new Location(chunkIndex.getX() + 1, chunkIndex.getY() - 1));
-            ans.add(new Location(chunkIndex.getX(), chunkIndex.getY() - 1));
-        }
-        //Bottom-left corner
-        else if(chunkCoordinates.getX() >= ServerFacade.D && chunkCoordinates.getY() < ServerFacade.D) {
-            ans.add(new Location(chunkIndex.getX() - 1, chunkIndex.getY()));
-            ans.add(new Location(chunkIndex.getX() - 1, chunkIndex.getY() + 1));
-            ans.add(new Location(chunkIndex.getX(), chunkIndex.getY() + 1));
-        }
-        //Bottom-right corner
-        else if(chunkCoordinates.getX() >= ServerFacade.D && chunkCoordinates.getY() >= ServerFacade.D) {
-            ans.add(new Location(chunkIndex.getX() + 1, chunkIndex.getY()));
-            ans.add(new Location(chunkIndex.getX() + 1, chunkIndex.getY() + 1));
-            ans.add(new Location(chunkIndex.getX(), chunkIndex.getY() + 1));
-        }
+        int chunk = coordinate / (2 * ServerFacade.D);
 
-        //Remove invalid values (out of bounds)
-        TreeSet<Location> temp = new TreeSet<>();
-        for(Location x : ans) {
-            if(x.getX() < numberChunks && x.getX() >= 0 && x.getY() < numberChunks && x.getY() >= 0 )
-                temp.add(x);
-        }
-        return temp;
+        return coordinate % (2 * ServerFacade.D) < ServerFacade.D ? chunk - 1 : chunk;
     }
 
 
@@ -255,9 +415,7 @@ public class ScooterCollection extends LockableCollection {
         for(int i = 0; i < numberScooters; i++) {
             int x = r.nextInt(ServerFacade.N);
             int y = r.nextInt(ServerFacade.N);
-            Location l = new Location(x, y);
-            Location chunkIndex = getChunkIndex(l);
-            grid[chunkIndex.getX()][chunkIndex.getY()].freeScooter(l);
+            getChunk(x, y).freeScooter(x, y);
         }
     }
 }
@@ -1,8 +1,13 @@
 package server;
 
+import common.TaggedConnection;
+import common.Threads;
+
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -31,32 +36,179 @@ public class Server {
      */
     private final RewardGenerator rewardGenerator;
 
+    /**
+     * The maximum number of requests of each client processed concurrently
+     */
+    private int maximumInFlight = RequestPipeline.defaultMaximumInFlight;
+
+    /**
+     * The maximum number of frames written to each client at once (in the blocking modes)
+     */
+    private int maximumBatchSize = TaggedConnection.defaultMaximumBatchSize;
+
+    /**
+     * The maximum time (in microseconds) a frame to a client waits for others to fill its batch (in the
+     * blocking modes)
+     */
+    private long maximumLatency = 0;
+
+    /**
+     * Every how many milliseconds the statistics of the writes to the clients are printed (0 to never print them)
+     */
+    private long statisticsInterval = 0;
+
     /**
      * Default constructor
      */
     public Server(int n, int d, int scooterCount) {
-        facade = new ServerFacade(n, d, scooterCount);
+        this(n, d, scooterCount, false);
+    }
+
+    /**
+     * Parameterized constructor
+     * @param distanceMap whether to generate rewards from a distance map rebuilt every time, instead of
+     *                    incrementally
+     *
+     * @see DistanceMapRewardEngine
+     * @see IncrementalRewardEngine
+     */
+    public Server(int n, int d, int scooterCount, boolean distanceMap) {
+        facade = distanceMap ? new ServerFacade(n, d, scooterCount, DistanceMapRewardEngine::new)
+                             : new ServerFacade(n, d, scooterCount);
         rewardGenerator = new RewardGenerator(facade, 40);
         facade.setRunRewards(rewardGenerator::setAwake);
 
     }
 
+    /**
+     * Sets how triggers of the reward generation are coalesced
+     * @param minimumInterval the time (in milliseconds) to wait without new triggers before generating rewards
+     * @param maximumStaleness the maximum time (in milliseconds) a trigger can wait for the generation of rewards
+     *
+     * @see RewardGenerator#setSchedule(long, long)
+     */
+    public void setRewardSchedule(long minimumInterval, long maximumStaleness) {
+        rewardGenerator.setSchedule(minimumInterval, maximumStaleness);
+    }
+
+    /**
+     * Sets the maximum number of requests of each client processed concurrently. Must be called before starting
+     * @param maximumInFlight the maximum number of requests in flight per client (1 to process them one at a time)
+     *
+     * @see RequestPipeline
+     */
+    public void setMaximumInFlight(int maximumInFlight) {
+        this.maximumInFlight = maximumInFlight;
+    }
+
+    /**
+     * Sets how frames to each client are batched in the blocking modes. Must be called before starting
+     * @param maximumBatchSize the maximum number of frames written at once
+     * @param maximumLatency the maximum time (in microseconds) a frame waits for others to fill its batch
+     *                       (0 to write it right away)
+     *
+     * @see TaggedConnection
+     */
+    public void setBatching(int maximumBatchSize, long maximumLatency) {
+        this.maximumBatchSize = maximumBatchSize;
+        this.maximumLatency = maximumLatency;
+    }
+
+    /**
+     * Sets every how long the number of frames written to the clients per write is printed, while the server
+     * runs. Must be called before starting
+     * @param statisticsInterval the time (in milliseconds) between prints (0 to never print them)
+     */
+    public void setStatisticsInterval(long statisticsInterval) {
+        this.statisticsInterval = statisticsInterval;
+    }
+
+    /**
+     * Sets how many notifications subscribers may lag behind, and what to do with the ones lagging further
+     * @param maximumRetained the maximum number of notifications a subscriber may lag behind
+     * @param policy what to do with the subscribers lagging further behind
+     *
+     * @see SubscribableQueue
+     */
+    public void setNotificationRetention(long maximumRetained, SubscribableQueue.Policy policy) {
+        facade.setNotificationRetention(maximumRetained, policy);
+    }
+
     /**
      * Starts the server
      * @param port the port to listen on
      * @throws IOException if starting the socket fails
      */
     public void start(int port) throws IOException {
-        new Thread(rewardGenerator).start();
-        serverSocket = new ServerSocket(port);
+        Threads.start(rewardGenerator);
+        if(statisticsInterval > 0)
+            Threads.start(this::printStatistics);
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverSocket = serverChannel.socket();
 
         while(true) {
-            Socket clientSocket = serverSocket.accept();
+            SocketChannel clientChannel = serverChannel.accept();
 
             //Process client in a different thread
             //TODO:: Handle client exceptions gracefully
-            new Thread(new ClientHandler(facade, clientSocket))
-                    .start();
+            Threads.start(new ClientHandler(facade, clientChannel, maximumInFlight, maximumBatchSize, maximumLatency));
+        }
+    }
+
+    /**
+     * Starts the server in non-blocking mode.
+     *
+     * Instead of a thread per client, accepted connections are distributed (round-robin) amongst
+     * a fixed number of event loops, and notifications are pushed by a single dispatcher thread
+     *
+     * @param port the port to listen on
+     * @param ioThreads the number of event loops
+     * @throws IOException if starting the socket fails
+     *
+     * @see EventLoop
+     */
+    public void startNonBlocking(int port, int ioThreads) throws IOException {
+        Threads.start(rewardGenerator);
+
+        NotificationDispatcher dispatcher = new NotificationDispatcher(facade);
+        Threads.start(dispatcher);
+
+        EventLoop[] loops = new EventLoop[ioThreads];
+        for(int i = 0; i < ioThreads; i++) {
+            loops[i] = new EventLoop(facade, dispatcher, maximumInFlight);
+            Threads.start(loops[i]);
+        }
+
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverSocket = serverChannel.socket();
+
+        for(int next = 0; true; next = (next + 1) % ioThreads) {
+            SocketChannel clientChannel = serverChannel.accept();
+            clientChannel.configureBlocking(false);
+            loops[next].register(clientChannel);
+        }
+    }
+
+    /**
+     * Prints the number of frames written to the clients per write, since the last print, every interval
+     */
+    private void printStatistics() {
+        long flushes = 0, frames = 0;
+        try {
+            while(true) {
+                Thread.sleep(statisticsInterval);
+
+                long f = TaggedConnection.getTotalFlushes(), n = TaggedConnection.getTotalFramesFlushed();
+                if(f > flushes)
+                    System.out.println(String.format("Sent %d frames in %d writes (%.2f frames per write)",
+                            n - frames, f - flushes, (double) (n - frames) / (f - flushes)));
+                flushes = f;
+                frames = n;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -1,10 +1,17 @@
 package server;
 
 import common.*;
+import common.messages.Message;
+import utils.LongIntHashMap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * The server facade. Exposes all the supported functionality
@@ -20,7 +27,8 @@ public class ServerFacade {
      */
     public static int D;
 
-    //LOCK ORDERING: reservations -> scooters -> rewards
+    //LOCK ORDERING: reward generation -> reservation -> scooters -> reward engine
+    //(rewards are never locked)
 
     /**
      * The collection of reservations
@@ -42,6 +50,32 @@ public class ServerFacade {
      */
     private final UserCollection users;
 
+    /**
+     * The engine tracking the empty and full locations, kept up to date with every change to the scooters
+     */
+    private final IRewardEngine engine;
+
+    /**
+     * The full locations which could not be given a reward, for lack of empty locations.
+     * Protected by the generation lock
+     */
+    private final Set<Location> unplannedStarts;
+
+    /**
+     * The lock held while generating rewards
+     */
+    private final ReentrantLock generationLock;
+
+    /**
+     * The random number generator used for generating rewards
+     */
+    private final Random rnd;
+
+    /**
+     * The cache of encoded responses to free scooters queries
+     */
+    private final ResponseCache freeScootersCache;
+
     /**
      * The method used to trigger the generation of new rewards
      */
@@ -57,12 +91,34 @@ public class ServerFacade {
      * @param scooterCount the number of scooters in the server
      */
     public ServerFacade(int n, int d, int scooterCount) {
+        this(n, d, scooterCount, s -> new IncrementalRewardEngine(s.getAllScooters()));
+    }
+
+    /**
+     * Parameterized constructor
+     *
+     * @implNote initializes all users and scooters with test data
+     *
+     * @param n the size of the grid
+     * @param d the maximum distance in queries
+     * @param scooterCount the number of scooters in the server
+     * @param engineFactory builds the reward engine from the (seeded) scooters
+     *
+     * @see IRewardEngine
+     */
+    public ServerFacade(int n, int d, int scooterCount, Function<ScooterCollection, IRewardEngine> engineFactory) {
         N = n;
         D = d;
         rewards = new RewardCollection();
         scooters = new ScooterCollection(scooterCount);
         reservations = new ReservationCollection();
         users = new UserCollection();
+        engine = engineFactory.apply(scooters);
+        scooters.setListener(engine);
+        unplannedStarts = new HashSet<>();
+        generationLock = new ReentrantLock();
+        rnd = new Random();
+        freeScootersCache = new ResponseCache();
     }
 
     /**
@@ -74,13 +130,53 @@ public class ServerFacade {
     }
 
     /**
-     * Gets the subscription to the notifications queue
+     * Gets the subscription to the notifications queue (of encoded messages, ready to be sent)
      * @return The subscription
      */
-    public SubscribableQueue<Notification>.Subscription getRewardSubscription() {
+    public SubscribableQueue<List<ByteBuffer>>.Subscription getRewardSubscription() {
         return this.rewards.getSubscription();
     }
 
+    /**
+     * Gets a subscription to the notifications queue (of encoded messages, ready to be sent)
+     * @param policy what to do if the subscriber lags behind too much
+     * @return The subscription
+     */
+    public SubscribableQueue<List<ByteBuffer>>.Subscription getRewardSubscription(SubscribableQueue.Policy policy) {
+        return this.rewards.getSubscription(policy);
+    }
+
+    /**
+     * Gets the (encoded) notification holding all the rewards last published, to send to new
+     * subscribers before the changes
+     * @return The frames of the notification
+     */
+    public List<ByteBuffer> getRewardSnapshotNotification() {
+        return this.rewards.getSnapshotNotification();
+    }
+
+    /**
+     * Gets a subscription to the rewards of an area (of encoded messages, ready to be sent), notified only
+     * when they change
+     * @param location the center of the area
+     * @param radius the maximum distance from the center
+     * @param minimumMoney the minimum prize money of the rewards
+     * @return The subscription
+     */
+    public SubscribableQueue<List<ByteBuffer>>.Subscription getRewardSubscription(Location location, int radius,
+                                                                            int minimumMoney) {
+        return this.rewards.getSubscription(new GeofenceIndex.Geofence(location, radius, minimumMoney));
+    }
+
+    /**
+     * Sets how many notifications subscribers may lag behind, and what to do with the ones lagging further
+     * @param maximumRetained the maximum number of notifications a subscriber may lag behind
+     * @param policy what to do with the subscribers lagging further behind
+     */
+    public void setNotificationRetention(long maximumRetained, SubscribableQueue.Policy policy) {
+        this.rewards.setRetention(maximumRetained, policy);
+    }
+
     /**
      * Logs a user in the system
      *
@@ -111,29 +207,128 @@ public class ServerFacade {
      * Gets all free scooters within a certain distance of the given location
      *
      * @param location the location to center the search around
-     * @return all free scooters within a certain distance of the given location
+     * @return all free scooters within a certain distance of the given location ((packed) location
+     * and number of scooters per location)
+     *
+     * @see Location#pack(int, int)
      */
-    public Map<Location, Integer> getFreeScootersInDistance(Location location) {
+    public LongIntHashMap getFreeScootersInDistance(Location location) {
         scooters.lockLocation(location, false);
         try  {
-            Map<Location, Integer> ans = scooters.getFreeScootersInRange(location);
+            LongIntHashMap ans = scooters.getFreeScootersInRange(location);
             return ans;
         } finally {
             scooters.unlockLocation(location, false);
         }
     }
 
-    public Set<Reward> getRewardsInDistance(Location location) {
-        rewards.readLock().lock();
+    /**
+     * Gets the (encoded) response to a query for the free scooters within a certain distance of the given location.
+     * If an identical query was answered since none of the chunks it covers changed, its encoded response is
+     * reused, without locking nor searching anything
+     *
+     * @param location the location to center the search around
+     * @param variant the kind of response (responses of different kinds are cached apart)
+     * @param respond builds the response from the location and the free scooters within a certain distance
+     *                of it ((packed) location and number of scooters per location)
+     * @return the encoded response, to be sent as is
+     * @throws IOException if the response could not be encoded
+     *
+     * @see ResponseCache
+     * @see common.ITaggedConnection#send(int, ByteBuffer)
+     */
+    public ByteBuffer getFreeScootersResponse(Location location, int variant,
+                                              BiFunction<Location, LongIntHashMap, Message> respond)
+            throws IOException {
+        ResponseCache.Key key = new ResponseCache.Key(location.pack(), variant);
+        ByteBuffer cached = freeScootersCache.get(key, versions -> scooters.isUnchanged(location, versions));
+        if(cached != null)
+            return cached;
+
+        long[] versions;
+        LongIntHashMap ans;
+        scooters.lockLocation(location, false);
         try {
-            return rewards.getRewards().stream()
-                    .filter(r -> Location.distance(location, r.getStartLocation()) <= D)
-                    .collect(Collectors.toSet());
+            versions = scooters.getVersions(location);
+            ans = scooters.getFreeScootersInRange(location);
         } finally {
-            rewards.readLock().unlock();
+            scooters.unlockLocation(location, false);
         }
+
+        ByteBuffer encoded = Frames.encodeShared(respond.apply(location, ans));
+        freeScootersCache.put(key, versions, encoded);
+        return encoded;
     }
 
+    /**
+     * Gets the cache of encoded responses to free scooters queries
+     * @return the cache of encoded responses to free scooters queries
+     */
+    public ResponseCache getFreeScootersCache() {
+        return freeScootersCache;
+    }
+
+    /**
+     * Gets all free scooters within a certain distance of each of the given locations, as a single
+     * consistent view: every chunk needed is locked (once) for the whole batch
+     *
+     * @implNote locations are searched grouped by the chunk they are in, so that consecutive searches
+     * go over the same chunks
+     *
+     * @param locations the locations to center the searches around
+     * @return all free scooters within a certain distance of each location, in the same order as the
+     * locations ((packed) location and number of scooters per location)
+     *
+     * @see Location#pack(int, int)
+     */
+    public List<LongIntHashMap> getFreeScootersInDistance(List<Location> locations) {
+        Integer[] order = new Integer[locations.size()];
+        for(int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, Comparator.comparingInt(i -> chunkIndex(locations.get(i))));
+
+        LongIntHashMap[] ans = new LongIntHashMap[order.length];
+        int[] locked = scooters.lockLocations(locations, false);
+        try {
+            for(int i : order)
+                ans[i] = scooters.getFreeScootersInRange(locations.get(i));
+        } finally {
+            scooters.unlockChunks(locked, false);
+        }
+        return Arrays.asList(ans);
+    }
+
+    /**
+     * Gets the index of the chunk containing the given location
+     * @param l the given location
+     * @return the index (i * numberChunks + j) of the chunk containing the given location
+     */
+    private static int chunkIndex(Location l) {
+        return (l.getX() / (2 * D)) * (N / (2 * D)) + l.getY() / (2 * D);
+    }
+
+    /**
+     * Gets all rewards starting within a certain distance of the given location
+     * @param location the location to center the search around
+     * @return all rewards starting within a certain distance of the given location
+     */
+    public Set<Reward> getRewardsInDistance(Location location) {
+        return rewards.getSnapshot().getRewardsInRange(location);
+    }
+
+    /**
+     * Gets the current snapshot of the rewards
+     *
+     * @implNote never blocks
+     *
+     * @return the current snapshot of the rewards
+     */
+    public RewardSnapshot getRewardSnapshot() {
+        return rewards.getSnapshot();
+    }
+
+
+
     /**
      * Reserves the scooter closest to the given location
      *
@@ -144,23 +339,20 @@ public class ServerFacade {
      * @return the reservation of the scooter
      */
     public Reservation reserveScooter(String user, Location location) {
-
-        reservations.writeLock().lock();
+        Location l;
         scooters.lockLocation(location, true);
-        try  {
-            Location l;
-            try {
-                l = scooters.reserveScooter(location);
-            } finally {
-                scooters.unlockLocation(location, true);
-            }
-            Reservation ans = new Reservation(reservations.getNumberReservations(), user, l, LocalDateTime.now());
-            reservations.addReservation(ans);
-            runRewards.run();
-            return ans;
+        try {
+            l = scooters.reserveScooter(location);
         } finally {
-            reservations.writeLock().unlock();
+            scooters.unlockLocation(location, true);
         }
+
+        Reservation ans = new Reservation(reservations.nextId(), user, l, LocalDateTime.now());
+        reservations.addReservation(ans);
+
+        //Triggered without any lock held, so that the generator never delays reservations
+        runRewards.run();
+        return ans;
     }
 
     /**
@@ -172,111 +364,125 @@ public class ServerFacade {
      */
     public int endReservation(String user, int id, Location location) {
         int cost = -1;
-        Reservation r;
-        reservations.readLock().lock();
-        rewards.writeLock().lock();
-        try {
-            r = reservations.getReservation(id);
-            if(r != null) {
-                r.lock();
-
-                try {
-                    // Only the user who started the reservation can end it
-                    // and the reservation must not already have been
-                    // terminated
-                    if(r.getUser().equals(user) && !r.hasTerminated()) {
-                        r.terminate(location);
-                        cost = r.getCost();
-
-                        Reward rw = rewards.isApplicable(r.getStartLocation(), r.getEndLocation());
-
-                        if(rw != null) {
-                            cost -= rw.getMoney();
-                            rewards.remove(rw);
-                        }
-
-                        scooters.lockLocation(location, true);
-                        try {
-                            scooters.freeScooter(location);
-                        } finally {
-                            scooters.unlockLocation(location, true);
-                        }
-
-                        runRewards.run();
+        boolean ended = false;
+        Reservation r = reservations.getReservation(id);
+        if(r != null) {
+            r.lock();
+
+            try {
+                // Only the user who started the reservation can end it
+                // and the reservation must not already have been
+                // terminated
+                if(r.getUser().equals(user) && !r.hasTerminated()) {
+                    r.terminate(location);
+                    cost = r.getCost();
+                    ended = true;
+
+                    Reward rw = rewards.isApplicable(r.getStartLocation(), r.getEndLocation());
+
+                    //The reward may be replaced by the generator meanwhile, in which case it is no longer applicable
+                    if(rw != null && rewards.claim(rw)) {
+                        cost -= rw.getMoney();
+                        engine.invalidate(rw.getStartLocation().getX(), rw.getStartLocation().getY());
+                    }
+
+                    scooters.lockLocation(location, true);
+                    try {
+                        scooters.freeScooter(location);
+                    } finally {
+                        scooters.unlockLocation(location, true);
                     }
-                } finally {
-                    r.unlock();
                 }
+            } finally {
+                r.unlock();
             }
-            return cost;
-        } finally {
-            reservations.readLock().unlock();
-            rewards.writeLock().unlock();
         }
+
+        if(ended)
+            runRewards.run();
+        return cost;
     }
 
     /**
      * Generates all the rewards in the system
      *
+     * @implNote only the rewards starting in locations whose scooters changed, and the ones ending in
+     * locations which are no longer empty, are generated again
+     *
      * @see Reward
+     * @see IRewardEngine
      */
     public void generateRewards(int d) {
-        //We use lists because having order will be useful in the end
-        //when we randomly pick the index of the end location of a reward
-        List<Location> emptyLocations = new ArrayList<>();
-        List<Location> fullLocations = new ArrayList<>();
-
-        scooters.lockEverything(false);
-        rewards.writeLock().lock();
+        generationLock.lock();
         try {
-            try {
-                Map<Location, Integer> sc = scooters.getAllScooters();
-                for(Map.Entry<Location, Integer> kv: sc.entrySet()) {
-                    if(kv.getValue() > 1) {
-                        fullLocations.add(kv.getKey());
-                    }
+            engine.refresh(scooters);
+            boolean changed = rewards.drainClaimed();
+
+            //The next snapshot is planned from the current one, which readers keep using meanwhile
+            RewardSnapshot base = rewards.getSnapshot();
+            List<Location> removed = new ArrayList<>();
+            List<Reward> added = new ArrayList<>();
+
+            for(long l : engine.drainChangedLocations()) {
+                Location start = Location.unpack(l);
+                if(!engine.isFull(start.getX(), start.getY())) {
+                    if(base.get(start) != null)
+                        removed.add(start);
+                    unplannedStarts.remove(start);
+                } else if(base.get(start) == null) {
+                    unplannedStarts.add(start);
                 }
+            }
 
-                for(int i = 0; i < N; i++) {
-                    for(int j = 0; j < N; j++) {
-                        if(scooters.getFreeScootersInRange(new Location(i,j)).size() == 0) {
-                            emptyLocations.add(new Location(i,j));
-                        }
-                    }
+            if(engine.drainEmptyLocationsLost()) {
+                Set<Location> removedStarts = new HashSet<>(removed);
+                for(Reward r : base.getRewards()) {
+                    Location start = r.getStartLocation();
+                    //The rewards of the starts which changed were already handled above
+                    if(removedStarts.contains(start)
+                            || engine.isEmpty(r.getEndLocation().getX(), r.getEndLocation().getY()))
+                        continue;
+
+                    removed.add(start);
+                    if(engine.isFull(start.getX(), start.getY()))
+                        unplannedStarts.add(start);
                 }
-            } finally {
-                scooters.unlockEverything(false);
             }
 
-            Set<Reward> r = generateRewards(emptyLocations, fullLocations);
-            rewards.replaceAll(r);
-            System.out.println("Generated " + rewards.size() + " rewards");
+            Iterator<Location> it = unplannedStarts.iterator();
+            while(it.hasNext()) {
+                Reward r = generateReward(it.next());
+                if(r == null)
+                    break;
+
+                added.add(r);
+                it.remove();
+            }
+
+            if(changed || !removed.isEmpty() || !added.isEmpty()) {
+                RewardSnapshot next = rewards.update(removed, added);
+                rewards.publish();
+                System.out.println("Generated " + next.size() + " rewards (maximum notification lag: "
+                        + rewards.getMaximumLag() + ")");
+            }
         } finally {
-            rewards.writeLock().unlock();
+            generationLock.unlock();
         }
     }
 
     /**
-     * Generates the rewards given the list of empty and full locations
-     *
-     * Only one reward per full location will be generated, for performance reasons
-     *
-     * @param emptyLocations the locations where there are no scooters in range
-     * @param fullLocations the locations where there are multiple scooters parked
-     * @return the set of generated rewards
-     */
-    private Set<Reward> generateRewards(List<Location> emptyLocations, List<Location> fullLocations) {
-        Set<Reward> ans = new HashSet<>();
-        Random rnd = new Random();
-        for(Location x : fullLocations) {
-            int i = rnd.nextInt(emptyLocations.size());
-            //Pick a random prize money for the reward in the range
-            //[Reward.minimumPrize, Reward.maximumPrize]
-            int money = rnd.nextInt(Reward.maximumPrize - Reward.minimumPrize) + Reward.minimumPrize;
-            ans.add(new Reward(x, emptyLocations.get(i), money));
-
-        }
-
-        return ans;
+     * Generates a reward from the given full location to a random empty location
+     * @param start the start location of the reward
+     * @return the generated reward (null if there are no empty locations)
+     */
+    private Reward generateReward(Location start) {
+        Location end = engine.randomEmptyLocation(rnd);
+        if(end == null)
+            return null;
+
+        //Pick a random prize money for the reward in the range
+        //[Reward.minimumPrize, Reward.maximumPrize]
+        int money = rnd.nextInt(Reward.maximumPrize - Reward.minimumPrize) + Reward.minimumPrize;
+        return new Reward(start, end, money);
     }
 }
@@ -1,119 +1,533 @@
 package server;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.Queue;
-import java.util.concurrent.locks.*;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 
 /**
  * A queue which allows for several threads to subscribe and read independently
  * The queue itself is implemented as a linked list
  *
+ * @implNote Lock free. The list is an append-only log: pushing links new nodes after the last one with a
+ * compare-and-set, and subscribers advance over it reading the (volatile) links, never blocking each other
+ * nor the pushers. Only subscribers waiting for an element are woken up, each one individually: the pusher
+ * wakes up the first one, which then wakes up the next, and so on
+ *
+ * As a subscription keeps every element after the one it is reading, the queue can limit how far behind the
+ * last pushed element each subscription may fall: whenever an element is pushed, subscriptions lagging further
+ * behind are handled according to their {@link Policy}, so that a stalled subscriber never retains more than
+ * that many elements. All subscriptions are only checked once the oldest position any of them may be at falls
+ * that far behind (and the ones dropping the oldest elements, once kept at the limit, on every push). If the elements only make sense in order (such as changes), a catch-up element can be
+ * set instead: subscriptions lagging behind then skip every element pushed, and read the catch-up one first
+ *
  * @param <T> The type of the elements of the queue
  */
 public class SubscribableQueue<T> {
+    /**
+     * What to do with a subscription lagging behind more elements than the queue retains
+     */
+    public enum Policy {
+        /**
+         * Skip every element but the last one (for elements which supersede all the previous ones)
+         */
+        CONFLATE,
+
+        /**
+         * Skip the oldest elements, keeping only as many as the queue retains
+         */
+        DROP_OLDEST,
+
+        /**
+         * Close the subscription (marking it as evicted)
+         */
+        DISCONNECT
+    }
 
     /**
      * A node of the queue
      */
-    private class QueueElem {
+    private static class QueueElem<T> {
+        /**
+         * Atomically updates the next node of a node
+         */
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<QueueElem, QueueElem> nextUpdater =
+                AtomicReferenceFieldUpdater.newUpdater(QueueElem.class, QueueElem.class, "next");
+
         /**
          * The element in the node
          */
         private final T elem;
 
+        /**
+         * The position of the node in the queue (the dummy node being 0). Set before linking the node
+         */
+        private long index;
+
         /**
          * The next element in the queue
          * If null, this node is the head of the queue
          */
-        private QueueElem next;
+        private volatile QueueElem<T> next;
 
         /**
          * Creates a new node containing the specified element
          * By default, the created node is a head
-         * @param elem
+         * @param elem the element
          */
         private QueueElem(T elem) {
             this.elem = elem;
         }
+
+        /**
+         * Links a node after this one, unless another one was linked first
+         * @param e the first node to link
+         * @return whether the node was linked
+         */
+        private boolean link(QueueElem<T> e) {
+            return nextUpdater.compareAndSet(this, null, e);
+        }
     }
 
     /**
-     * The lock of the queue. All changes to the structure of the queue are done with this lock acquired
+     * The head of the queue. Is initialized with a dummy node.
+     * Any subscription to the queue starts receiving elements after the head at the time of the subscription
+     *
+     * @implNote may lag behind the actual head while an element is being pushed (any thread finding so
+     * moves it forward)
      */
-    private final Lock lock = new ReentrantLock();
+    private final AtomicReference<QueueElem<T>> head = new AtomicReference<>(new QueueElem<>(null));
 
     /**
-     * Condition used to wake up all awaiting threads when a new element is pushed into the queue
+     * A thread waiting for the next element, in a stack of them
      */
-    private final Condition cond = lock.newCondition();
+    private static final class Waiter {
+        /**
+         * The state of a thread still waiting
+         */
+        private static final int waitingState = 0;
+
+        /**
+         * The state of a thread woken up by a push
+         */
+        private static final int wokenState = 1;
+
+        /**
+         * The state of a thread which stopped waiting by itself (or whose subscription was closed)
+         */
+        private static final int cancelledState = 2;
+
+        /**
+         * The waiting thread
+         */
+        private final Thread thread;
+
+        /**
+         * The state of the thread. Only changed once, from waiting
+         */
+        private final AtomicInteger state;
+
+        /**
+         * The next waiter in the stack
+         */
+        private Waiter next;
+
+        /**
+         * Parameterized constructor
+         * @param thread the waiting thread
+         */
+        private Waiter(Thread thread) {
+            this.thread = thread;
+            this.state = new AtomicInteger(waitingState);
+        }
+
+        /**
+         * Wakes the thread up, if still waiting
+         * @return whether the thread was woken up (and will wake up the rest of the stack)
+         */
+        private boolean wake() {
+            if (!state.compareAndSet(waitingState, wokenState))
+                return false;
+
+            LockSupport.unpark(thread);
+            return true;
+        }
+
+        /**
+         * Stops waiting, unless already woken up
+         * @return whether the thread was still waiting
+         */
+        private boolean cancel() {
+            return state.compareAndSet(waitingState, cancelledState);
+        }
+    }
 
     /**
-     * The head of the queue. Is initialized with a dummy node.
-     * Any subscription to the queue starts receiving elements after the head at the time of the subscription
+     * The stack of threads (about to be) parked waiting for the next element. Pushers take the whole stack at
+     * once, so that threads waiting again after being woken up are left for the next push
      */
-    private QueueElem head = new QueueElem(null);
+    private final AtomicReference<Waiter> waiting = new AtomicReference<>(null);
+
+    /**
+     * All the open subscriptions
+     */
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The subscriptions checked on every push, as they were kept at the limit of the elements retained (only
+     * the ones dropping the oldest elements), and a lower bound of the position of all the others
+     */
+    private final class Laggards {
+        /**
+         * The position of the subscription furthest behind, other than the laggards, when they were found
+         */
+        private final long oldest;
+
+        /**
+         * The subscriptions kept at the limit of the elements retained when they were found
+         */
+        private final List<Subscription> subscriptions;
+
+        /**
+         * Parameterized constructor
+         * @param oldest the position of the subscription furthest behind, other than the laggards
+         * @param subscriptions the subscriptions kept at the limit of the elements retained
+         */
+        private Laggards(long oldest, List<Subscription> subscriptions) {
+            this.oldest = oldest;
+            this.subscriptions = subscriptions;
+        }
+    }
+
+    /**
+     * The subscriptions lagging behind as of the last time all of them were checked
+     *
+     * @implNote as subscriptions only move forward, no other subscription can lag behind too much until
+     * the last element pushed is further than the limit from the oldest position. New subscriptions start at
+     * the head, so only the ones created while pushing may lag behind a little more before being checked
+     */
+    private volatile Laggards laggards = new Laggards(0, Collections.emptyList());
+
+    /**
+     * The maximum number of elements a subscription may lag behind
+     */
+    private volatile long maximumRetained;
+
+    /**
+     * The policy of the subscriptions created without one
+     */
+    private volatile Policy defaultPolicy;
+
+    /**
+     * Builds the element read by a subscription in place of the ones it skipped (null to keep the ones the
+     * policy keeps)
+     */
+    private volatile Supplier<T> catchUp;
+
+    /**
+     * Default constructor. Subscriptions may lag behind any number of elements
+     */
+    public SubscribableQueue() {
+        this(Long.MAX_VALUE, Policy.DROP_OLDEST);
+    }
+
+    /**
+     * Parameterized constructor
+     * @param maximumRetained the maximum number of elements a subscription may lag behind
+     * @param defaultPolicy the policy of the subscriptions created without one
+     */
+    public SubscribableQueue(long maximumRetained, Policy defaultPolicy) {
+        setRetention(maximumRetained, defaultPolicy);
+    }
+
+    /**
+     * Sets the maximum number of elements a subscription may lag behind, and the policy of the subscriptions
+     * created without one. Only applied to lagging subscriptions on the next push
+     * @param maximumRetained the maximum number of elements a subscription may lag behind (at least 1)
+     * @param defaultPolicy the policy of the subscriptions created without one
+     */
+    public void setRetention(long maximumRetained, Policy defaultPolicy) {
+        if (maximumRetained < 1)
+            throw new IllegalArgumentException("At least one element must be retained");
+
+        this.maximumRetained = maximumRetained;
+        this.defaultPolicy = defaultPolicy;
+    }
+
+    /**
+     * Sets the element read by subscriptions in place of the ones they skipped for lagging behind too much.
+     * Such subscriptions then skip every element pushed (whatever their policy, unless it disconnects them)
+     * @param catchUp builds the element holding every element pushed so far, when read (null to keep the ones
+     *                the policy keeps)
+     */
+    public void setCatchUp(Supplier<T> catchUp) {
+        this.catchUp = catchUp;
+    }
 
     /**
      * Represents a subscription to the queue
+     *
+     * @implNote each subscription is meant to be read by a single thread at a time
      */
     public class Subscription implements Iterable<T>, AutoCloseable {
         /**
-         * The node of the queue currently being read by the subscriber
+         * The node of the queue currently being read by the subscriber (null once cancelled). Only moved
+         * forward with a compare-and-set, so that a cancelled subscription is never read again
+         */
+        private final AtomicReference<QueueElem<T>> iterator;
+
+        /**
+         * The current waiter of the subscription (null if its thread is not waiting)
+         */
+        private volatile Waiter waiter;
+
+        /**
+         * What to do when the subscription lags behind too much
+         */
+        private final Policy policy;
+
+        /**
+         * The number of elements skipped because the subscription lagged behind too much
+         */
+        private final AtomicLong dropped;
+
+        /**
+         * Whether elements were skipped and the catch-up element was not read yet
+         */
+        private final AtomicBoolean behind;
+
+        /**
+         * Whether the subscription was closed for lagging behind too much
+         */
+        private volatile boolean evicted;
+
+        /**
+         * Run (once) when the subscription is evicted (null if there is nothing to run)
          */
-        private QueueElem iterator;
+        private final AtomicReference<Runnable> onEvicted;
 
         /**
          * Creates a new subscription
+         * @param policy what to do when the subscription lags behind too much
          */
-        private Subscription() {
-            lock.lock();
-            try {
-                iterator = head;
-            } finally {
-                lock.unlock();
-            }
+        private Subscription(Policy policy) {
+            iterator = new AtomicReference<>(getHead());
+            waiter = null;
+            this.policy = policy;
+            this.dropped = new AtomicLong(0);
+            this.behind = new AtomicBoolean(false);
+            this.evicted = false;
+            this.onEvicted = new AtomicReference<>(null);
         }
 
         /**
          * Closes the subscription. This releases the iterator held by the subscription,
          * allowing the garbage collector to catch unused nodes of the queue
-         * TODO: signal only this subscription instead of all
          */
         @Override
         public void close() {
-            lock.lock();
-            try {
-                if (iterator != null) {
-                    iterator = null;
-                    cond.signalAll();
-                }
-            } finally {
-                lock.unlock();
-            }
+            iterator.set(null);
+            subscriptions.remove(this);
+
+            Waiter w = waiter;
+            if (w != null && w.cancel())
+                LockSupport.unpark(w.thread);
         }
 
         /**
          * Asynchronously retrieves the next element of the queue.
-         * If the subscription is cancelled, returns null instead.
+         * If the subscription is cancelled, or the thread is interrupted while waiting, returns null instead
+         * (keeping the thread interrupted), which ends the iteration.
+         *
+         * @implNote a thread woken up by a push wakes up the next waiting one, before reading anything, so that
+         * the pusher itself only ever wakes up a single thread
+         *
          * @return The next element of the queue or null
          */
         private T getNext() {
-            lock.lock();
+            while (true) {
+                QueueElem<T> it = iterator.get();
+                if (it == null)
+                    return null;
+
+                T missed = readCatchUp(it);
+                if (missed != null)
+                    return missed;
+
+                QueueElem<T> next = it.next;
+                if (next != null) {
+                    if (iterator.compareAndSet(it, next))
+                        return next.elem;
+                    continue;
+                }
+
+                Waiter w = new Waiter(Thread.currentThread());
+                waiter = w;
+                addWaiting(w);
+
+                //Checked again after registering, so that a push either is seen here or wakes this thread up
+                if (it.next == null && iterator.get() == it) {
+                    while (w.state.get() == Waiter.waitingState && !Thread.currentThread().isInterrupted())
+                        LockSupport.park(this);
+                }
 
-            try {
-                while (iterator != null && iterator.next == null)
-                    cond.await();
+                waiter = null;
+                if (!w.cancel() && w.state.get() == Waiter.wokenState)
+                    wakeAll(w.next);
 
-                if (iterator == null)
+                if (Thread.currentThread().isInterrupted())
                     return null;
+            }
+        }
+
+        /**
+         * Retrieves the next element of the queue without blocking.
+         * @return The next element of the queue, or null if there is none yet or the subscription is cancelled
+         */
+        public T poll() {
+            QueueElem<T> it = iterator.get();
+            if (it == null)
+                return null;
+
+            T missed = readCatchUp(it);
+            if (missed != null)
+                return missed;
+
+            QueueElem<T> next = it.next;
+            if (next == null || !iterator.compareAndSet(it, next))
+                return null;
+            return next.elem;
+        }
 
-                iterator = iterator.next;
-                return iterator.elem;
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            } finally {
-                lock.unlock();
+        /**
+         * Builds the catch-up element, if elements were skipped since it was last read, and skips the elements
+         * pushed until then (which it holds)
+         * @param it the node currently being read
+         * @return the catch-up element (null if nothing was skipped, or there is none)
+         */
+        private T readCatchUp(QueueElem<T> it) {
+            if (!behind.get() || !behind.compareAndSet(true, false))
+                return null;
+
+            Supplier<T> c = catchUp;
+            if (c == null)
+                return null;
+
+            //The head is taken before building the element, so that it holds every element up to it
+            QueueElem<T> h = getHead();
+            T ans = c.get();
+            if (ans != null && iterator.compareAndSet(it, h))
+                dropped.addAndGet(h.index - it.index);
+            return ans;
+        }
+
+        /**
+         * Gets whether the subscription has been cancelled
+         * @return whether the subscription has been cancelled
+         */
+        public boolean isClosed() {
+            return iterator.get() == null;
+        }
+
+        /**
+         * Gets whether the subscription was closed for lagging behind too much
+         * @return whether the subscription was closed for lagging behind too much
+         */
+        public boolean isEvicted() {
+            return evicted;
+        }
+
+        /**
+         * Sets what to run when the subscription is evicted for lagging behind too much, such as disconnecting
+         * the subscriber (which may be blocked). Run right away if it was already evicted
+         *
+         * @implNote run by the thread pushing the element which caused the eviction, so it should be short
+         *
+         * @param action what to run when the subscription is evicted
+         */
+        public void setOnEvicted(Runnable action) {
+            onEvicted.set(action);
+            if (evicted)
+                runOnEvicted();
+        }
+
+        /**
+         * Runs the action set for when the subscription is evicted, if not run yet
+         */
+        private void runOnEvicted() {
+            Runnable r = onEvicted.getAndSet(null);
+            if (r != null)
+                r.run();
+        }
+
+        /**
+         * Gets the number of elements pushed and not yet read by the subscription
+         * @return the number of elements pushed and not yet read (0 if the subscription is cancelled)
+         */
+        public long getLag() {
+            QueueElem<T> it = iterator.get();
+            return it == null ? 0 : head.get().index - it.index;
+        }
+
+        /**
+         * Gets the number of elements skipped because the subscription lagged behind too much
+         * @return the number of elements skipped
+         */
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        /**
+         * Gets the policy of the subscription
+         * @return what to do when the subscription lags behind too much
+         */
+        public Policy getPolicy() {
+            return policy;
+        }
+
+        /**
+         * Applies the policy of the subscription if it lags behind too much
+         * @param last the last node pushed
+         * @param maximum the maximum number of elements the subscription may lag behind
+         * @return the position the subscription is at afterwards (-1 if it is cancelled)
+         */
+        private long enforce(QueueElem<T> last, long maximum) {
+            while (true) {
+                QueueElem<T> it = iterator.get();
+                if (it == null || last.index - it.index <= maximum)
+                    return it == null ? -1 : it.index;
+
+                if (policy == Policy.DISCONNECT) {
+                    evicted = true;
+                    close();
+                    runOnEvicted();
+                    return -1;
+                }
+
+                //Moved forward just like reading, so it either wins over the subscriber or is tried again
+                Supplier<T> c = catchUp;
+                long skip = last.index - it.index - (c != null ? 0 : policy == Policy.CONFLATE ? 1 : maximum);
+                QueueElem<T> target = it;
+                for (long i = 0; i < skip; i++)
+                    target = target.next;
+
+                if (iterator.compareAndSet(it, target)) {
+                    dropped.addAndGet(skip);
+                    //Set after skipping, so that the catch-up element is built after (and holds) every element skipped
+                    if (c != null)
+                        behind.set(true);
+                    return target.index;
+                }
             }
         }
 
@@ -150,12 +564,58 @@ public class SubscribableQueue<T> {
         }
     }
 
+    /**
+     * Gets the maximum number of elements a subscription may lag behind
+     * @return the maximum number of elements a subscription may lag behind
+     */
+    public long getMaximumRetained() {
+        return maximumRetained;
+    }
+
+    /**
+     * Gets the policy of the subscriptions created without one
+     * @return the policy of the subscriptions created without one
+     */
+    public Policy getDefaultPolicy() {
+        return defaultPolicy;
+    }
+
     /**
      * Returns a new subscription to the queue
      * @return A new subscription to the queue
      */
     public Subscription getSubscription() {
-        return new Subscription();
+        return getSubscription(defaultPolicy);
+    }
+
+    /**
+     * Returns a new subscription to the queue
+     * @param policy what to do when the subscription lags behind too much
+     * @return A new subscription to the queue
+     */
+    public Subscription getSubscription(Policy policy) {
+        Subscription ans = new Subscription(policy);
+        subscriptions.add(ans);
+        return ans;
+    }
+
+    /**
+     * Gets the number of open subscriptions
+     * @return the number of open subscriptions
+     */
+    public int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Gets the lag of the subscription furthest behind
+     * @return the largest number of elements pushed and not yet read by a subscription
+     */
+    public long getMaximumLag() {
+        long ans = 0;
+        for (Subscription s : subscriptions)
+            ans = Math.max(ans, s.getLag());
+        return ans;
     }
 
     /**
@@ -166,16 +626,8 @@ public class SubscribableQueue<T> {
         if (elem == null)
             throw new IllegalArgumentException("The element cannot be null");
 
-        QueueElem e = new QueueElem(elem);
-
-        lock.lock();
-        try {
-            head.next = e;
-            head = e;
-            cond.signalAll();
-        } finally {
-            lock.unlock();
-        }
+        QueueElem<T> e = new QueueElem<>(elem);
+        append(e, e);
     }
 
     /**
@@ -184,14 +636,14 @@ public class SubscribableQueue<T> {
      * @param elems the elements
      */
     public void pushAll(Iterable<T> elems) {
-        QueueElem first = null;
-        QueueElem last = null;
+        QueueElem<T> first = null;
+        QueueElem<T> last = null;
 
         for (T elem : elems) {
             if (elem == null)
                 throw new IllegalArgumentException("The elements cannot be null");
 
-            QueueElem e = new QueueElem(elem);
+            QueueElem<T> e = new QueueElem<>(elem);
 
             if (first == null)
                 first = e;
@@ -202,13 +654,94 @@ public class SubscribableQueue<T> {
             last = e;
         }
 
-        lock.lock();
-        try {
-            head.next = first;
-            head = last;
-            cond.signalAll();
-        } finally {
-            lock.unlock();
+        if (first != null)
+            append(first, last);
+    }
+
+    /**
+     * Links a chain of nodes after the head of the queue, and wakes up the waiting subscribers
+     * @param first the first node of the chain
+     * @param last the last node of the chain
+     */
+    private void append(QueueElem<T> first, QueueElem<T> last) {
+        while (true) {
+            QueueElem<T> h = getHead();
+            long index = h.index;
+            for (QueueElem<T> e = first; e != null; e = e.next)
+                e.index = ++index;
+
+            if (h.link(first)) {
+                head.compareAndSet(h, last);
+                break;
+            }
+        }
+
+        wakeAll(waiting.getAndSet(null));
+
+        long maximum = maximumRetained;
+        Laggards l = laggards;
+        if (last.index - l.oldest > maximum)
+            laggards = enforceAll(last, maximum);
+        else {
+            for (Subscription s : l.subscriptions)
+                s.enforce(last, maximum);
+        }
+    }
+
+    /**
+     * Applies the policy of every subscription lagging behind too much, and finds the subscriptions to check
+     * on every push from now on
+     * @param last the last node pushed
+     * @param maximum the maximum number of elements a subscription may lag behind
+     * @return the subscriptions kept at the limit, and the oldest position of the others
+     */
+    private Laggards enforceAll(QueueElem<T> last, long maximum) {
+        long oldest = last.index;
+        List<Subscription> kept = new ArrayList<>();
+        for (Subscription s : subscriptions) {
+            long index = s.enforce(last, maximum);
+            if (index < 0)
+                continue;
+
+            if (s.policy == Policy.DROP_OLDEST && catchUp == null && last.index - index >= maximum)
+                kept.add(s);
+            else
+                oldest = Math.min(oldest, index);
+        }
+        return new Laggards(oldest, kept);
+    }
+
+    /**
+     * Wakes up the first thread still waiting in a stack, which then wakes up the rest of it
+     * @param w the top of the stack
+     */
+    private static void wakeAll(Waiter w) {
+        while (w != null && !w.wake())
+            w = w.next;
+    }
+
+    /**
+     * Adds a thread to the stack of the waiting ones
+     * @param w the waiter of the thread
+     */
+    private void addWaiting(Waiter w) {
+        do {
+            w.next = waiting.get();
+        } while (!waiting.compareAndSet(w.next, w));
+    }
+
+    /**
+     * Gets the actual head of the queue, moving the (lagging) reference to it forward if needed
+     * @return the head of the queue
+     */
+    private QueueElem<T> getHead() {
+        while (true) {
+            QueueElem<T> h = head.get();
+            QueueElem<T> next = h.next;
+            if (next == null)
+                return h;
+
+            head.compareAndSet(h, next);
         }
     }
 }
@@ -1,18 +1,13 @@
 package server.messageHandling;
 
-import common.Notification;
+import common.registry.Handles;
 import common.TaggedConnection;
 import common.messages.*;
 import server.ClientHandler;
 import server.ServerFacade;
-import server.SubscribableQueue;
 
+@Handles(CancelNotificationsRequest.class)
 public class CancelNotificationsHandler implements IMessageHandler {
-    //Register the class in the super class, as to allow for deserialization
-    static {
-        ClientHandler.registerHandler(CancelNotificationsRequest.class, new CancelNotificationsHandler());
-    }
-
     /**
      * Method responsible for processing the request and computing the response of the server
      * @param facade the facade of the server
@@ -26,9 +21,15 @@ public class CancelNotificationsHandler implements IMessageHandler {
             return new NotAuthenticatedResponse();
         }
 
-        if (state.subscription != null) {
-            state.subscription.close();
-            state.subscription = null;
+        //A subscription may be processed concurrently
+        state.lock.lock();
+        try {
+            if (state.subscription != null) {
+                state.subscription.close();
+                state.subscription = null;
+            }
+        } finally {
+            state.lock.unlock();
         }
 
         return null;
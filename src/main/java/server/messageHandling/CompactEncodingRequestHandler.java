@@ -0,0 +1,34 @@
+package server.messageHandling;
+
+import common.registry.Handles;
+import common.TaggedConnection;
+import common.messages.CompactEncodingRequest;
+import common.messages.CompactEncodingResponse;
+import common.messages.Message;
+import server.ClientHandler;
+import server.ServerFacade;
+
+/**
+ * A class implementing a handler for {@link, common.messages.CompactEncodingRequest}
+ */
+@Handles(CompactEncodingRequest.class)
+public class CompactEncodingRequestHandler implements IMessageHandler {
+    /**
+     * Method responsible for processing the request and computing the response of the server
+     * @param facade the facade of the server
+     * @param frame the incoming request
+     * @param state the connection state
+     * @return the appropriate response
+     */
+    @Override
+    public Message processMessage(ServerFacade facade, TaggedConnection.Frame frame, ClientHandler.State state) {
+        Message message = frame.getMessage();
+        if(!(message instanceof CompactEncodingRequest))
+            throw new RuntimeException("Cannot process messages other than compact encoding requests");
+
+        CompactEncodingRequest request = (CompactEncodingRequest)message;
+        state.compactEncoding = request.isEnabled();
+
+        return new CompactEncodingResponse(state.compactEncoding);
+    }
+}
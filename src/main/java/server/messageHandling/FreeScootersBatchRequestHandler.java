@@ -0,0 +1,35 @@
+package server.messageHandling;
+
+import common.registry.Handles;
+import common.TaggedConnection;
+import common.messages.*;
+import server.ClientHandler;
+import server.ServerFacade;
+
+/**
+ * A class implementing a handler for {@link, common.messages.FreeScootersBatchRequest}
+ */
+@Handles(FreeScootersBatchRequest.class)
+public class FreeScootersBatchRequestHandler implements IMessageHandler {
+    /**
+     * Method responsible for processing the request and computing the response of the server
+     * @param facade the facade of the server
+     * @param frame the incoming request
+     * @param state the connection state
+     * @return the appropriate response
+     */
+    @Override
+    public Message processMessage(ServerFacade facade, TaggedConnection.Frame frame, ClientHandler.State state) {
+        Message message = frame.getMessage();
+        if(!(message instanceof FreeScootersBatchRequest))
+            throw new RuntimeException("Cannot process messages other than free scooters batch requests");
+
+        if(state.currentUser == null) {
+            return new NotAuthenticatedResponse();
+        }
+
+        FreeScootersBatchRequest request = (FreeScootersBatchRequest)message;
+
+        return new FreeScootersBatchResponse(facade.getFreeScootersInDistance(request.getLocations()));
+    }
+}
@@ -1,5 +1,7 @@
 package server.messageHandling;
 
+import common.registry.Handles;
+import common.Frames;
 import common.Location;
 import common.TaggedConnection;
 import common.User;
@@ -7,24 +9,22 @@ import common.messages.*;
 import server.ClientHandler;
 import server.ServerFacade;
 
-import java.util.Map;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.util.function.Consumer;
 
 /**
  * A class implementing a handler for {@link, common.messages.FreeScootersWithinDistanceRequest}
  */
+@Handles(FreeScootersWithinDistanceRequest.class)
 public class FreeScootersWithinDistanceRequestHandler implements IMessageHandler {
-    //Register the class in the super class, as to allow for deserialization
-    static {
-        ClientHandler.registerHandler(FreeScootersWithinDistanceRequest.class, new FreeScootersWithinDistanceRequestHandler());
-    }
-
     /**
      * Method responsible for processing the request and computing the response of the server
      * @param facade the facade of the server
      * @param frame the incoming request
      * @param state the connection state
-     * @return the appropriate response
+     * @return the appropriate response (null if it was already sent)
      */
     @Override
     public Message processMessage(ServerFacade facade, TaggedConnection.Frame frame, ClientHandler.State state) {
@@ -38,9 +38,20 @@ public class FreeScootersWithinDistanceRequestHandler implements IMessageHandler
 
         FreeScootersWithinDistanceRequest request = (FreeScootersWithinDistanceRequest)message;
 
-        Map<Location, Integer> ans = facade.getFreeScootersInDistance(request.getLocation());
-
-        FreeScootersWithinDistanceResponse response = new FreeScootersWithinDistanceResponse(ans);
-        return response;
+        //Responses are served from a cache of encoded ones, apart for each encoding, and sent as they are
+        boolean compact = state.compactEncoding;
+        try {
+            ByteBuffer response = facade.getFreeScootersResponse(request.getLocation(), compact ? 1 : 0,
+                    (l, ans) -> compact
+                            ? new CompactFreeScootersWithinDistanceResponse(l, ans)
+                            : new FreeScootersWithinDistanceResponse(ans));
+            state.connection.send(frame.getTag(), response);
+        } catch (Frames.TooLargeException e) {
+            return new ResponseTooLargeResponse();
+        } catch (IOException e) {
+            //Closes the connection, as the response could not be sent
+            throw new UncheckedIOException(e);
+        }
+        return null;
     }
 }
@@ -0,0 +1,39 @@
+package server.messageHandling;
+
+import common.registry.Handles;
+import common.TaggedConnection;
+import common.messages.*;
+import server.ClientHandler;
+import server.ServerFacade;
+
+/**
+ * A class implementing a handler for {@link common.messages.GeofencedNotificationsRequest}
+ */
+@Handles(GeofencedNotificationsRequest.class)
+public class GeofencedNotificationsHandler implements IMessageHandler {
+    /**
+     * Method responsible for processing the request and computing the response of the server
+     * @param facade the facade of the server
+     * @param frame the incoming request
+     * @param state the connection state
+     * @return the appropriate response
+     */
+    @Override
+    public Message processMessage(ServerFacade facade, TaggedConnection.Frame frame, ClientHandler.State state) {
+        Message message = frame.getMessage();
+        if(!(message instanceof GeofencedNotificationsRequest))
+            throw new RuntimeException("Cannot process messages other than geofenced notifications requests");
+
+        if(state.currentUser == null) {
+            return new NotAuthenticatedResponse();
+        }
+
+        GeofencedNotificationsRequest request = (GeofencedNotificationsRequest)message;
+        if(request.getRadius() < 0)
+            return new InvalidRequestResponse("Invalid radius: " + request.getRadius());
+
+        SendNotificationsHandler.subscribe(state, frame.getTag(), () -> facade.getRewardSubscription(
+                request.getLocation(), request.getRadius(), request.getMinimumMoney()));
+        return null;
+    }
+}
@@ -10,8 +10,8 @@ import java.util.function.Consumer;
 
 /**
  * A functional interface for handling of incoming messages. Each class implementing this interface is
- * responsible for handling a single type of request. That class should register itself to the
- * {@link, server.ClientHandler} class, so the type of request can be processed.
+ * responsible for handling a single type of request. That class should be annotated with
+ * {@link common.registry.Handles}, so the type of request can be processed (see {@link HandlerTable}).
  */
 @FunctionalInterface
 public interface IMessageHandler {
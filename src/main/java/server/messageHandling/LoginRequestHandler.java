@@ -1,5 +1,6 @@
 package server.messageHandling;
 
+import common.registry.Handles;
 import common.TaggedConnection;
 import common.User;
 import common.messages.LoginRequest;
@@ -12,12 +13,8 @@ import java.util.function.Consumer;
 /**
  * A class implementing a handler for {@link, common.messages.LoginRequest}
  */
+@Handles(LoginRequest.class)
 public class LoginRequestHandler implements IMessageHandler {
-    //Register the class in the super class, as to allow for deserialization
-    static {
-        ClientHandler.registerHandler(LoginRequest.class, new LoginRequestHandler());
-    }
-
     /**
      * Method responsible for processing the request and computing the response of the server
      * @param facade the facade of the server
@@ -1,5 +1,6 @@
 package server.messageHandling;
 
+import common.registry.Handles;
 import common.TaggedConnection;
 import common.User;
 import common.messages.*;
@@ -11,12 +12,8 @@ import java.util.function.Consumer;
 /**
  * A class implementing a handler for {@link, common.messages.RegistrationRequest}
  */
+@Handles(RegistrationRequest.class)
 public class RegistrationRequestHandler implements IMessageHandler {
-    //Register the class in the super class, as to allow for deserialization
-    static {
-        ClientHandler.registerHandler(RegistrationRequest.class, new RegistrationRequestHandler());
-    }
-
     /**
      * Method responsible for processing the request and computing the response of the server
      * @param facade the facade of the server
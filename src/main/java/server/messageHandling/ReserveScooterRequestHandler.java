@@ -1,5 +1,6 @@
 package server.messageHandling;
 
+import common.registry.Handles;
 import common.Reservation;
 import common.TaggedConnection;
 import common.User;
@@ -12,12 +13,8 @@ import java.util.function.Consumer;
 /**
  * A class implementing a handler for {@link, common.messages.RegistrationRequest}
  */
+@Handles(ReserveScooterRequest.class)
 public class ReserveScooterRequestHandler implements IMessageHandler {
-    //Register the class in the super class, as to allow for deserialization
-    static {
-        ClientHandler.registerHandler(ReserveScooterRequest.class, new ReserveScooterRequestHandler());
-    }
-
     /**
      * Method responsible for processing the request and computing the response of the server
      * @param facade the facade of the server
@@ -1,19 +1,18 @@
 package server.messageHandling;
 
+import common.registry.Handles;
 import common.Reservation;
 import common.Reward;
 import common.TaggedConnection;
 import common.messages.*;
 import server.ClientHandler;
+import server.RewardSnapshot;
 import server.ServerFacade;
 
 import java.util.Set;
 
+@Handles(RewardsWithinDistanceRequest.class)
 public class RewardsWithinDistanceRequestHandler implements IMessageHandler {
-    static {
-        ClientHandler.registerHandler(RewardsWithinDistanceRequest.class, new RewardsWithinDistanceRequestHandler());
-    }
-
     @Override
     public Message processMessage(ServerFacade facade, TaggedConnection.Frame frame, ClientHandler.State state) {
         Message message = frame.getMessage();
@@ -25,8 +24,13 @@ public class RewardsWithinDistanceRequestHandler implements IMessageHandler {
         }
 
         RewardsWithinDistanceRequest request = (RewardsWithinDistanceRequest)message;
-        Set<Reward> ans = facade.getRewardsInDistance(request.getLocation());
+        RewardSnapshot snapshot = facade.getRewardSnapshot();
+
+        //The client already has the rewards of this version
+        if(request.getKnownVersion() == snapshot.getVersion())
+            return new RewardsWithinDistanceResponse(null, snapshot.getVersion());
 
-        return new RewardsWithinDistanceResponse(ans);
+        Set<Reward> ans = snapshot.getRewardsInRange(request.getLocation());
+        return new RewardsWithinDistanceResponse(ans, snapshot.getVersion());
     }
 }
@@ -1,20 +1,21 @@
 package server.messageHandling;
 
-import common.Notification;
+import common.registry.Handles;
+import common.Threads;
 import common.TaggedConnection;
 import common.messages.*;
 import server.ClientHandler;
+import server.NotificationDispatcher;
 import server.ServerFacade;
 import server.SubscribableQueue;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.Supplier;
 
+@Handles(SendNotificationsRequest.class)
 public class SendNotificationsHandler implements IMessageHandler {
-    //Register the class in the super class, as to allow for deserialization
-    static {
-        ClientHandler.registerHandler(SendNotificationsRequest.class, new SendNotificationsHandler());
-    }
-
     /**
      * Method responsible for processing the request and computing the response of the server
      * @param facade the facade of the server
@@ -24,26 +25,71 @@ public class SendNotificationsHandler implements IMessageHandler {
      */
     @Override
     public Message processMessage(ServerFacade facade, TaggedConnection.Frame frame, ClientHandler.State state) {
-        Message message = frame.getMessage();
         if(state.currentUser == null) {
             return new NotAuthenticatedResponse();
         }
 
-        if (state.subscription == null) {
-            SubscribableQueue<Notification>.Subscription sub = facade.getRewardSubscription();
-            state.subscription = sub;
+        //The notifications only hold the changes, so the client first gets all the rewards
+        subscribe(state, frame.getTag(), facade::getRewardSubscription, facade::getRewardSnapshotNotification);
+        return null;
+    }
+
+    /**
+     * Subscribes a client to notifications (unless it already is) and starts sending them
+     * @param state the connection state
+     * @param tag the tag to send the notifications with
+     * @param subscribe gets the subscription to the notifications
+     */
+    static void subscribe(ClientHandler.State state, int tag,
+                          Supplier<SubscribableQueue<List<ByteBuffer>>.Subscription> subscribe) {
+        subscribe(state, tag, subscribe, () -> null);
+    }
+
+    /**
+     * Subscribes a client to notifications (unless it already is) and starts sending them, after a first one
+     * @param state the connection state
+     * @param tag the tag to send the notifications with
+     * @param subscribe gets the subscription to the notifications
+     * @param initial gets the notification to send first (null if none), once subscribed
+     */
+    static void subscribe(ClientHandler.State state, int tag,
+                          Supplier<SubscribableQueue<List<ByteBuffer>>.Subscription> subscribe,
+                          Supplier<List<ByteBuffer>> initial) {
+        //A cancellation may be processed concurrently
+        state.lock.lock();
+        try {
+            if (state.subscription == null) {
+                SubscribableQueue<List<ByteBuffer>>.Subscription sub = subscribe.get();
+                state.subscription = sub;
+                //Only got after subscribing, so no notification is missed in between
+                List<ByteBuffer> first = initial.get();
 
-            new Thread(() -> {
-                for (Notification n : sub) {
+                //The client may be too slow to even take the notification being sent
+                sub.setOnEvicted(() -> {
+                    System.out.println("Disconnecting client lagging behind on notifications");
                     try {
-                        state.connection.send(frame.getTag(), new RewardNotification(n));
+                        state.connection.close();
                     } catch (IOException e) {
-                        System.out.println("Exception sending notification: " + e.getMessage());
+                        System.out.println("Exception disconnecting client: " + e.getMessage());
                     }
+                });
+
+                //The non-blocking server pushes every subscription from a single thread
+                if (state.dispatcher != null) {
+                    state.dispatcher.register(sub, tag, state.connection, first);
+                    return;
                 }
-            }).start();
-        }
 
-        return null;
+                Threads.start(() -> {
+                    if (first != null)
+                        NotificationDispatcher.send(state.connection, tag, first);
+
+                    for (List<ByteBuffer> n : sub)
+                        NotificationDispatcher.send(state.connection, tag, n);
+                });
+            }
+        } finally {
+            state.lock.unlock();
+        }
     }
 }
@@ -0,0 +1,233 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive longs to primitive ints.
+ *
+ * Uses open addressing with linear probing over two parallel arrays, so neither the keys nor
+ * the values are ever boxed and no objects are allocated per entry.
+ *
+ * @implNote {@link #EMPTY} cannot be used as a key. Not thread safe
+ */
+public class LongIntHashMap {
+    /**
+     * Functional interface used to iterate over the entries of the map
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        /**
+         * Processes an entry of the map
+         * @param key the key of the entry
+         * @param value the value of the entry
+         */
+        void accept(long key, int value);
+    }
+
+    /**
+     * The key marking a free slot. Cannot be used as a key
+     */
+    public static final long EMPTY = Long.MIN_VALUE;
+
+    /**
+     * The maximum ratio between the number of entries and slots before the table grows
+     */
+    private static final float loadFactor = 0.5f;
+
+    /**
+     * The keys of the entries, indexed by slot
+     */
+    private long[] keys;
+
+    /**
+     * The values of the entries, indexed by slot
+     */
+    private int[] values;
+
+    /**
+     * The number of entries in the map
+     */
+    private int size;
+
+    /**
+     * Default constructor
+     */
+    public LongIntHashMap() {
+        this(8);
+    }
+
+    /**
+     * Parameterized constructor
+     * @param expectedSize the number of entries the map should hold without growing
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = 8;
+        while (capacity * loadFactor < expectedSize)
+            capacity *= 2;
+
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Gets the number of entries in the map
+     * @return the number of entries in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets whether the map has no entries
+     * @return whether the map has no entries
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets whether the map contains the given key
+     * @param key the key
+     * @return whether the map contains the given key
+     */
+    public boolean containsKey(long key) {
+        return keys[slot(key)] != EMPTY;
+    }
+
+    /**
+     * Gets the value associated to the given key
+     * @param key the key
+     * @param defaultValue the value to return if the key is not in the map
+     * @return the value associated to the key, or the default value if there is none
+     */
+    public int getOrDefault(long key, int defaultValue) {
+        int s = slot(key);
+        return keys[s] == EMPTY ? defaultValue : values[s];
+    }
+
+    /**
+     * Associates a value to the given key, replacing the previous one
+     * @param key the key
+     * @param value the value
+     */
+    public void put(long key, int value) {
+        if (key == EMPTY)
+            throw new IllegalArgumentException("Reserved key");
+
+        int s = slot(key);
+        if (keys[s] == EMPTY) {
+            keys[s] = key;
+            size++;
+        }
+        values[s] = value;
+
+        if (size > keys.length * loadFactor)
+            resize(keys.length * 2);
+    }
+
+    /**
+     * Adds a value to the one associated to the given key (0 if absent)
+     * @param key the key
+     * @param delta the value to add
+     * @return the new value associated to the key
+     */
+    public int addTo(long key, int delta) {
+        int value = getOrDefault(key, 0) + delta;
+        put(key, value);
+        return value;
+    }
+
+    /**
+     * Removes the given key from the map
+     * @param key the key
+     * @return whether the key was in the map
+     */
+    public boolean remove(long key) {
+        int s = slot(key);
+        if (keys[s] == EMPTY)
+            return false;
+
+        //Shift back the following entries of the cluster, so that no lookups are broken
+        int mask = keys.length - 1;
+        int free = s;
+        for (int i = (s + 1) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+            int home = hash(keys[i]) & mask;
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                keys[free] = keys[i];
+                values[free] = values[i];
+                free = i;
+            }
+        }
+
+        keys[free] = EMPTY;
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes every entry of the map
+     */
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Processes every entry of the map (in no particular order)
+     * @param consumer the function processing each entry
+     */
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY)
+                consumer.accept(keys[i], values[i]);
+        }
+    }
+
+    /**
+     * Gets the slot holding the given key, or the free slot where it should be inserted
+     * @param key the key
+     * @return the slot
+     */
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+
+        while (keys[i] != EMPTY && keys[i] != key)
+            i = (i + 1) & mask;
+
+        return i;
+    }
+
+    /**
+     * Resizes the table, reinserting every entry
+     * @param capacity the new number of slots (a power of 2)
+     */
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int s = slot(oldKeys[i]);
+                keys[s] = oldKeys[i];
+                values[s] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Scrambles the bits of a key, so that nearby keys do not end up in the same cluster
+     * @param key the key
+     * @return the hash of the key
+     */
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
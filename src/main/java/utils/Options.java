@@ -0,0 +1,80 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The named options (as --name=value) of a command line, in any order
+ */
+public class Options {
+    /**
+     * The value of each option given, by name
+     */
+    private final Map<String, String> values;
+
+    /**
+     * Parses the options of the arguments
+     * @param args the arguments
+     * @param from the index of the first option
+     * @param names the names of the known options
+     * @throws IllegalArgumentException if an argument is not a known option
+     */
+    public Options(String[] args, int from, String... names) {
+        List<String> known = Arrays.asList(names);
+        this.values = new HashMap<>();
+
+        for(int i = from; i < args.length; i++) {
+            int equals = args[i].indexOf('=');
+            String name = equals < 0 || !args[i].startsWith("--") ? null : args[i].substring(2, equals);
+            if(name == null || !known.contains(name))
+                throw new IllegalArgumentException("unknown option '" + args[i] + "'");
+
+            values.put(name, args[i].substring(equals + 1));
+        }
+    }
+
+    /**
+     * Gets the value of an option
+     * @param name the name of the option
+     * @param defaultValue the value if the option was not given
+     * @param allowed the values allowed
+     * @return the value of the option
+     * @throws IllegalArgumentException if the value is not allowed
+     */
+    public String get(String name, String defaultValue, String... allowed) {
+        String value = values.getOrDefault(name, defaultValue);
+        if(!Arrays.asList(allowed).contains(value))
+            throw new IllegalArgumentException("--" + name + " must be one of " + String.join(", ", allowed)
+                    + ", got '" + value + "'");
+        return value;
+    }
+
+    /**
+     * Gets the value of an integer option
+     * @param name the name of the option
+     * @param defaultValue the value if the option was not given
+     * @param minimum the minimum value of the option
+     * @param maximum the maximum value of the option
+     * @return the value of the option
+     * @throws IllegalArgumentException if the value is not an integer, or is out of range
+     */
+    public long getLong(String name, long defaultValue, long minimum, long maximum) {
+        String value = values.get(name);
+        if(value == null)
+            return defaultValue;
+
+        long ans;
+        try {
+            ans = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + name + " must be an integer, got '" + value + "'");
+        }
+        if(ans < minimum)
+            throw new IllegalArgumentException("--" + name + " must be at least " + minimum + ", got " + ans);
+        if(ans > maximum)
+            throw new IllegalArgumentException("--" + name + " must be at most " + maximum + ", got " + ans);
+        return ans;
+    }
+}
@@ -0,0 +1,71 @@
+package utils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Variable length encoding of integers: 7 bits per byte, least significant first, with the highest bit
+ * of each byte telling whether more bytes follow. Small values take a single byte.
+ *
+ * Signed values are first zigzag encoded (0, -1, 1, -2, ... become 0, 1, 2, 3, ...), so that small
+ * negative values are small as well.
+ */
+public final class VarInt {
+    /**
+     * Utility class, not to be instantiated
+     */
+    private VarInt() {}
+
+    /**
+     * Writes an unsigned integer
+     * @param out the stream to write to
+     * @param value the integer (interpreted as unsigned)
+     * @throws IOException if writing to the stream failed
+     */
+    public static void writeUnsigned(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads an unsigned integer
+     * @param in the stream to read from
+     * @return the integer
+     * @throws IOException if reading from the stream failed, or the integer is malformed
+     */
+    public static int readUnsigned(DataInputStream in) throws IOException {
+        int ans = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            ans |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return ans;
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+    /**
+     * Writes a signed integer
+     * @param out the stream to write to
+     * @param value the integer
+     * @throws IOException if writing to the stream failed
+     */
+    public static void writeSigned(DataOutputStream out, int value) throws IOException {
+        writeUnsigned(out, (value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Reads a signed integer
+     * @param in the stream to read from
+     * @return the integer
+     * @throws IOException if reading from the stream failed, or the integer is malformed
+     */
+    public static int readSigned(DataInputStream in) throws IOException {
+        int zigzag = readUnsigned(in);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
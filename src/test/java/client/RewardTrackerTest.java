@@ -0,0 +1,61 @@
+package client;
+
+import common.Frames;
+import common.Location;
+import common.Notification;
+import common.Reward;
+import common.messages.Message;
+import common.messages.RewardSnapshotNotification;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RewardTrackerTest {
+    /**
+     * Builds more rewards than fit in a single frame
+     */
+    private static List<Reward> manyRewards() {
+        List<Reward> ans = new ArrayList<>();
+        for (int i = 0; i < 2 * RewardSnapshotNotification.maximumRewards + 10; i++)
+            ans.add(new Reward(new Location(i / 1000, i % 1000), new Location(0, 0), 1));
+        return ans;
+    }
+
+    /**
+     * Encodes and decodes a message, as if sent through a connection
+     */
+    private static Message roundTrip(Message m) throws Exception {
+        return Frames.decode(2, Frames.encode(m)).getMessage();
+    }
+
+    @Test
+    public void rewardsSplitInPartsAreAppliedOnceComplete() throws Exception {
+        List<Reward> rewards = manyRewards();
+        List<RewardSnapshotNotification> parts = RewardSnapshotNotification.split(7, rewards);
+        assertEquals(3, parts.size());
+
+        RewardTracker tracker = new RewardTracker();
+        assertNull(tracker.apply(roundTrip(parts.get(0))));
+        assertNull(tracker.apply(roundTrip(parts.get(1))));
+        Notification n = tracker.apply(roundTrip(parts.get(2)));
+        assertEquals(new HashSet<>(rewards), new HashSet<>(n.getRewards()));
+    }
+
+    @Test
+    public void rewardsWithAMissingPartAreNotApplied() throws Exception {
+        List<RewardSnapshotNotification> parts = RewardSnapshotNotification.split(7, manyRewards());
+
+        RewardTracker tracker = new RewardTracker();
+        assertNull(tracker.apply(roundTrip(parts.get(0))));
+        assertNull(tracker.apply(roundTrip(parts.get(2))));
+
+        //The next rewards sent are applied
+        Notification n = tracker.apply(roundTrip(RewardSnapshotNotification.split(8, new ArrayList<>()).get(0)));
+        assertEquals(0, n.getRewards().size());
+    }
+}
@@ -0,0 +1,76 @@
+package common;
+
+import common.messages.LoginRequest;
+import common.messages.Message;
+import common.messages.NotAuthenticatedResponse;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DemultiplexerTest {
+    @Test
+    public void lateResponseToCancelledRequestIsDropped() throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            Demultiplexer client = new Demultiplexer(new TaggedConnection(SocketChannel.open(server.getLocalAddress())));
+            TaggedConnection peer = new TaggedConnection(server.accept());
+            client.start();
+
+            try {
+                CompletableFuture<Message> request = client.request(new LoginRequest("user", "password"));
+                int tag = peer.receive().getTag();
+                request.cancel(false);
+
+                //Frames are handled in order, so once the second one is received the first was handled
+                peer.send(tag, new NotAuthenticatedResponse());
+                peer.send(1, new NotAuthenticatedResponse());
+                assertTrue(client.receive(1) instanceof NotAuthenticatedResponse);
+
+                assertTrue(request.isCancelled());
+                assertFalse(client.hasSlot(tag));
+            } finally {
+                client.close();
+                peer.close();
+            }
+        }
+    }
+
+    @Test
+    public void tagNobodyReceivesDoesNotStallTheOthers() throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            Demultiplexer client = new Demultiplexer(new TaggedConnection(SocketChannel.open(server.getLocalAddress())));
+            TaggedConnection peer = new TaggedConnection(server.accept());
+            client.start();
+
+            try {
+                for (int i = 0; i < Demultiplexer.maximumBuffered + 10; i++)
+                    peer.send(3, new NotAuthenticatedResponse());
+
+                CompletableFuture<Message> request = client.request(new LoginRequest("user", "password"));
+                int tag = peer.receive().getTag();
+                peer.send(tag, new NotAuthenticatedResponse());
+                assertTrue(request.get(10, TimeUnit.SECONDS) instanceof NotAuthenticatedResponse);
+                assertEquals(10, client.getDropped());
+
+                //Once received again, the tag is waited on as before
+                for (int i = 0; i < Demultiplexer.maximumBuffered; i++)
+                    assertTrue(client.receive(3) instanceof NotAuthenticatedResponse);
+                peer.send(3, new NotAuthenticatedResponse());
+                assertTrue(client.receive(3) instanceof NotAuthenticatedResponse);
+                assertEquals(10, client.getDropped());
+            } finally {
+                client.close();
+                peer.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package common;
+
+import common.messages.LoginRequest;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TaggedConnectionTest {
+    @Test
+    public void concurrentSendersAreBatchedInOrder() throws Exception {
+        int senders = 8, frames = 500;
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            TaggedConnection conn = new TaggedConnection(SocketChannel.open(server.getLocalAddress()), 64, 200);
+            TaggedConnection peer = new TaggedConnection(server.accept());
+
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < senders; i++) {
+                int sender = i;
+                threads.add(new Thread(() -> {
+                    try {
+                        for (int j = 0; j < frames; j++)
+                            conn.send(sender, new LoginRequest("sender", String.valueOf(j)));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+
+            //Frames of each sender arrive in the order they were sent
+            int[] next = new int[senders];
+            for (int i = 0; i < senders * frames; i++) {
+                TaggedConnection.Frame f = peer.receive();
+                LoginRequest request = (LoginRequest) f.getMessage();
+                assertEquals(String.valueOf(next[f.getTag()]++), request.getPassword());
+            }
+            for (Thread t : threads)
+                t.join();
+
+            int[] expected = new int[senders];
+            Arrays.fill(expected, frames);
+            assertTrue(Arrays.equals(expected, next));
+            assertEquals(senders * frames, conn.getFramesFlushed());
+            assertTrue(conn.getFlushes() < conn.getFramesFlushed());
+
+            conn.close();
+            peer.close();
+        }
+    }
+
+    @Test
+    public void sendersOfFramesNotWrittenThrow() throws Exception {
+        char[] padding = new char[16 * 1024];
+        Arrays.fill(padding, 'x');
+        String large = new String(padding);
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            TaggedConnection conn = new TaggedConnection(SocketChannel.open(server.getLocalAddress()));
+            TaggedConnection peer = new TaggedConnection(server.accept());
+
+            //The peer does not read, so the senders eventually block
+            AtomicInteger sent = new AtomicInteger();
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                threads.add(new Thread(() -> {
+                    try {
+                        while (true) {
+                            conn.send(1, new LoginRequest(large, ""));
+                            sent.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        //Expected once the connection is closed
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+
+            Thread.sleep(300);
+            conn.close();
+            for (Thread t : threads) {
+                t.join(5000);
+                assertTrue(!t.isAlive());
+            }
+
+            //Every send which returned was written (the peer reads until the connection ends)
+            int received = 0;
+            try {
+                while (true) {
+                    peer.receive();
+                    received++;
+                }
+            } catch (IOException e) {
+                //End of the connection
+            }
+            assertTrue(sent.get() + " sends returned, only " + received + " frames were written", received >= sent.get());
+
+            peer.close();
+        }
+    }
+}
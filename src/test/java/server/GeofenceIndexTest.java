@@ -0,0 +1,55 @@
+package server;
+
+import common.Location;
+import common.Reward;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class GeofenceIndexTest {
+    @Test
+    public void subscribersAreNotifiedOnlyOfChangesInTheirArea() {
+        ServerFacade.N = 400;
+        ServerFacade.D = 5;
+
+        RewardSnapshot snapshot = RewardSnapshot.empty();
+        GeofenceIndex index = new GeofenceIndex(snapshot);
+
+        //The whole grid, too many chunks to be indexed by chunk
+        SubscribableQueue<List<ByteBuffer>>.Subscription wide = index.subscribe(
+                new GeofenceIndex.Geofence(new Location(200, 200), 800, 0), 16, SubscribableQueue.Policy.CONFLATE);
+        SubscribableQueue<List<ByteBuffer>>.Subscription narrow = index.subscribe(
+                new GeofenceIndex.Geofence(new Location(10, 10), 5, 0), 16, SubscribableQueue.Policy.CONFLATE);
+
+        //The rewards of their areas, right away
+        assertNotNull(wide.poll());
+        assertNotNull(narrow.poll());
+        assertNull(wide.poll());
+        assertNull(narrow.poll());
+
+        snapshot = snapshot.edit().put(new Reward(new Location(300, 300), new Location(0, 0), 5000)).build();
+        index.publish(snapshot);
+        assertNotNull(wide.poll());
+        assertNull(narrow.poll());
+
+        snapshot = snapshot.edit().put(new Reward(new Location(12, 12), new Location(0, 0), 5000)).build();
+        index.publish(snapshot);
+        assertNotNull(wide.poll());
+        assertNotNull(narrow.poll());
+
+        //Nothing changed
+        index.publish(snapshot.edit().build());
+        assertNull(wide.poll());
+        assertNull(narrow.poll());
+
+        wide.close();
+        narrow.close();
+        index.publish(snapshot.edit().remove(new Location(12, 12)).build());
+        assertEquals(0, index.size());
+    }
+}
@@ -0,0 +1,139 @@
+package server;
+
+import common.ITaggedConnection;
+import common.TaggedConnection;
+import common.messages.Message;
+import common.messages.RegistrationRequest;
+import common.messages.RegistrationResponse;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestPipelineTest {
+    /**
+     * A connection keeping the responses sent on each tag, which may hold the senders until released
+     */
+    private static class FakeConnection implements ITaggedConnection {
+        private final Map<Integer, List<Message>> responses = new HashMap<>();
+        private final CountDownLatch released;
+        private final AtomicInteger sending = new AtomicInteger();
+        private final AtomicInteger maximumSending = new AtomicInteger();
+        private int total = 0;
+
+        private FakeConnection(boolean held) {
+            this.released = new CountDownLatch(held ? 1 : 0);
+        }
+
+        @Override
+        public void send(int tag, Message message) {
+            maximumSending.accumulateAndGet(sending.incrementAndGet(), Math::max);
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            sending.decrementAndGet();
+
+            synchronized (this) {
+                responses.computeIfAbsent(tag, k -> new ArrayList<>()).add(message);
+                total++;
+                notifyAll();
+            }
+        }
+
+        @Override
+        public void send(int tag, ByteBuffer payload) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private synchronized void awaitResponses(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (total < count && System.currentTimeMillis() < deadline)
+                wait(100);
+        }
+    }
+
+    @Test
+    public void requestsWithTheSameTagAreAnsweredInOrder() throws Exception {
+        int tags = 8, names = 50;
+        ServerFacade facade = new ServerFacade(20, 2, 0);
+        FakeConnection connection = new FakeConnection(false);
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        RequestPipeline pipeline = new RequestPipeline(facade, new ClientHandler.State(connection, null), workers, 4);
+
+        //Each name is registered twice in a row on the same tag: only the first registration succeeds
+        for (int i = 0; i < names; i++) {
+            for (int tag = 0; tag < tags; tag++) {
+                for (int k = 0; k < 2; k++) {
+                    if (!pipeline.submit(new TaggedConnection.Frame(16 + tag, new RegistrationRequest(tag + "-" + i, "p"))))
+                        pipeline.awaitCapacity();
+                }
+            }
+        }
+        connection.awaitResponses(tags * names * 2);
+
+        for (int tag = 0; tag < tags; tag++) {
+            List<Message> responses = connection.responses.get(16 + tag);
+            assertEquals(names * 2, responses.size());
+            for (int i = 0; i < responses.size(); i++)
+                assertEquals(i % 2 == 0, ((RegistrationResponse) responses.get(i)).getUser() != null);
+        }
+        workers.shutdown();
+    }
+
+    @Test
+    public void atMostTheMaximumRequestsAreInFlight() throws Exception {
+        int maximum = 4;
+        ServerFacade facade = new ServerFacade(20, 2, 0);
+        FakeConnection connection = new FakeConnection(true);
+        ExecutorService workers = Executors.newCachedThreadPool();
+        RequestPipeline pipeline = new RequestPipeline(facade, new ClientHandler.State(connection, null), workers,
+                maximum);
+
+        //Every request has its own tag, and is held until released
+        for (int i = 0; i < maximum - 1; i++)
+            assertTrue(pipeline.submit(new TaggedConnection.Frame(16 + i, new RegistrationRequest("u" + i, "p"))));
+        assertFalse(pipeline.submit(new TaggedConnection.Frame(16 + maximum, new RegistrationRequest("u", "p"))));
+
+        //Frames already parsed are still accepted, but never processed over the limit
+        assertFalse(pipeline.submit(new TaggedConnection.Frame(32, new RegistrationRequest("v", "p"))));
+
+        Thread reader = new Thread(() -> {
+            try {
+                pipeline.awaitCapacity();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        reader.start();
+        Thread.sleep(200);
+        assertTrue(reader.isAlive());
+        assertEquals(maximum, connection.sending.get());
+
+        connection.released.countDown();
+        connection.awaitResponses(maximum + 1);
+        reader.join(5000);
+
+        assertFalse(reader.isAlive());
+        assertEquals(maximum, connection.maximumSending.get());
+        workers.shutdown();
+        workers.awaitTermination(5, TimeUnit.SECONDS);
+    }
+}
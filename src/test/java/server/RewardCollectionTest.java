@@ -0,0 +1,115 @@
+package server;
+
+import common.Location;
+import common.Reward;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RewardCollectionTest {
+    @Test
+    public void onlyOneConcurrentClaimOfARewardSucceeds() throws Exception {
+        ServerFacade.N = 400;
+        ServerFacade.D = 5;
+        RewardCollection rewards = new RewardCollection();
+        int claimers = 8, rounds = 200;
+
+        for (int round = 0; round < rounds; round++) {
+            Reward r = new Reward(new Location(round, round), new Location(0, 0), 5000);
+            //Another reward in the same chunk, changed while the claims race
+            Reward other = new Reward(new Location(round, round + 1), new Location(0, 0), 5000);
+            rewards.update(Collections.emptyList(), Collections.singletonList(r));
+
+            CyclicBarrier start = new CyclicBarrier(claimers + 1);
+            AtomicInteger claimed = new AtomicInteger();
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < claimers; i++) {
+                threads.add(new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    if (rewards.claim(r))
+                        claimed.incrementAndGet();
+                }));
+            }
+            threads.forEach(Thread::start);
+            start.await();
+            rewards.update(Collections.emptyList(), Collections.singletonList(other));
+            for (Thread t : threads)
+                t.join();
+
+            assertEquals(1, claimed.get());
+            assertNull(rewards.getSnapshot().get(r.getStartLocation()));
+            assertEquals(other, rewards.getSnapshot().get(other.getStartLocation()));
+            assertTrue(rewards.drainClaimed());
+        }
+    }
+
+    @Test
+    public void snapshotsTakenWhileUpdatingAndClaimingNeverChange() throws Exception {
+        ServerFacade.N = 400;
+        ServerFacade.D = 5;
+        RewardCollection rewards = new RewardCollection();
+        int updaters = 2, added = 2000;
+        AtomicInteger claimed = new AtomicInteger();
+        AtomicInteger updating = new AtomicInteger(updaters);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < updaters; i++) {
+            int updater = i;
+            threads.add(new Thread(() -> {
+                for (int k = 0; k < added; k++) {
+                    Reward r = new Reward(new Location(k % 400, updater * 100 + k / 400), new Location(0, 0), 5000);
+                    rewards.update(Collections.emptyList(), Collections.singletonList(r));
+                }
+                updating.decrementAndGet();
+            }));
+        }
+        for (int i = 0; i < 2; i++) {
+            threads.add(new Thread(() -> {
+                while (updating.get() > 0) {
+                    for (Reward r : rewards.getSnapshot().getRewards()) {
+                        if (rewards.claim(r))
+                            claimed.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+
+        //Snapshots taken along the way keep the rewards they had, and versions only grow
+        List<RewardSnapshot> taken = new ArrayList<>();
+        List<List<Reward>> contents = new ArrayList<>();
+        while (updating.get() > 0) {
+            RewardSnapshot s = rewards.getSnapshot();
+            if (!taken.isEmpty())
+                assertTrue(s.getVersion() >= taken.get(taken.size() - 1).getVersion());
+            taken.add(s);
+            contents.add(new ArrayList<>(s.getRewards()));
+            Thread.sleep(1);
+        }
+        for (Thread t : threads)
+            t.join();
+
+        for (int i = 0; i < taken.size(); i++) {
+            assertEquals(contents.get(i).size(), taken.get(i).size());
+            for (Reward r : contents.get(i))
+                assertEquals(r, taken.get(i).get(r.getStartLocation()));
+        }
+
+        //Every update and every claim made a new version, and no reward was lost
+        RewardSnapshot last = rewards.getSnapshot();
+        assertEquals(updaters * added, claimed.get() + last.size());
+        assertEquals(updaters * added + claimed.get(), last.getVersion());
+    }
+}
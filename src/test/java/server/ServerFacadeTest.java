@@ -0,0 +1,94 @@
+package server;
+
+import common.Location;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ServerFacadeTest {
+    /**
+     * A reward engine whose full, empty and changed locations are set by the test
+     */
+    private static class FakeEngine implements IRewardEngine {
+        private final Set<Location> full = new HashSet<>();
+        private final Set<Location> empty = new HashSet<>();
+        private final Set<Location> changed = new HashSet<>();
+        private boolean emptyLocationsLost = false;
+
+        @Override
+        public void scootersChanged(int x, int y, int delta, int count) {
+        }
+
+        @Override
+        public void refresh(ScooterCollection scooters) {
+        }
+
+        @Override
+        public boolean isEmpty(int x, int y) {
+            return empty.contains(new Location(x, y));
+        }
+
+        @Override
+        public boolean isFull(int x, int y) {
+            return full.contains(new Location(x, y));
+        }
+
+        @Override
+        public Location randomEmptyLocation(Random rnd) {
+            return empty.isEmpty() ? null : empty.iterator().next();
+        }
+
+        @Override
+        public void invalidate(int x, int y) {
+            changed.add(new Location(x, y));
+        }
+
+        @Override
+        public long[] drainChangedLocations() {
+            long[] ans = changed.stream().mapToLong(l -> Location.pack(l.getX(), l.getY())).toArray();
+            changed.clear();
+            return ans;
+        }
+
+        @Override
+        public boolean drainEmptyLocationsLost() {
+            boolean ans = emptyLocationsLost;
+            emptyLocationsLost = false;
+            return ans;
+        }
+    }
+
+    @Test
+    public void startNoLongerFullIsNotReplannedWhenEmptyLocationIsLost() {
+        FakeEngine engine = new FakeEngine();
+        ServerFacade facade = new ServerFacade(20, 2, 0, scooters -> engine);
+
+        Location first = new Location(1, 1), second = new Location(3, 3);
+        Location end = new Location(15, 15), otherEnd = new Location(18, 18);
+        engine.full.add(first);
+        engine.full.add(second);
+        engine.changed.add(first);
+        engine.changed.add(second);
+        engine.empty.add(end);
+        facade.generateRewards(2);
+        assertEquals(2, facade.getRewardSnapshot().size());
+
+        //In the same round, the first start stops being full and the end location stops being empty
+        engine.full.remove(first);
+        engine.changed.add(first);
+        engine.empty.remove(end);
+        engine.empty.add(otherEnd);
+        engine.emptyLocationsLost = true;
+        facade.generateRewards(2);
+
+        RewardSnapshot snapshot = facade.getRewardSnapshot();
+        assertNull(snapshot.get(first));
+        assertEquals(otherEnd, snapshot.get(second).getEndLocation());
+        assertEquals(1, snapshot.size());
+    }
+}
@@ -0,0 +1,160 @@
+package server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SubscribableQueueTest {
+    @Test
+    public void conflatedSubscriptionKeepsTheLastElement() {
+        SubscribableQueue<String> queue = new SubscribableQueue<>(2, SubscribableQueue.Policy.CONFLATE);
+        SubscribableQueue<String>.Subscription s = queue.getSubscription();
+
+        for (int i = 1; i <= 5; i++)
+            queue.push("delta " + i);
+
+        assertEquals("delta 5", s.poll());
+        assertNull(s.poll());
+    }
+
+    @Test
+    public void laggingSubscriptionReadsTheCatchUpElementInsteadOfTheSkippedOnes() {
+        SubscribableQueue<String> queue = new SubscribableQueue<>(2, SubscribableQueue.Policy.CONFLATE);
+        queue.setCatchUp(() -> "snapshot");
+        SubscribableQueue<String>.Subscription s = queue.getSubscription();
+        SubscribableQueue<String>.Subscription reader = queue.getSubscription();
+
+        for (int i = 1; i <= 5; i++) {
+            queue.push("delta " + i);
+            assertEquals("delta " + i, reader.poll());
+        }
+
+        //The elements pushed after skipping are held by the catch-up element as well
+        assertEquals("snapshot", s.poll());
+        assertNull(s.poll());
+        assertEquals(5, s.getDropped());
+
+        queue.push("delta 6");
+        assertEquals("delta 6", s.poll());
+        assertEquals("delta 6", reader.poll());
+    }
+
+    @Test
+    public void droppingSubscriptionKeepsTheNewestElements() {
+        SubscribableQueue<Integer> queue = new SubscribableQueue<>(3, SubscribableQueue.Policy.DROP_OLDEST);
+        SubscribableQueue<Integer>.Subscription s = queue.getSubscription();
+
+        for (int round = 0; round < 2; round++) {
+            for (int i = 1; i <= 10; i++)
+                queue.push(round * 10 + i);
+
+            for (int i = 8; i <= 10; i++)
+                assertEquals(Integer.valueOf(round * 10 + i), s.poll());
+            assertNull(s.poll());
+        }
+        assertEquals(14, s.getDropped());
+    }
+
+    @Test
+    public void disconnectedSubscriptionIsEvicted() {
+        SubscribableQueue<Integer> queue = new SubscribableQueue<>(2, SubscribableQueue.Policy.DISCONNECT);
+        SubscribableQueue<Integer>.Subscription s = queue.getSubscription();
+        SubscribableQueue<Integer>.Subscription reader = queue.getSubscription();
+        AtomicInteger evictions = new AtomicInteger();
+        s.setOnEvicted(evictions::incrementAndGet);
+
+        for (int i = 1; i <= 5; i++) {
+            queue.push(i);
+            assertEquals(Integer.valueOf(i), reader.poll());
+        }
+
+        assertTrue(s.isEvicted());
+        assertTrue(s.isClosed());
+        assertEquals(1, evictions.get());
+        assertFalse(reader.isClosed());
+        assertEquals(1, queue.getSubscriptionCount());
+    }
+
+    @Test
+    public void interruptedReaderEndsTheIteration() throws Exception {
+        SubscribableQueue<Integer> queue = new SubscribableQueue<>();
+        SubscribableQueue<Integer>.Subscription s = queue.getSubscription();
+        AtomicInteger read = new AtomicInteger();
+        AtomicBoolean interrupted = new AtomicBoolean();
+
+        Thread t = new Thread(() -> {
+            for (Integer ignored : s)
+                read.incrementAndGet();
+            interrupted.set(Thread.currentThread().isInterrupted());
+        });
+        t.start();
+
+        queue.push(1);
+        while (read.get() == 0)
+            Thread.sleep(1);
+        t.interrupt();
+        t.join(5000);
+
+        assertFalse(t.isAlive());
+        assertTrue(interrupted.get());
+        assertEquals(1, read.get());
+    }
+
+    @Test
+    public void concurrentPushesAreReadInOrderWithinTheRetainedElements() throws Exception {
+        int pushers = 4, pushes = 20000, maximum = 64;
+        SubscribableQueue<Integer> queue = new SubscribableQueue<>(maximum, SubscribableQueue.Policy.DROP_OLDEST);
+        SubscribableQueue<Integer>.Subscription stalled = queue.getSubscription();
+        SubscribableQueue<Integer>.Subscription evicted = queue.getSubscription(SubscribableQueue.Policy.DISCONNECT);
+
+        //Readers may lag behind and skip elements, but see the ones of each pusher in order
+        List<Thread> readers = new ArrayList<>();
+        AtomicBoolean ordered = new AtomicBoolean(true);
+        for (int i = 0; i < 2; i++) {
+            SubscribableQueue<Integer>.Subscription s = queue.getSubscription();
+            readers.add(new Thread(() -> {
+                int[] next = new int[pushers];
+                for (int x : s) {
+                    if (x < 0)
+                        break;
+                    if (x % pushes < next[x / pushes])
+                        ordered.set(false);
+                    next[x / pushes] = x % pushes + 1;
+                }
+            }));
+        }
+        readers.forEach(Thread::start);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < pushers; i++) {
+            int pusher = i;
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < pushes; j++)
+                    queue.push(pusher * pushes + j);
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread t : threads)
+            t.join();
+
+        //The last element is never dropped
+        queue.push(-1);
+        for (Thread t : readers) {
+            t.join(10000);
+            assertFalse(t.isAlive());
+        }
+
+        assertTrue(ordered.get());
+        assertTrue(evicted.isEvicted());
+        assertEquals(maximum, stalled.getLag());
+        assertEquals(pushers * pushes + 1 - maximum, stalled.getDropped());
+    }
+}